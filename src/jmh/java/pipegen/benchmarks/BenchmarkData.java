@@ -0,0 +1,188 @@
+/*
+    Program:  BenchmarkData.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class builds the pipelines and data tables used by the JMH
+              benchmarks.
+
+              Pipelines are either loaded from the testToolbox or generated 
+              from its module definitions as a number of parallel chains of 
+              copyNIFTI modules. Data tables are generated with one row per id
+              and a column for every source and sink field of the pipeline.
+
+ */
+
+package pipegen.benchmarks;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+
+import pipegen.*;
+import pipegen.definitions.*;
+import pipegen.instances.*;
+
+
+public class BenchmarkData {
+
+    // Toolbox holding the module definitions, relative to the project root
+    private static final String TOOLBOX_DIR = System.getProperty("pipegen.toolbox", "data/toolboxes/testToolbox");
+
+    // Name of the generated chain pipeline, e.g. "chain4x8" is four chains of
+    // eight modules each
+    private static final String CHAIN_PREFIX = "chain";
+
+    private static final String CHAIN_MODULE = "copyNIFTI";
+    private static final String CHAIN_FORMAT = "NIfTI";
+
+    /**
+     * Loads the toolbox used by the benchmarks
+     */
+    public static ToolboxDef loadToolbox() throws Exception {
+        ToolboxDef toolbox = new ToolboxDef(new File(TOOLBOX_DIR));
+        toolbox.load();
+        return toolbox;
+    }
+
+    /**
+     * Loads a pipeline by name. Names of the form "chainWxD" are generated as
+     * W chains of D modules, and any other name is read from the toolbox's 
+     * pipelines directory.
+     */
+    public static PipelineInstance loadPipeline(ToolboxDef toolbox, String name, File workDir) throws Exception {
+
+        File file;
+        if (name.startsWith(CHAIN_PREFIX)) {
+            String[] size = name.substring(CHAIN_PREFIX.length()).split("x");
+            file = new File(workDir, name + ".json");
+            writeText(file, composeChainPipeline(Integer.parseInt(size[0]), Integer.parseInt(size[1])));
+        } else {
+            file = new File(toolbox.getDir(), "pipelines/" + name + ".json");
+        }
+
+        PipelineInstance pipeline = new PipelineInstance(new PipelineDef(toolbox, file));
+        pipeline.load();
+        return pipeline;
+    }
+
+    /**
+     * Composes the JSON text of a pipeline with width chains of depth modules,
+     * each chain running from its own source to its own sink
+     */
+    private static String composeChainPipeline(int width, int depth) {
+
+        StringBuilder sources = new StringBuilder();
+        StringBuilder sinks = new StringBuilder();
+        StringBuilder modules = new StringBuilder();
+        StringBuilder connections = new StringBuilder();
+
+        int moduleId = 0;
+        for (int chain=1; chain <= width; chain++) {
+            separate(sources).append("{\"id\":" + chain + ",\"dataTableField\":\"in" + chain + "\",\"output\":" + mountPoint() + ",\"position\":" + position(chain, 0) + "}");
+            separate(sinks).append("{\"id\":" + chain + ",\"dataTableField\":\"out" + chain + "\",\"input\":" + mountPoint() + ",\"position\":" + position(chain, depth + 1) + "}");
+
+            String previous = "sources[" + chain + "]";
+            for (int step=1; step <= depth; step++) {
+                moduleId++;
+                separate(modules).append("{\"id\":" + moduleId + ",\"moduleName\":\"" + CHAIN_MODULE + "\",\"position\":" + position(chain, step) + "}");
+                separate(connections).append("{\"start\":\"" + previous + "\",\"stop\":\"modules[" + moduleId + "].fromFile\"}");
+                previous = "modules[" + moduleId + "].toFile";
+            }
+            separate(connections).append("{\"start\":\"" + previous + "\",\"stop\":\"sinks[" + chain + "]\"}");
+        }
+
+        return "{\"workflowName\":\"" + CHAIN_PREFIX + width + "x" + depth + "\""
+                + ",\"sources\":[" + sources + "]"
+                + ",\"sinks\":[" + sinks + "]"
+                + ",\"modules\":[" + modules + "]"
+                + ",\"connections\":[" + connections + "]}";
+    }
+
+    private static StringBuilder separate(StringBuilder sb) {
+        if (sb.length() > 0) {
+            sb.append(',');
+        }
+        return sb;
+    }
+
+    private static String mountPoint() {
+        return "{\"name\":\"\",\"format\":\"" + CHAIN_FORMAT + "\",\"required\":true}";
+    }
+
+    private static String position(int column, int row) {
+        return "{\"X\":" + (column * 120) + ",\"Y\":" + (row * 60) + "}";
+    }
+
+    /**
+     * Writes a data table with the given number of ids for a pipeline and 
+     * loads it. Every id has its own $(DATA) directory, and each source and 
+     * sink field names a file within it.
+     */
+    public static DataTableFile writeTable(PipelineInstance pipeline, int ids, File file) throws Exception {
+
+        Set<String> fields = new LinkedHashSet<String>();
+        Set<String> argFields = new HashSet<String>();
+        for (SourceElement source : pipeline.getSources()) {
+            fields.add(source.getTableField());
+            if (source.isArg()) {
+                argFields.add(source.getTableField());
+            }
+        }
+        for (SinkElement sink : pipeline.getSinks()) {
+            fields.add(sink.getTableField());
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("id | $(DATA)");
+        for (String field : fields) {
+            sb.append(" | ").append(field);
+        }
+        sb.append('\n');
+
+        for (int row=1; row <= ids; row++) {
+            String id = String.format("%06d", row);
+            sb.append(id).append(" | /data/subject").append(id).append('/');
+            int column = 0;
+            for (String field : fields) {
+                column++;
+                if (argFields.contains(field)) {
+                    sb.append(" | ").append(column);
+                } else {
+                    sb.append(" | $(DATA)field").append(column).append(".nii.gz");
+                }
+            }
+            sb.append('\n');
+        }
+        writeText(file, sb.toString());
+
+        DataTableFile table = new DataTableFile(file.getPath());
+        table.loadData();
+        return table;
+    }
+
+    /**
+     * Creates a temporary directory for a benchmark's files
+     */
+    public static File createWorkDir() throws IOException {
+        return Files.createTempDirectory("pipegen-jmh").toFile();
+    }
+
+    /**
+     * Deletes a benchmark's temporary directory and everything in it
+     */
+    public static void deleteWorkDir(File dir) throws IOException {
+        if (dir == null || ! dir.exists()) {
+            return;
+        }
+        Files.walk(dir.toPath())
+            .sorted(Comparator.reverseOrder())
+            .map(Path::toFile)
+            .forEach(File::delete);
+    }
+
+    private static void writeText(File file, String text) throws IOException {
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+    Program:  BlockElementVisitorBenchmark.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This JMH benchmark measures building the rules of every sink for
+              a single id with BlockElementVisitor, cycling through the ids of
+              the data table.
+
+ */
+
+package pipegen.benchmarks;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import pipegen.*;
+import pipegen.definitions.*;
+import pipegen.instances.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BlockElementVisitorBenchmark {
+
+    @Param({"dtiFit", "chain4x8", "chain16x16"})
+    public String pipelineName;
+
+    @Param({"10", "1000", "100000"})
+    public int ids;
+
+    private File workDir;
+    private DataTableFile table;
+    private List<SinkElement> sinks;
+    private UpstreamWalk walk;
+    private String[] idList;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        workDir = BenchmarkData.createWorkDir();
+        ToolboxDef toolbox = BenchmarkData.loadToolbox();
+        PipelineInstance pipeline = BenchmarkData.loadPipeline(toolbox, pipelineName, workDir);
+        table = BenchmarkData.writeTable(pipeline, ids, new File(workDir, "table.csv"));
+        sinks = pipeline.getSinks();
+        walk = new UpstreamWalk(sinks);
+        idList = table.getColumnByHeader("id");
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteWorkDir(workDir);
+    }
+
+    @Benchmark
+    public void visitAllSinks(Blackhole blackhole) throws Exception {
+        String id = idList[next];
+        next = (next + 1) % idList.length;
+
+        for (SinkElement sink : sinks) {
+            BlockElementVisitor visitor = new BlockElementVisitor(table);
+            visitor.visit(sink, id, walk);
+            blackhole.consume(visitor.getText());
+            blackhole.consume(visitor.getIntermediateList());
+        }
+    }
+}
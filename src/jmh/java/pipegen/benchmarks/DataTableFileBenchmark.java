@@ -0,0 +1,88 @@
+/*
+    Program:  DataTableFileBenchmark.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This JMH benchmark measures loading a data table from disk and
+              looking up single cells by field header and rowid.
+
+ */
+
+package pipegen.benchmarks;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import pipegen.*;
+import pipegen.definitions.*;
+import pipegen.instances.*;
+
+
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DataTableFileBenchmark {
+
+    // Number of cells looked up in a random order
+    private static final int LOOKUPS = 1 << 12;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int ids;
+
+    private File workDir;
+    private File tableFile;
+    private DataTableFile table;
+    private String[] lookupHeaders;
+    private String[] lookupIds;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        workDir = BenchmarkData.createWorkDir();
+        ToolboxDef toolbox = BenchmarkData.loadToolbox();
+        PipelineInstance pipeline = BenchmarkData.loadPipeline(toolbox, "dtiFit", workDir);
+        tableFile = new File(workDir, "table.csv");
+        table = BenchmarkData.writeTable(pipeline, ids, tableFile);
+
+        // Choose cells ahead of time so the benchmark only measures lookups
+        Random random = new Random(42);
+        String[] headers = table.getHeaders();
+        String[] idList = table.getColumnByHeader("id");
+        lookupHeaders = new String[LOOKUPS];
+        lookupIds = new String[LOOKUPS];
+        for (int i=0; i < LOOKUPS; i++) {
+            lookupHeaders[i] = headers[random.nextInt(headers.length)];
+            lookupIds[i] = idList[random.nextInt(idList.length)];
+        }
+        next = 0;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteWorkDir(workDir);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public DataTableFile loadData() throws Exception {
+        DataTableFile loaded = new DataTableFile(tableFile.getPath());
+        loaded.loadData();
+        return loaded;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public String getDataByHeaderAndRowid() {
+        int i = next;
+        next = (next + 1) & (LOOKUPS - 1);
+        return table.getDataByHeaderAndRowid(lookupHeaders[i], lookupIds[i]);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+    Program:  MakefileFactoryBenchmark.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This JMH benchmark measures composing and writing a whole 
+              makefile with MakefileFactory for pipelines and data tables of 
+              increasing size.
+
+ */
+
+package pipegen.benchmarks;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import pipegen.*;
+import pipegen.definitions.*;
+import pipegen.instances.*;
+
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MakefileFactoryBenchmark {
+
+    @Param({"dtiFit", "chain4x8"})
+    public String pipelineName;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int ids;
+
+    @Param({"false", "true"})
+    public boolean streaming;
+
+    private File workDir;
+    private DataTableFile table;
+    private PipelineInstance pipeline;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        workDir = BenchmarkData.createWorkDir();
+        ToolboxDef toolbox = BenchmarkData.loadToolbox();
+        pipeline = BenchmarkData.loadPipeline(toolbox, pipelineName, workDir);
+        table = BenchmarkData.writeTable(pipeline, ids, new File(workDir, "table.csv"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkData.deleteWorkDir(workDir);
+    }
+
+    @Benchmark
+    public File composeAndWrite() throws Exception {
+        File makefile = new File(workDir, "analysis/Makefile");
+        MakefileFactory factory = new MakefileFactory(makefile, table, pipeline);
+        factory.setStreaming(streaming);
+        factory.setParallelism(Runtime.getRuntime().availableProcessors());
+        factory.composeAndWrite();
+        return makefile;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+    Program:  AnalysisLog.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class collects the output of an analysis as it runs. Each
+              line of standard output and standard error is written to its 
+              file on disk and appended to a LogBuffer that the GUI follows.
+
+              The output of processes is copied by pump threads, one per 
+              stream, so it is seen as soon as a line is complete rather than
+              when the analysis finishes.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.nio.charset.*;
+
+
+public class AnalysisLog {
+
+    // Lines longer than this are shortened in the buffer, but not on disk
+    private static final int MAX_BUFFERED_LINE = 4096;
+
+    private final LogBuffer buffer;
+    private final Writer stdout;
+    private final Writer stderr;
+
+    public AnalysisLog(File stdoutFile, File stderrFile, LogBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        this.stdout = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(stdoutFile), StandardCharsets.UTF_8));
+        Writer errorWriter = null;
+        try {
+            errorWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(stderrFile), StandardCharsets.UTF_8));
+        } finally {
+            if (errorWriter == null) {
+                stdout.close();
+            }
+        }
+        this.stderr = errorWriter;
+    }
+
+    /**
+     * Returns the buffer of recent lines
+     */
+    public LogBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Writes a line to standard output or standard error
+     */
+    public void println(String text, boolean error) {
+        synchronized (this) {
+            try {
+                Writer writer = error ? stderr : stdout;
+                writer.write(text);
+                writer.write('\n');
+
+                // Flush errors straight away so a failure can be found on
+                // disk while the analysis runs
+                if (error) {
+                    writer.flush();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (text.length() > MAX_BUFFERED_LINE) {
+            text = text.substring(0, MAX_BUFFERED_LINE) + " ...";
+        }
+        buffer.append(new LogLine(text, error));
+    }
+
+    /**
+     * Starts a thread copying the lines of a stream into this log. The thread
+     * ends when the stream does.
+     */
+    public Thread pump(final InputStream in, final boolean error) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charset.defaultCharset()));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        println(line, error);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }, error ? "AnalysisLog-stderr" : "AnalysisLog-stdout");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Flushes both files to disk
+     */
+    public synchronized void flush() throws IOException {
+        stdout.flush();
+        stderr.flush();
+    }
+
+    /**
+     * Flushes and closes both files
+     */
+    public synchronized void close() throws IOException {
+        try {
+            stdout.close();
+        } finally {
+            stderr.close();
+        }
+    }
+}
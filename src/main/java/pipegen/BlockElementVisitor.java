@@ -8,8 +8,9 @@
 
               The visitors accrue the appropriate makefile text for each node
               as they visit them. The visitor starts from the makefile outputs
-              SourceElements and then traverse 'upstream' moving to each node's
-              parents.
+              SinkElements and then visits the upstream elements assigned to 
+              that sink by an UpstreamWalk, so elements shared between sinks 
+              are written only once for each id.
 
               The make code generated by using BlockElementVisitor is then 
               turned into a file by the MakefileFactory class. And finished 
@@ -20,6 +21,7 @@
 package pipegen;
 
 import java.io.*;
+import java.util.*;
 
 import pipegen.exceptions.*;
 import pipegen.instances.*;
@@ -31,14 +33,14 @@ public class BlockElementVisitor {
     private String intermediateList;
     private StringBuilder sb;
     private boolean validBranch;
-    private String[] makeVariables;
+    private MakeVariableSubstitution substitution;
 
     public BlockElementVisitor(DataTableFile table) throws InvalidMakefileException {
         this.table = table;
         intermediateList = "";
         sb = new StringBuilder();
         validBranch = true;
-        this.makeVariables = table.getMakeVariables();
+        this.substitution = table.getMakeVariableSubstitution();
     }
 
     /**
@@ -56,9 +58,17 @@ public class BlockElementVisitor {
     }
 
     /**
-     * Visit a SinkElement and generate relevant makefile text
+     * Visit a SinkElement and every upstream element it depends on
      */
     public void visit(SinkElement sink, String id) throws InvalidMakefileException {
+        visit(sink, id, new UpstreamWalk(Collections.singletonList(sink)));
+    }
+
+    /**
+     * Visit a SinkElement and the upstream elements assigned to it by a walk 
+     * of the pipeline
+     */
+    public void visit(SinkElement sink, String id, UpstreamWalk walk) throws InvalidMakefileException {
 
         sb.append("# id " + id + " at sink " + sink.getBlockName() + "\n");
 
@@ -86,16 +96,14 @@ public class BlockElementVisitor {
         rule += "\n";
 
         // Replace all user provided makefile variables with an ID specific version 
-        for (String variable : makeVariables) {
-            rule = rule.replace("$(" + variable + ")", "$(id" + id + "_" + variable + ")");
-        }
+        rule = substitution.rename(rule, "id" + id + "_");
 
         // Append the new rule to makefile text
         sb.append(rule);
 
-        // Visit the parents of this source
-        if (parent != null && sink.isFirstOutputOf(parent)) {
-            visit(parent, id);
+        // Visit the upstream elements assigned to this sink
+        for (BlockElement block : walk.getBlocks(sink)) {
+            visit(block, id);
         }
     }
 
@@ -175,19 +183,10 @@ public class BlockElementVisitor {
         }
 
         // Replace all user provided makefile variables with an ID specific version 
-        for (String variable : makeVariables) {
-            rule = rule.replace("$(" + variable + ")", "$(id" + id + "_" + variable + ")");
-        }
+        rule = substitution.rename(rule, "id" + id + "_");
 
         // Append the new rule(s) to makefile text
         sb.append(rule);
-
-        // Visit the parents of this module
-        for (BlockElement parent : parents) {
-            if (parent != null && module.isFirstOutputOf(parent)) {
-                visit(parent, id);
-            }
-        }
     }
 
     /**
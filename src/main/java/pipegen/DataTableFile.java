@@ -6,7 +6,9 @@
     Purpose:  This class extends File representing files containing tabular data
 
               Reads a .csv style text file that uses | (i.e. vertical bar) as a
-              delimeter. Data is then stored in a 2D string array, String[][].
+              delimeter. Data is then stored column by column, with the header
+              row and the 'id' column indexed by hash maps so that individual 
+              cells and whole columns can be looked up without scanning.
 
  */
 
@@ -21,7 +23,17 @@ import pipegen.exceptions.*;
 public class DataTableFile extends File {
 
     private static final String cvsSplitBy = "\\|";
-    private String[][] table;
+    private static final String ID_HEADER = "id";
+
+    // Columnar backing store. The header row is kept apart from the data 
+    // columns, and both headers and row ids are hash indexed so that a cell 
+    // lookup does not need to scan or copy any column.
+    private String[] headers;
+    private String[][] columns;
+    private Map<String, Integer> headerIndex;
+    private Map<String, Integer> rowIndex;
+    private String[] makeVariables;
+    private MakeVariableSubstitution substitution;
 
     public DataTableFile(String pathname) {
         super(pathname);
@@ -63,74 +75,94 @@ public class DataTableFile extends File {
 
         // Create table based on dimensions of tableList
         int tableHeight = tableList.size();
+        if (tableHeight == 0) {
+		    throw new InvalidCSVFileException();
+        }
         int tableWidth = tableList.get(0).length;
-        if (tableHeight == 0 || tableWidth == 0) {
+        if (tableWidth == 0) {
 		    throw new InvalidCSVFileException();
         }
-        table = new String[tableHeight][tableWidth];
 
-        // Copy tableList to array format table
-        for (int i=0; i < tableHeight; i++) {
-            table[i] = tableList.get(i);
-            if (table[i].length != tableWidth) {
+        // Transpose the data rows of tableList into columns
+        String[] newHeaders = tableList.get(0);
+        String[][] newColumns = new String[tableWidth][tableHeight-1];
+        for (int row=1; row < tableHeight; row++) {
+            String[] tokens = tableList.get(row);
+            if (tokens.length != tableWidth) {
 		        throw new InvalidCSVFileException();
             }
+            for (int col=0; col < tableWidth; col++) {
+                newColumns[col][row-1] = tokens[col];
+            }
         }
 
-        // Verify that table has valid data
-        if (! isValid()) {
+        // Verify that table has valid data and build the indexes
+        if (! buildIndexes(newHeaders, newColumns)) {
 		    throw new InvalidCSVFileException();
         }
+        headers = newHeaders;
+        columns = newColumns;
     }
 
     /**
-     * Returns true iff this table has valid data
+     * Builds the header and rowid indexes for the given table. Returns true iff 
+     * the table has valid data, that is unique headers, an 'id' field, and 
+     * unique rowid's.
      */
-    private boolean isValid() {
+    private boolean buildIndexes(String[] newHeaders, String[][] newColumns) {
 
         // Verify that the headers are unique
-        String[] headers = getHeaders();
-        if (hasDuplicates(headers)) {
+        Map<String, Integer> newHeaderIndex = indexOf(newHeaders);
+        if (newHeaderIndex == null) {
             return false;
         }
 
         // Verify that there is an 'id' field
-        int idIndex = Arrays.asList(getHeaders()).indexOf("id");
-        if (idIndex == -1) {
+        Integer idIndex = newHeaderIndex.get(ID_HEADER);
+        if (idIndex == null) {
             return false;
         }
 
         // Verify that rowid's found in id are unique
-        String[] idColumn = getColumnByHeader("id");
-        if (hasDuplicates(idColumn)) {
+        Map<String, Integer> newRowIndex = indexOf(newColumns[idIndex]);
+        if (newRowIndex == null) {
             return false;
         }
 
+        // Collect the fields that are makefile-style variables
+        List<String> variableList = new ArrayList<String>();
+        for (String header : newHeaders) {
+            if (isMakeVariable(header)) {
+                variableList.add(removeMakeVarBrackets(header));
+            }
+        }
+
+        headerIndex = newHeaderIndex;
+        rowIndex = newRowIndex;
+        makeVariables = variableList.toArray(new String[variableList.size()]);
+        substitution = new MakeVariableSubstitution(makeVariables);
         return true;
     }
 
     /**
-     * Returns true if the input array has duplicate entries
+     * Returns a map from each entry of the input array to its index, or null 
+     * if the input array has duplicate entries
      */
-    private static boolean hasDuplicates(String[] array) {
-        for (int i=0; i < array.length-1; i++) {
-            for (int j=i+1; j < array.length; j++) {
-                if (array[i].equals(array[j])) {
-                    return true;
-                }
+    private static Map<String, Integer> indexOf(String[] array) {
+        Map<String, Integer> index = new HashMap<String, Integer>(2 * array.length);
+        for (int i=0; i < array.length; i++) {
+            if (index.put(array[i], i) != null) {
+                return null;
             }
         }
-        return false;
+        return index;
     }
 
     /**
-     * Returns the table excluding the header row
+     * Returns the header row of the table
      */
     public String[] getHeaders() {
-        if (table.length == 0) {
-            return null;
-        }
-        return table[0];
+        return headers;
     }
 
     /**
@@ -138,31 +170,36 @@ public class DataTableFile extends File {
      */
     public String[][] getContents() {
 
-        String[][] outputTable = new String[table.length-1][table[0].length];
-        for (int row=1; row < table.length; row++) {
-            outputTable[row-1] = table[row];
+        String[][] outputTable = new String[getRowCount()][headers.length];
+        for (int row=0; row < outputTable.length; row++) {
+            for (int col=0; col < headers.length; col++) {
+                outputTable[row][col] = columns[col][row];
+            }
         }
         return outputTable;
     }
 
     /**
-     * Returns a whole column of data from the table based on the field header
+     * Returns the number of rows in the table excluding the header row
+     */
+    public int getRowCount() {
+        return columns[0].length;
+    }
+
+    /**
+     * Returns a whole column of data from the table based on the field header. 
+     * The returned array is the table's backing column and must not be 
+     * modified by the caller.
      */
     public String[] getColumnByHeader(String header) {
 
         // Get column index for the requested field
         // Return null if no such field is found
-        int col = Arrays.asList(getHeaders()).indexOf(header);
-        if (col == -1) {
+        Integer col = headerIndex.get(header);
+        if (col == null) {
             return null;
         }
-
-        // Copy selected column into output column, excludes the header row
-        String[] outputColumn = new String[table.length-1];
-        for (int row=1; row < table.length; row++) {
-            outputColumn[row-1] = table[row][col];
-        }
-        return outputColumn;
+        return columns[col];
     }
 
     /**
@@ -170,57 +207,52 @@ public class DataTableFile extends File {
      */
     public String getDataByHeaderAndRowid(String header, String rowid) {
 
-        String[] idColumn = getColumnByHeader("id");
-        String[] dataColumn = getColumnByHeader(header);
-
-        // Either column is missing from the table return null
-        if (idColumn == null || dataColumn == null) {
-            return null;
-        }
-
-        // Find the internal arrayIndex of rowid
-        // Return null if rowid is not found in the idColumn
-        int arrayIndex = Arrays.asList(idColumn).indexOf(rowid);
-        if (arrayIndex == -1) {
+        // Either the column or the rowid is missing from the table return null
+        Integer col = headerIndex.get(header);
+        Integer row = rowIndex.get(rowid);
+        if (col == null || row == null) {
             return null;
         }
 
-        return dataColumn[arrayIndex];
+        return columns[col][row];
     }
 
     /**
      * Returns an array of the fields in this table that have makefile-style variables
      */
     public String[] getMakeVariables() {
-
-        List<String> outputList = new ArrayList<String>();
-        // Check each field header, if it is a makefile variable append it to outputList
-        String[] headers = getHeaders();
         if (headers == null) {
             return null;
         }
-        for (String header : getHeaders()) {
-            if (isMakeVariable(header)) {
-                String varName = removeMakeVarBrackets(header);
-                outputList.add(varName);
-            }
-        }
-        return outputList.toArray(new String[outputList.size()]);
+        return makeVariables.clone();
     }
 
     /**
-     * Replaces 
+     * Returns the substitution that rewrites references to this table's 
+     * makefile-style variables
+     */
+    public MakeVariableSubstitution getMakeVariableSubstitution() {
+        return substitution;
+    }
+
+    /**
+     * Replaces references to makefile-style variables in the input with their
+     * values for the given rowid
      */
     public String replaceMakeVariables(String input, String id) {
-        String output = input;
+        return substitution.substitute(input, getMakeVariableValues(id));
+    }
 
-        String[] makeVariables = getMakeVariables();
+    /**
+     * Returns the values of this table's makefile-style variables for the 
+     * given rowid, so many inputs for one row can share them
+     */
+    public Map<String, String> getMakeVariableValues(String id) {
+        Map<String, String> values = new HashMap<String, String>(2 * makeVariables.length);
         for (String var : makeVariables) {
-            String name = "$(" + var + ")";
-            String value = getDataByHeaderAndRowid(name, id);
-            output = output.replace(name, value);
+            values.put(var, getDataByHeaderAndRowid("$(" + var + ")", id));
         }
-        return output;
+        return values;
     }
 
     /**
@@ -252,13 +284,17 @@ public class DataTableFile extends File {
      */
     public String toString() {
 
-        String out = "";
-        for (int i=0; i < table.length; i++) {
-            for (int j=0; j < table[i].length; j++) {
-                out += table[i][j] + " ";
+        StringBuilder sb = new StringBuilder();
+        for (int col=0; col < headers.length; col++) {
+            sb.append(headers[col] + " ");
+        }
+        sb.append("\n");
+        for (int row=0; row < getRowCount(); row++) {
+            for (int col=0; col < headers.length; col++) {
+                sb.append(columns[col][row] + " ");
             }
-            out += "\n";
+            sb.append("\n");
         }
-        return out;
+        return sb.toString();
     }
 }
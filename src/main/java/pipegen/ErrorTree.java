@@ -0,0 +1,96 @@
+/*
+    Program:  ErrorTree.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class holds the error tree of a module: the down-stream
+              modules and sinks that can not be produced when the module
+              fails.
+
+              The shape of the tree depends only on the module, so it is
+              built once by an ErrorTreeVisitor and rendered for each id that
+              fails by filling in the id's sink filenames. The text of every
+              line except the filenames is prepared when the tree is built.
+
+ */
+
+package pipegen;
+
+import java.util.*;
+
+import pipegen.instances.*;
+
+
+public class ErrorTree {
+
+    private List<String> prefixes;
+    private List<SinkElement> sinks;
+
+    public ErrorTree() {
+        prefixes = new ArrayList<String>();
+        sinks = new ArrayList<SinkElement>();
+    }
+
+    /**
+     * Adds a line for a module at an indentation level
+     */
+    void addModule(ModuleElement module, int level) {
+        prefixes.add(indent(level) + "<span class=\"red\">+ " + module.getName() + "</span>\n");
+        sinks.add(null);
+    }
+
+    /**
+     * Adds a line for a sink at an indentation level. The sink's filename is
+     * filled in for each id rendered.
+     */
+    void addSink(SinkElement sink, int level) {
+        prefixes.add(indent(level) + "<span class=\"red\">- " + sink.getBlockName() + ":</span><span class=\"black\"> ");
+        sinks.add(sink);
+    }
+
+    private static String indent(int level) {
+        StringBuilder sb = new StringBuilder(4 * level);
+        for (int i=0; i < level; i++) {
+            sb.append("    ");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends the tree for an id to sb
+     */
+    public void render(StringBuilder sb, DataTableFile table, String id) {
+
+        Map<String, String> values = null;
+        MakeVariableSubstitution substitution = table.getMakeVariableSubstitution();
+
+        for (int i=0; i < prefixes.size(); i++) {
+            sb.append(prefixes.get(i));
+
+            SinkElement sink = sinks.get(i);
+            if (sink == null) {
+                continue;
+            }
+
+            // The variables of the id are looked up once for all its sinks
+            if (values == null) {
+                values = table.getMakeVariableValues(id);
+            }
+            String outputFile = sink.getFilename(id, table);
+            if (outputFile != null) {
+                outputFile = substitution.substitute(outputFile, values);
+            }
+            sb.append(outputFile);
+            sb.append("</span>\n");
+        }
+    }
+
+    /**
+     * Returns the tree for an id
+     */
+    public String render(DataTableFile table, String id) {
+        StringBuilder sb = new StringBuilder();
+        render(sb, table, id);
+        return sb.toString();
+    }
+}
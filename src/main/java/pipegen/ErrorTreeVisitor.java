@@ -9,7 +9,8 @@
               The visitors accrue the appropriate error tree text for each node
               as they visit them. The visitor starts from a given module and 
               then visits all down-stream modules and sinks that make use of the
-              module's output.
+              module's output. The tree is kept as an ErrorTree, which can be
+              rendered for any id without visiting the workflow again.
 
  */
 
@@ -25,13 +26,20 @@ public class ErrorTreeVisitor {
 
     private DataTableFile table;
     private String id;
-    private StringBuilder sb;
+    private ErrorTree tree;
     private int level;
 
+    /**
+     * Creates a visitor that builds an error tree to be rendered for any id
+     */
+    public ErrorTreeVisitor() {
+        this(null, null);
+    }
+
     public ErrorTreeVisitor(DataTableFile table, String id) {
         this.table = table;
         this.id = id;
-        sb = new StringBuilder();
+        tree = new ErrorTree();
         level = 0;
     }
 
@@ -52,10 +60,7 @@ public class ErrorTreeVisitor {
      */
     public void visit(ModuleElement module) {
 
-        for (int i=0; i < level; i++) {
-            sb.append("    ");
-        }
-        sb.append("<span class=\"red\">+ " + module.getName() + "</span>\n");
+        tree.addModule(module, level);
 
         level += 1;
         for (BlockElement child : module.getChildren()) {
@@ -67,16 +72,15 @@ public class ErrorTreeVisitor {
      * Visit a SinkElement and generate relevant makefile text
      */
     public void visit(SinkElement sink) {
+        tree.addSink(sink, level);
+    }
 
-        String outputFile = sink.getFilename(id, table);
-
-        outputFile = table.replaceMakeVariables(outputFile, id);
-
-        for (int i=0; i < level; i++) {
-            sb.append("    ");
-        }
-        sb.append("<span class=\"red\">- " + sink.getBlockName() + ":</span><span class=\"black\"> " + outputFile + "</span>\n");
-
+    /**
+     * Returns the error tree built during this visitor's traversal of the
+     * workflow
+     */
+    public ErrorTree getTree() {
+        return tree;
     }
 
     /**
@@ -84,7 +88,7 @@ public class ErrorTreeVisitor {
      * traversal of the workflow.
      */
     public String getText() {
-        return sb.toString();
+        return tree.render(table, id);
     }
 
 }
@@ -0,0 +1,102 @@
+/*
+    Program:  ExecutionCapacity.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class holds the cores and memory a PipelineExecutor may use
+              and admits jobs while their declared resources fit.
+
+              A job asking for more than the whole capacity is limited to the
+              whole capacity, so it still runs, alone. A capacity without 
+              memory does not limit jobs by memory.
+
+ */
+
+package pipegen;
+
+import java.lang.management.*;
+
+
+public class ExecutionCapacity {
+
+    private final int cores;
+    private final long memoryMB;
+
+    private int freeCores;
+    private long freeMemoryMB;
+
+    public ExecutionCapacity(int cores, long memoryMB) {
+        this.cores = Math.max(1, cores);
+        this.memoryMB = Math.max(0, memoryMB);
+        this.freeCores = this.cores;
+        this.freeMemoryMB = this.memoryMB;
+    }
+
+    /**
+     * Returns the capacity of this machine: its available processors and its
+     * physical memory, when the platform reports it
+     */
+    public static ExecutionCapacity ofMachine() {
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        long memoryMB = 0;
+
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            long bytes = ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+            memoryMB = bytes / (1024 * 1024);
+        }
+
+        return new ExecutionCapacity(cores, memoryMB);
+    }
+
+    public int getCores() {
+        return cores;
+    }
+
+    public long getMemoryMB() {
+        return memoryMB;
+    }
+
+    /**
+     * Reserves a job's resources and returns true if they fit in what is 
+     * free, otherwise reserves nothing and returns false
+     */
+    public synchronized boolean tryAcquire(ExecutionJob job) {
+        int jobCores = coresOf(job);
+        long jobMemory = memoryOf(job);
+        if (jobCores > freeCores || jobMemory > freeMemoryMB) {
+            return false;
+        }
+        freeCores -= jobCores;
+        freeMemoryMB -= jobMemory;
+        return true;
+    }
+
+    /**
+     * Frees the resources reserved for a job
+     */
+    public synchronized void release(ExecutionJob job) {
+        freeCores += coresOf(job);
+        freeMemoryMB += memoryOf(job);
+    }
+
+    /**
+     * Returns true if no more jobs can be admitted, since every job needs at
+     * least one core
+     */
+    public synchronized boolean isFull() {
+        return freeCores == 0;
+    }
+
+    private int coresOf(ExecutionJob job) {
+        return Math.min(Math.max(1, job.getCores()), cores);
+    }
+
+    private long memoryOf(ExecutionJob job) {
+        if (memoryMB == 0) {
+            return 0;
+        }
+        return Math.min(job.getMemoryMB(), memoryMB);
+    }
+}
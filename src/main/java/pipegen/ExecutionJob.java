@@ -0,0 +1,219 @@
+/*
+    Program:  ExecutionJob.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class represents a single rule of an analysis run by a 
+              PipelineExecutor, i.e. one pipeline element for one id.
+
+              A job has the files it produces, the files it needs and the jobs
+              that produce them, and the shell command that is run when the job
+              is out of date. It holds the same information as the matching 
+              makefile rule with every variable already expanded.
+
+ */
+
+package pipegen;
+
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+
+public class ExecutionJob {
+
+    public enum Status { WAITING, RUNNING, DONE, UP_TO_DATE, FAILED, SKIPPED }
+
+    private final String id;
+    private final String name;
+    private final String command;
+    private final boolean phony;
+    private final Path[] targets;
+
+    // Prerequisite files and the jobs producing them, or null for files that
+    // are expected to exist already
+    private final List<Path> prerequisites;
+    private final List<ExecutionJob> producers;
+
+    // Jobs that need this job, and the number of this job's producers that
+    // have not finished
+    private final List<ExecutionJob> dependents;
+    private final AtomicInteger waiting;
+
+    // Position in the order the makefile lists its rules, and the estimated
+    // time from the start of this job to the end of its longest chain of
+    // dependents
+    private int order;
+    private long criticalPath;
+
+    // Resources the job's command needs while it runs
+    private int cores;
+    private int memoryMB;
+
+    private volatile Status status;
+    private volatile boolean blocked;
+    private volatile int exitCode;
+
+    public ExecutionJob(String id, String name, String command, boolean phony, Path[] targets) {
+        this.id = id;
+        this.name = name;
+        this.command = command;
+        this.phony = phony;
+        this.targets = targets;
+
+        prerequisites = new ArrayList<Path>();
+        producers = new ArrayList<ExecutionJob>();
+        dependents = new ArrayList<ExecutionJob>();
+        waiting = new AtomicInteger();
+        cores = 1;
+        memoryMB = 0;
+        status = Status.WAITING;
+    }
+
+    /**
+     * Adds a prerequisite file and the job producing it, which may be null
+     */
+    void addPrerequisite(Path file, ExecutionJob producer) {
+        prerequisites.add(file);
+        producers.add(producer);
+        if (producer != null && ! producer.dependents.contains(this)) {
+            producer.dependents.add(this);
+            waiting.incrementAndGet();
+        }
+    }
+
+    /**
+     * Marks one producer as finished and returns true if none are left
+     */
+    boolean producerFinished() {
+        return waiting.decrementAndGet() == 0;
+    }
+
+    /**
+     * Returns true if this job has producers that have not finished
+     */
+    boolean isWaiting() {
+        return waiting.get() > 0;
+    }
+
+    List<Path> getPrerequisites() {
+        return prerequisites;
+    }
+
+    List<ExecutionJob> getProducers() {
+        return producers;
+    }
+
+    List<ExecutionJob> getDependents() {
+        return dependents;
+    }
+
+    /**
+     * Marks this job as unable to run because a producer failed
+     */
+    void block() {
+        blocked = true;
+    }
+
+    boolean isBlocked() {
+        return blocked;
+    }
+
+    void setOrder(int order) {
+        this.order = order;
+    }
+
+    int getOrder() {
+        return order;
+    }
+
+    void setCriticalPath(long criticalPath) {
+        this.criticalPath = criticalPath;
+    }
+
+    /**
+     * Returns the estimated milliseconds from the start of this job until its
+     * longest chain of dependents has finished
+     */
+    public long getCriticalPath() {
+        return criticalPath;
+    }
+
+    void setResources(int cores, int memoryMB) {
+        this.cores = cores;
+        this.memoryMB = memoryMB;
+    }
+
+    /**
+     * Returns the number of cores this job's command uses
+     */
+    public int getCores() {
+        return cores;
+    }
+
+    /**
+     * Returns the megabytes of memory this job's command uses, or zero if 
+     * unknown
+     */
+    public int getMemoryMB() {
+        return memoryMB;
+    }
+
+    void setStatus(Status status) {
+        this.status = status;
+    }
+
+    void setExitCode(int exitCode) {
+        this.exitCode = exitCode;
+    }
+
+    /**
+     * Returns the id this job belongs to
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns a description of the pipeline element run by this job
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the shell command run by this job
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns true if this job is always run, like a phony makefile target
+     */
+    public boolean isPhony() {
+        return phony;
+    }
+
+    /**
+     * Returns the files produced by this job
+     */
+    public Path[] getTargets() {
+        return targets.clone();
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the exit code of this job's command once it has run
+     */
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public String toString() {
+        return "id " + id + " at " + name;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+    Program:  ExecutionListener.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This interface receives the events of each job run by a 
+              PipelineExecutor. Events arrive on the executor's worker 
+              threads, so listeners that update the GUI should hand them to 
+              the event dispatch thread.
+
+ */
+
+package pipegen;
+
+
+public interface ExecutionListener {
+
+    /**
+     * Called when a job's command is started
+     */
+    public void jobStarted(ExecutionJob job);
+
+    /**
+     * Called when a job has finished, was found up to date or was skipped.
+     * The job's status tells which.
+     */
+    public void jobFinished(ExecutionJob job);
+}
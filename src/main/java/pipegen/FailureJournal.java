@@ -0,0 +1,141 @@
+/*
+    Program:  FailureJournal.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class reads the failures of an analysis from its failure
+              journal as they happen.
+
+              When a module's recipe fails, its error catch appends a line
+              "<id> <moduleID>" to the journal in the error log directory,
+              whether the recipe was run by make or by a PipelineExecutor.
+              The journal is only ever appended to, so each poll reads just
+              the lines written since the last one instead of listing the
+              error log directories.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.util.*;
+import java.nio.charset.*;
+
+
+public class FailureJournal {
+
+    // Name of the journal within the error log directory
+    public static final String FILE_NAME = "FAILURES.journal";
+
+    private final File file;
+    private long offset;
+    private List<ModuleFailure> failures;
+    private Set<String> seen;
+
+    public FailureJournal(File file) {
+        this.file = file;
+        this.offset = 0;
+        this.failures = new ArrayList<ModuleFailure>();
+        this.seen = new HashSet<String>();
+    }
+
+    /**
+     * Deletes the journal and forgets every failure read, before a new run
+     */
+    public synchronized void reset() {
+        if (file.exists() && ! file.delete()) {
+            System.err.println("Warning: Could not delete failure journal " + file);
+        }
+        clear();
+    }
+
+    private void clear() {
+        offset = 0;
+        failures.clear();
+        seen.clear();
+    }
+
+    /**
+     * Reads the lines appended to the journal since the last poll and returns
+     * the failures not seen before. A line still being written is left for
+     * the next poll.
+     */
+    public synchronized List<ModuleFailure> poll() {
+
+        List<ModuleFailure> added = new ArrayList<ModuleFailure>();
+
+        long length = file.length();
+        if (length < offset) {
+            // The journal was removed with the error logs, e.g. by cleanerror
+            clear();
+        }
+        if (length == offset) {
+            return added;
+        }
+
+        byte[] bytes;
+        RandomAccessFile in = null;
+        try {
+            in = new RandomAccessFile(file, "r");
+            in.seek(offset);
+            bytes = new byte[(int) Math.min(length - offset, Integer.MAX_VALUE)];
+            in.readFully(bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return added;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        int start = 0;
+        for (int i=0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                String line = new String(bytes, start, i - start, StandardCharsets.UTF_8);
+                ModuleFailure failure = parse(line);
+                if (failure != null && seen.add(failure.toString())) {
+                    failures.add(failure);
+                    added.add(failure);
+                }
+                start = i + 1;
+            }
+        }
+        offset += start;
+
+        return added;
+    }
+
+    /**
+     * Parses a journal line. The module ID follows the last space, so ids
+     * containing spaces are read whole.
+     */
+    private ModuleFailure parse(String line) {
+
+        line = line.trim();
+        int space = line.lastIndexOf(' ');
+        if (space <= 0) {
+            if (! line.isEmpty()) {
+                System.err.println("Warning: Skipping malformed failure journal line: " + line);
+            }
+            return null;
+        }
+        try {
+            return new ModuleFailure(line.substring(0, space).trim(), Integer.parseInt(line.substring(space + 1)));
+        } catch (NumberFormatException e) {
+            System.err.println("Warning: Skipping malformed failure journal line: " + line);
+            return null;
+        }
+    }
+
+    /**
+     * Returns every failure read so far in the order they happened
+     */
+    public synchronized List<ModuleFailure> getFailures() {
+        return new ArrayList<ModuleFailure>(failures);
+    }
+}
@@ -0,0 +1,409 @@
+/*
+    Program:  JsonReader.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class reads JSON one token at a time from a stream.
+
+              Callers pull the document apart as it is read, e.g. with
+              beginObject(), nextName() and nextString(), building their own
+              objects as they go. Nothing but the current token is held, so a
+              pipeline with thousands of elements is read without first
+              reading the whole file into a String and a JSONObject tree.
+
+              Values are read as leniently as org.json reads them: numbers
+              and booleans may also be given as strings.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.util.*;
+
+
+public class JsonReader implements Closeable {
+
+    /**
+     * The kinds of token in a JSON document
+     */
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    // States of each open object or array, and of the document itself
+    private static final int EMPTY_ARRAY = 0;
+    private static final int NONEMPTY_ARRAY = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_DOCUMENT = 5;
+    private static final int NONEMPTY_DOCUMENT = 6;
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+    private int line = 1;
+
+    private int[] stack = new int[32];
+    private int stackSize;
+
+    // The token read by peek() and not yet consumed, with its text
+    private Token peeked;
+    private String peekedText;
+
+    public JsonReader(Reader in) {
+        this.in = in;
+        push(EMPTY_DOCUMENT);
+    }
+
+    /**
+     * Returns the kind of the next token without consuming it
+     */
+    public Token peek() throws IOException {
+
+        if (peeked != null) {
+            return peeked;
+        }
+
+        int c;
+        switch (stack[stackSize - 1]) {
+        case EMPTY_ARRAY:
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+            c = nextNonWhitespace();
+            if (c == ']') {
+                return setPeeked(Token.END_ARRAY, null);
+            }
+            pos--;
+            return readValue();
+
+        case NONEMPTY_ARRAY:
+            c = nextNonWhitespace();
+            if (c == ']') {
+                return setPeeked(Token.END_ARRAY, null);
+            } else if (c != ',') {
+                throw syntaxError("Expected ',' or ']'");
+            }
+            return readValue();
+
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            c = nextNonWhitespace();
+            if (c == '}') {
+                return setPeeked(Token.END_OBJECT, null);
+            }
+            if (stack[stackSize - 1] == NONEMPTY_OBJECT) {
+                if (c != ',') {
+                    throw syntaxError("Expected ',' or '}'");
+                }
+                c = nextNonWhitespace();
+            }
+            if (c != '"') {
+                throw syntaxError("Expected a name");
+            }
+            stack[stackSize - 1] = DANGLING_NAME;
+            return setPeeked(Token.NAME, readString());
+
+        case DANGLING_NAME:
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            if (nextNonWhitespace() != ':') {
+                throw syntaxError("Expected ':'");
+            }
+            return readValue();
+
+        case EMPTY_DOCUMENT:
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+            return readValue();
+
+        default:
+            if (nextNonWhitespaceOrEnd() != -1) {
+                throw syntaxError("Expected the end of the document");
+            }
+            return setPeeked(Token.END_DOCUMENT, null);
+        }
+    }
+
+    /**
+     * Reads the start of a value, opening an object or array if it is one
+     */
+    private Token readValue() throws IOException {
+
+        int c = nextNonWhitespace();
+        switch (c) {
+        case '{':
+            push(EMPTY_OBJECT);
+            return setPeeked(Token.BEGIN_OBJECT, null);
+        case '[':
+            push(EMPTY_ARRAY);
+            return setPeeked(Token.BEGIN_ARRAY, null);
+        case '"':
+            return setPeeked(Token.STRING, readString());
+        default:
+            pos--;
+            String literal = readLiteral();
+            if (literal.equals("true") || literal.equals("false")) {
+                return setPeeked(Token.BOOLEAN, literal);
+            } else if (literal.equals("null")) {
+                return setPeeked(Token.NULL, literal);
+            } else if (! literal.isEmpty() && (literal.charAt(0) == '-' || Character.isDigit(literal.charAt(0)))) {
+                return setPeeked(Token.NUMBER, literal);
+            }
+            throw syntaxError("Unexpected value '" + literal + "'");
+        }
+    }
+
+    private Token setPeeked(Token token, String text) {
+        peeked = token;
+        peekedText = text;
+        return token;
+    }
+
+    private String consume(Token expected) throws IOException {
+        Token token = peek();
+        if (token != expected) {
+            throw syntaxError("Expected " + expected + " but found " + token);
+        }
+        String text = peekedText;
+        peeked = null;
+        peekedText = null;
+        return text;
+    }
+
+    public void beginObject() throws IOException {
+        consume(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException {
+        consume(Token.END_OBJECT);
+        stackSize--;
+    }
+
+    public void beginArray() throws IOException {
+        consume(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException {
+        consume(Token.END_ARRAY);
+        stackSize--;
+    }
+
+    /**
+     * Returns true if the current object or array has another element
+     */
+    public boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    /**
+     * Returns the name of the next member of the current object
+     */
+    public String nextName() throws IOException {
+        return consume(Token.NAME);
+    }
+
+    /**
+     * Returns the next value as a string. Numbers and booleans are returned
+     * as written.
+     */
+    public String nextString() throws IOException {
+        Token token = peek();
+        if (token == Token.NUMBER || token == Token.BOOLEAN) {
+            return consume(token);
+        }
+        return consume(Token.STRING);
+    }
+
+    /**
+     * Returns the next value as an int
+     */
+    public int nextInt() throws IOException {
+        Token token = peek();
+        String text = consume(token == Token.STRING ? Token.STRING : Token.NUMBER);
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            try {
+                double value = Double.parseDouble(text);
+                if (value == (int) value) {
+                    return (int) value;
+                }
+            } catch (NumberFormatException e2) {
+                // Reported below
+            }
+            throw syntaxError("Expected an int but found '" + text + "'");
+        }
+    }
+
+    /**
+     * Returns the next value as a boolean
+     */
+    public boolean nextBoolean() throws IOException {
+        Token token = peek();
+        String text = consume(token == Token.STRING ? Token.STRING : Token.BOOLEAN);
+        if (text.equalsIgnoreCase("true")) {
+            return true;
+        } else if (text.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw syntaxError("Expected a boolean but found '" + text + "'");
+    }
+
+    /**
+     * Skips the next value, including everything in it if it is an object or
+     * an array
+     */
+    public void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            Token token = peek();
+            if (token == Token.BEGIN_OBJECT) {
+                beginObject();
+                depth++;
+            } else if (token == Token.BEGIN_ARRAY) {
+                beginArray();
+                depth++;
+            } else if (token == Token.END_OBJECT) {
+                endObject();
+                depth--;
+            } else if (token == Token.END_ARRAY) {
+                endArray();
+                depth--;
+            } else if (token == Token.NAME) {
+                nextName();
+            } else if (token == Token.END_DOCUMENT) {
+                throw syntaxError("Unexpected end of the document");
+            } else {
+                consume(token);
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote was read
+     */
+    private String readString() throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw syntaxError("Unterminated string");
+            } else if (c == '"') {
+                return sb.toString();
+            } else if (c == '\\') {
+                sb.append(readEscape());
+            } else if (c == '\n') {
+                throw syntaxError("Unterminated string");
+            } else {
+                sb.append((char) c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+
+        int c = read();
+        switch (c) {
+        case 'b':
+            return '\b';
+        case 'f':
+            return '\f';
+        case 'n':
+            return '\n';
+        case 'r':
+            return '\r';
+        case 't':
+            return '\t';
+        case 'u':
+            int value = 0;
+            for (int i=0; i < 4; i++) {
+                int digit = Character.digit(read(), 16);
+                if (digit < 0) {
+                    throw syntaxError("Invalid \\u escape");
+                }
+                value = (value << 4) | digit;
+            }
+            return (char) value;
+        case '"':
+        case '\\':
+        case '/':
+        case '\'':
+            return (char) c;
+        default:
+            throw syntaxError("Invalid escape");
+        }
+    }
+
+    /**
+     * Reads an unquoted literal such as a number, true, false or null
+     */
+    private String readLiteral() throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                break;
+            }
+            if (c == ',' || c == ':' || c == ']' || c == '}' || Character.isWhitespace(c)) {
+                pos--;
+                break;
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c = nextNonWhitespaceOrEnd();
+        if (c == -1) {
+            throw syntaxError("Unexpected end of the document");
+        }
+        return c;
+    }
+
+    private int nextNonWhitespaceOrEnd() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && Character.isWhitespace(c));
+        return c;
+    }
+
+    /**
+     * Returns the next character, or -1 at the end of the stream. The last
+     * character read can be read again by decrementing pos.
+     */
+    private int read() throws IOException {
+        if (pos == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        char c = buffer[pos++];
+        if (c == '\n') {
+            line++;
+        }
+        return c;
+    }
+
+    private void push(int state) {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[stackSize++] = state;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message + " at line " + line);
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,176 @@
+/*
+    Program:  JsonWriter.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class writes JSON one token at a time to a stream.
+
+              It is the counterpart of JsonReader: callers write their objects
+              directly, e.g. with beginObject(), name() and value(), instead of
+              first building a JSONObject tree and converting it to a String.
+              The output is a single line, as JSONObject.toString() writes it.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.util.*;
+
+
+public class JsonWriter implements Closeable, Flushable {
+
+    private final Writer out;
+
+    // For each open object or array, whether it has an element yet
+    private boolean[] stack = new boolean[32];
+    private int stackSize;
+
+    // Whether a name was written and its value is expected next
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        beforeValue();
+        push();
+        out.write('{');
+        return this;
+    }
+
+    public JsonWriter endObject() throws IOException {
+        pop();
+        out.write('}');
+        return this;
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        beforeValue();
+        push();
+        out.write('[');
+        return this;
+    }
+
+    public JsonWriter endArray() throws IOException {
+        pop();
+        out.write(']');
+        return this;
+    }
+
+    /**
+     * Writes the name of the next member of the current object
+     */
+    public JsonWriter name(String name) throws IOException {
+        if (stackSize == 0 || afterName) {
+            throw new IllegalStateException("A name must be followed by a value");
+        }
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        beforeValue();
+        if (value == null) {
+            out.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes the comma before an element of an array, or takes the value of
+     * the name just written
+     */
+    private void beforeValue() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else if (stackSize > 0) {
+            separate();
+        }
+    }
+
+    private void separate() throws IOException {
+        if (stack[stackSize - 1]) {
+            out.write(',');
+        }
+        stack[stackSize - 1] = true;
+    }
+
+    private void push() {
+        if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, 2 * stack.length);
+        }
+        stack[stackSize++] = false;
+    }
+
+    private void pop() {
+        if (stackSize == 0 || afterName) {
+            throw new IllegalStateException("Nothing to close");
+        }
+        stackSize--;
+    }
+
+    /**
+     * Writes a quoted string, escaping it as JSONObject does
+     */
+    private void writeString(String value) throws IOException {
+
+        out.write('"');
+        int len = value.length();
+        int start = 0;
+        for (int i=0; i < len; i++) {
+            char c = value.charAt(i);
+            String escape;
+            if (c == '"') {
+                escape = "\\\"";
+            } else if (c == '\\') {
+                escape = "\\\\";
+            } else if (c == '\n') {
+                escape = "\\n";
+            } else if (c == '\r') {
+                escape = "\\r";
+            } else if (c == '\t') {
+                escape = "\\t";
+            } else if (c == '\b') {
+                escape = "\\b";
+            } else if (c == '\f') {
+                escape = "\\f";
+            } else if (c < ' ' || c == '\u2028' || c == '\u2029') {
+                escape = String.format("\\u%04x", (int) c);
+            } else {
+                continue;
+            }
+            out.write(value, start, i - start);
+            out.write(escape);
+            start = i + 1;
+        }
+        out.write(value, start, len - start);
+        out.write('"');
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+    Program:  LogBuffer.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class keeps the most recent lines of output from running an
+              analysis in a ring of fixed size.
+
+              Every line appended gets the next sequence number. A reader keeps
+              the sequence number it has read up to and asks only for the 
+              lines after it, so a view can follow the output incrementally.
+              Lines that fall out of the ring before they are read are 
+              skipped; the whole output is still kept on disk.
+
+ */
+
+package pipegen;
+
+import java.util.*;
+
+
+public class LogBuffer {
+
+    private final LogLine[] lines;
+    private long next;
+
+    public LogBuffer(int capacity) {
+        lines = new LogLine[Math.max(1, capacity)];
+        next = 0;
+    }
+
+    /**
+     * Appends a line, replacing the oldest line once the ring is full
+     */
+    public synchronized void append(LogLine line) {
+        lines[(int) (next % lines.length)] = line;
+        next++;
+    }
+
+    /**
+     * Adds the lines appended since sequence number from to out, oldest 
+     * first, and returns the sequence number to read from next time
+     */
+    public synchronized long read(long from, List<LogLine> out) {
+        long start = Math.max(from, next - lines.length);
+        for (long i=start; i < next; i++) {
+            out.add(lines[(int) (i % lines.length)]);
+        }
+        return next;
+    }
+
+    /**
+     * Returns the number of lines appended so far, including those no longer
+     * held
+     */
+    public synchronized long getCount() {
+        return next;
+    }
+
+    /**
+     * Returns the largest number of lines held
+     */
+    public int getCapacity() {
+        return lines.length;
+    }
+}
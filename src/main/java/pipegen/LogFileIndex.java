@@ -0,0 +1,312 @@
+/*
+    Program:  LogFileIndex.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class gives random access by line number to a log file of
+              any size, e.g. the STDOUT.txt of an analysis that has run for
+              days, without reading the file into memory.
+
+              The file is read through a window mapped from a FileChannel. A
+              background thread indexes the file, keeping the offset of every
+              64th line, and follows the file as it grows. A line is found by
+              starting from the nearest kept offset, so the index stays small
+              while the file is gigabytes long.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+
+
+public class LogFileIndex implements Closeable {
+
+    // Lines from make or the executor reporting a failed job, and lines from
+    // modules mentioning an error
+    public static final Pattern ERROR_PATTERN = Pattern.compile("\\*\\*\\*|\\berror\\b", Pattern.CASE_INSENSITIVE);
+
+    // The offset of every this many lines is kept
+    private static final int LINES_PER_CHECKPOINT = 64;
+
+    // Size of the region of the file mapped at a time
+    private static final long WINDOW_BYTES = 16L * 1024 * 1024;
+
+    // Lines longer than this are cut when read, as in the live log
+    private static final int MAX_LINE_BYTES = 4096;
+
+    // Delay between checks for new output once the whole file is indexed
+    private static final long FOLLOW_MILLIS = 500;
+
+    private final File file;
+    private final FileChannel channel;
+
+    // Offsets of lines 0, 64, 128, ... and the lines seen so far
+    private long[] checkpoints;
+    private int checkpointCount;
+    private long completeLines;
+    private long lastLineStart;
+    private long scanned;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private Thread indexer;
+    private volatile boolean closed;
+
+    public LogFileIndex(File file) throws IOException {
+        this.file = file;
+        this.channel = new RandomAccessFile(file, "r").getChannel();
+        clear();
+    }
+
+    /**
+     * Starts indexing the file in the background. The index keeps following
+     * the file until it is closed.
+     */
+    public synchronized void start() {
+
+        if (indexer != null) {
+            return;
+        }
+        indexer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (! closed) {
+                        if (! indexStep()) {
+                            Thread.sleep(FOLLOW_MILLIS);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    // Closed while waiting for more output
+                } catch (IOException e) {
+                    if (! closed) {
+                        e.printStackTrace();
+                        System.err.println("Warning: Could not index log file " + file);
+                    }
+                }
+            }
+        }, "LogFileIndex " + file.getName());
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Indexes the file up to its current size, for callers that do not
+     * index in the background
+     */
+    public void indexAll() throws IOException {
+        while (indexStep()) {
+            // Each step indexes one window
+        }
+    }
+
+    /**
+     * Indexes at most one window of new output. Returns false if there was
+     * nothing new to index.
+     */
+    private synchronized boolean indexStep() throws IOException {
+
+        long size = channel.size();
+        if (size < scanned) {
+            // The file was truncated, e.g. by a new run of the analysis
+            clear();
+        }
+        if (size == scanned) {
+            return false;
+        }
+
+        long end = Math.min(size, scanned + WINDOW_BYTES);
+        for (long pos = scanned; pos < end; pos++) {
+            if (byteAt(pos, size) == '\n') {
+                completeLines++;
+                lastLineStart = pos + 1;
+                if (completeLines % LINES_PER_CHECKPOINT == 0) {
+                    addCheckpoint(lastLineStart);
+                }
+            }
+        }
+        scanned = end;
+        return true;
+    }
+
+    private void addCheckpoint(long offset) {
+        if (checkpointCount == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, 2 * checkpoints.length);
+        }
+        checkpoints[checkpointCount++] = offset;
+    }
+
+    private void clear() {
+        checkpoints = new long[1024];
+        checkpointCount = 0;
+        addCheckpoint(0);
+        completeLines = 0;
+        lastLineStart = 0;
+        scanned = 0;
+        window = null;
+    }
+
+    /**
+     * Returns the byte at a position, mapping the window that holds it
+     */
+    private byte byteAt(long pos, long size) throws IOException {
+        if (window == null || pos < windowStart || pos >= windowStart + window.limit()) {
+            windowStart = pos;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW_BYTES, size - pos));
+        }
+        return window.get((int) (pos - windowStart));
+    }
+
+    /**
+     * Returns the number of lines indexed so far, counting a last line that
+     * is not yet ended
+     */
+    public synchronized long getLineCount() {
+        return completeLines + (scanned > lastLineStart ? 1 : 0);
+    }
+
+    /**
+     * Returns true if the whole file as it is now has been indexed
+     */
+    public synchronized boolean isIndexed() throws IOException {
+        return scanned == channel.size();
+    }
+
+    /**
+     * Returns the number of bytes indexed so far
+     */
+    public synchronized long getIndexedBytes() {
+        return scanned;
+    }
+
+    /**
+     * Reads the lines from first up to count lines into out
+     */
+    public synchronized void readLines(long first, int count, List<String> out) throws IOException {
+
+        long last = Math.min(first + count, getLineCount());
+        if (first >= last) {
+            return;
+        }
+
+        // Skip from the nearest checkpoint to the first line
+        long pos = checkpoints[(int) (first / LINES_PER_CHECKPOINT)];
+        for (long line = first - first % LINES_PER_CHECKPOINT; line < first; line++) {
+            pos = skipLine(pos);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        for (long line = first; line < last; line++) {
+            bytes.reset();
+            pos = readLine(pos, bytes);
+            out.add(decode(bytes));
+        }
+    }
+
+    /**
+     * Returns the line at an index
+     */
+    public String getLine(long index) throws IOException {
+        List<String> out = new ArrayList<String>(1);
+        readLines(index, 1, out);
+        return out.isEmpty() ? null : out.get(0);
+    }
+
+    private long skipLine(long pos) throws IOException {
+        while (pos < scanned && byteAt(pos, scanned) != '\n') {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    private long readLine(long pos, ByteArrayOutputStream bytes) throws IOException {
+        while (pos < scanned) {
+            byte b = byteAt(pos, scanned);
+            pos++;
+            if (b == '\n') {
+                break;
+            }
+            if (bytes.size() < MAX_LINE_BYTES && b != '\r') {
+                bytes.write(b);
+            }
+        }
+        return pos;
+    }
+
+    private static String decode(ByteArrayOutputStream bytes) {
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the index of the next line after from that matches a pattern,
+     * or -1 if there is none. Searches backwards from the line before from
+     * if forward is false.
+     */
+    public long search(Pattern pattern, long from, boolean forward) throws IOException {
+
+        // Lines are read one checkpoint block at a time so the index is not
+        // held for the whole search
+        List<String> lines = new ArrayList<String>(LINES_PER_CHECKPOINT);
+        long lineCount = getLineCount();
+        if (forward) {
+            for (long first = Math.max(0, from + 1); first < lineCount; first += lines.size()) {
+                lines.clear();
+                readLines(first, LINES_PER_CHECKPOINT - (int) (first % LINES_PER_CHECKPOINT), lines);
+                if (lines.isEmpty()) {
+                    break;
+                }
+                for (int i=0; i < lines.size(); i++) {
+                    if (pattern.matcher(lines.get(i)).find()) {
+                        return first + i;
+                    }
+                }
+            }
+        } else {
+            long end = Math.min(from, lineCount);
+            while (end > 0) {
+                long first = (end - 1) - (end - 1) % LINES_PER_CHECKPOINT;
+                lines.clear();
+                readLines(first, (int) (end - first), lines);
+                for (int i=lines.size() - 1; i >= 0; i--) {
+                    if (pattern.matcher(lines.get(i)).find()) {
+                        return first + i;
+                    }
+                }
+                end = first;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the file indexed
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Stops indexing and closes the file
+     */
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            closed = true;
+            thread = indexer;
+            indexer = null;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+        synchronized (this) {
+            window = null;
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+/*
+    Program:  LogLine.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class represents one line of output from running an 
+              analysis, either from its standard output or its standard error.
+
+ */
+
+package pipegen;
+
+
+public class LogLine {
+
+    private final String text;
+    private final boolean error;
+
+    public LogLine(String text, boolean error) {
+        this.text = text;
+        this.error = error;
+    }
+
+    /**
+     * Returns the text of this line without its line terminator
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns true if this line was written to standard error
+     */
+    public boolean isError() {
+        return error;
+    }
+
+    public String toString() {
+        return text;
+    }
+}
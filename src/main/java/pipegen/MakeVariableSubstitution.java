@@ -0,0 +1,127 @@
+/*
+    Program:  MakeVariableSubstitution.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class rewrites references to the makefile-style variables
+              of a data table, e.g. "$(DATA)", in a single pass over the text.
+
+              The text is scanned once for "$(NAME)" references. References to
+              a known variable are either renamed to their id specific version,
+              "$(id001_DATA)", or replaced with a value. All other text is
+              copied unchanged, so the cost is linear in the length of the text
+              rather than proportional to the number of variables.
+
+              The same scan also expands text the way make would for running
+              it without make: every reference is replaced, by a value given
+              for it, by the environment or by nothing, and "$$" becomes "$".
+
+ */
+
+package pipegen;
+
+import java.util.*;
+
+
+public class MakeVariableSubstitution {
+
+    private Set<String> variables;
+
+    public MakeVariableSubstitution(String[] variables) {
+        this.variables = new HashSet<String>(Arrays.asList(variables));
+    }
+
+    /**
+     * Renames each reference "$(NAME)" to a known variable as "$(prefixNAME)"
+     */
+    public String rename(String text, String prefix) {
+        return rewrite(text, prefix, null, false);
+    }
+
+    /**
+     * Replaces each reference "$(NAME)" to a known variable with its value in
+     * values. References without a value are left unchanged.
+     */
+    public String substitute(String text, Map<String, String> values) {
+        return rewrite(text, null, values, false);
+    }
+
+    /**
+     * Expands text as make would. Each reference "$(NAME)" is replaced with
+     * its value in values, or else in the environment, or else with nothing,
+     * whether or not NAME is a known variable, and "$$" becomes "$".
+     */
+    public String expand(String text, Map<String, String> values) {
+        return rewrite(text, null, values, true);
+    }
+
+    /**
+     * Scans the text once, either renaming references with the prefix,
+     * replacing them with their values, or expanding them all as make does
+     */
+    private String rewrite(String text, String prefix, Map<String, String> values, boolean expandAll) {
+
+        int start = expandAll ? text.indexOf('$') : text.indexOf("$(");
+        if (start < 0 || (variables.isEmpty() && ! expandAll)) {
+            return text;
+        }
+
+        StringBuilder sb = new StringBuilder(text.length() + 32);
+        int copied = 0;
+        while (start >= 0) {
+
+            char next = start + 1 < text.length() ? text.charAt(start + 1) : '\0';
+            if (next == '$' && expandAll) {
+                // An escaped dollar sign
+                sb.append(text, copied, start + 1);
+                copied = start + 2;
+                start = text.indexOf('$', start + 2);
+                continue;
+            } else if (next != '(') {
+                start = text.indexOf('$', start + 1);
+                continue;
+            }
+
+            // Read the name up to the closing bracket. A nested reference or
+            // bracket means this is not a simple variable reference.
+            int end = start + 2;
+            while (end < text.length()) {
+                char c = text.charAt(end);
+                if (c == ')' || c == '$' || c == '(') {
+                    break;
+                }
+                end++;
+            }
+
+            if (end < text.length() && text.charAt(end) == ')') {
+                String name = text.substring(start + 2, end);
+                if (expandAll) {
+                    String value = values.containsKey(name) ? values.get(name) : System.getenv(name);
+                    sb.append(text, copied, start);
+                    if (value != null) {
+                        sb.append(value);
+                    }
+                    copied = end + 1;
+                } else if (variables.contains(name)) {
+                    String replacement;
+                    if (prefix != null) {
+                        replacement = "$(" + prefix + name + ")";
+                    } else {
+                        replacement = values.get(name);
+                    }
+                    if (replacement != null) {
+                        sb.append(text, copied, start);
+                        sb.append(replacement);
+                        copied = end + 1;
+                    }
+                }
+                start = text.indexOf('$', end + 1);
+            } else {
+                start = text.indexOf('$', end);
+            }
+        }
+        sb.append(text, copied, text.length());
+
+        return sb.toString();
+    }
+}
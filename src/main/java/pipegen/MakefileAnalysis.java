@@ -13,7 +13,6 @@ package pipegen;
 
 import java.io.*;
 import java.util.*;
-import java.nio.charset.*;
 import java.nio.file.*;
 
 import org.json.*;
@@ -25,34 +24,133 @@ import pipegen.definitions.*;
 
 public class MakefileAnalysis {
 
+    /**
+     * How the rules of the makefile are laid out. RULES writes a rule for
+     * every module and id, PATTERN_RULES one pattern rule for every module,
+     * and SHARDED the rules of every id to a fragment of their own.
+     */
+    public enum Layout { RULES, PATTERN_RULES, SHARDED }
+
     private static final String STDOUT_FILE = "STDOUT.txt";
     private static final String STDERR_FILE = "STDERR.txt";
-    private static final String ERROR_RATIO = "[Error]";
+
+    // Tables with at least this many rows have their makefile streamed to disk
+    private static final int STREAMING_ROW_THRESHOLD = 1000;
+
+    // Cache of rule blocks kept next to the makefile between saves
+    private static final String RULE_CACHE_FILE = "Makefile.cache";
+
+    // Runtimes of earlier runs used to schedule the executor's jobs
+    private static final String RUNTIME_HISTORY_FILE = "Runtimes.history";
+
+    // Number of recent output lines kept for the GUI while running
+    private static final int LOG_BUFFER_LINES = 10000;
+
+    // Delay between background checks for new files while running
+    private static final long PROGRESS_SWEEP_MILLIS = 1000;
 
     private String name;
     private String makeCommand;
+    private Layout layout;
     private DataTableFile table;
     private PipelineInstance pipeline;
 
     private File makefileDir;
     private File makefile;
     private MakefileFactory factory;
+    private ProgressTracker progress;
+
+    // Runs the analysis in process instead of with make when set
+    private PipelineExecutor executor;
+
+    // Output of the current or last run
+    private volatile LogBuffer logBuffer;
+
+    // Failures of the current or last run and the error trees reported so far
+    private FailureJournal failures;
+    private Map<Integer, ModuleElement> modulesByID;
+    private StringBuilder errorTrees;
+    private Map<Integer, ErrorTree> errorTreesByModule;
 
     public MakefileAnalysis(File analysisFile) {
 
     }
 
     public MakefileAnalysis(String name, DataTableFile table, PipelineInstance pipeline) throws InvalidMakefileException {
+        this(name, table, pipeline, Layout.RULES);
+    }
+
+    public MakefileAnalysis(String name, DataTableFile table, PipelineInstance pipeline, Layout layout) throws InvalidMakefileException {
 
         this.name = name;
         this.table = table;
         this.pipeline = pipeline;
+        this.layout = layout;
 
         makefileDir = new File(pipeline.getAnalysisPath(name));
         makefile = new File(makefileDir.getAbsolutePath() + "/Makefile");
 
+        composeMakefile();
+
+        // List the files the makefile produces while they are still at hand
+        progress = new ProgressTracker(makefileDir, pipeline, table, layout);
+
+        failures = new FailureJournal(new File(new File(makefileDir, MakefileExpansion.ERRORS_DIRECTORY), FailureJournal.FILE_NAME));
+        modulesByID = new HashMap<Integer, ModuleElement>();
+        for (ModuleElement module : pipeline.getModules()) {
+            modulesByID.put(module.getID(), module);
+        }
+        errorTrees = new StringBuilder();
+        errorTreesByModule = new HashMap<Integer, ErrorTree>();
+    }
+
+    /**
+     * Composes the makefile in the current layout and writes it to disk
+     */
+    private void composeMakefile() throws InvalidMakefileException {
+
         factory = new MakefileFactory(makefile, table, pipeline);
+        factory.setStreaming(table.getRowCount() >= STREAMING_ROW_THRESHOLD);
+        factory.setParallelism(Runtime.getRuntime().availableProcessors());
+        factory.setPatternRules(layout == Layout.PATTERN_RULES);
+        factory.setSharded(layout == Layout.SHARDED);
+        if (layout == Layout.PATTERN_RULES) {
+            // Pattern rules have no blocks for each id, so the cache of
+            // another layout is left as it is
+            factory.composeAndWrite();
+            return;
+        }
+
+        // Reuse the rule blocks of ids that are unchanged since the last save
+        RuleBlockCache ruleCache = new RuleBlockCache(new File(makefileDir, RULE_CACHE_FILE), pipeline, table);
+        ruleCache.load();
+        factory.setRuleCache(ruleCache);
         factory.composeAndWrite();
+        try {
+            ruleCache.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Warning: Could not save the makefile cache.");
+        }
+    }
+
+    /**
+     * Writes the makefile again in another layout
+     */
+    public void setLayout(Layout layout) throws InvalidMakefileException {
+        if (layout == this.layout) {
+            return;
+        }
+        this.layout = layout;
+        composeMakefile();
+        progress = new ProgressTracker(makefileDir, pipeline, table, layout);
+    }
+
+    /**
+     * Returns the layout of this analysis's makefile
+     */
+    public Layout getLayout() {
+        return layout;
     }
 
     /**
@@ -61,23 +159,137 @@ public class MakefileAnalysis {
      * logs. Next the 'all' target is run to produce targeted outputs.
      */
     public int run() {
+        if (executor != null) {
+            return runExecutor();
+        }
+
         try {
 
             Process p = runAndWait("make -f Makefile setupall");
+            resetFailures();
             if (p.exitValue() != 0) {
                 return p.exitValue();
             }
 
-            p = runAndWait(makeCommand + " 2> " + STDERR_FILE + " 1> " + STDOUT_FILE);
-            return p.exitValue();
+            progress.start(PROGRESS_SWEEP_MILLIS);
+            return runLogged(makeCommand);
         } catch (IOException e) {
             System.err.println("MakefileAnalysis.java - run() found IOException");
         } catch (InterruptedException e) {
             System.err.println("MakefileAnalysis.java - run() found InterruptedException");
+        } finally {
+            progress.stop();
+            progress.refresh();
+        }
+        return 1;
+    }
+
+    /**
+     * Runs a command with its standard streams copied line by line into the
+     * log files and the buffer followed by the GUI
+     */
+    private int runLogged(String command) throws IOException, InterruptedException {
+
+        AnalysisLog log = openLog();
+        try {
+            ProcessBuilder pb = new ProcessBuilder("/bin/bash", "-c", command);
+            pb.directory(makefileDir);
+            Process p = pb.start();
+            p.getOutputStream().close();
+
+            Thread outPump = log.pump(p.getInputStream(), false);
+            Thread errPump = log.pump(p.getErrorStream(), true);
+            int exitCode = p.waitFor();
+            outPump.join();
+            errPump.join();
+            return exitCode;
+        } finally {
+            log.close();
+        }
+    }
+
+    /**
+     * Starts a new log of this analysis's standard streams
+     */
+    private AnalysisLog openLog() throws IOException {
+        LogBuffer buffer = new LogBuffer(LOG_BUFFER_LINES);
+        AnalysisLog log = new AnalysisLog(new File(makefileDir, STDOUT_FILE), new File(makefileDir, STDERR_FILE), buffer);
+        logBuffer = buffer;
+        return log;
+    }
+
+    /**
+     * Returns the recent output of the current or last run, or null if this
+     * analysis has not run
+     */
+    public LogBuffer getLogBuffer() {
+        return logBuffer;
+    }
+
+    /**
+     * Runs this analysis with its PipelineExecutor. The directories are set up
+     * as 'setupall' would and the streams are written to the same files as a
+     * run of make.
+     */
+    private int runExecutor() {
+        try {
+            executor.setup();
+            resetFailures();
+            AnalysisLog log = openLog();
+            try {
+                executor.setLog(log);
+                progress.start(PROGRESS_SWEEP_MILLIS);
+                int exitCode = executor.run();
+                executor.getRuntimeHistory().save();
+                return exitCode;
+            } finally {
+                executor.setLog(null);
+                log.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("MakefileAnalysis.java - runExecutor() found IOException");
+        } catch (InvalidMakefileException e) {
+            e.printStackTrace();
+            System.err.println("MakefileAnalysis.java - runExecutor() found InvalidMakefileException");
+        } catch (InterruptedException e) {
+            System.err.println("MakefileAnalysis.java - runExecutor() found InterruptedException");
+        } finally {
+            progress.stop();
+            progress.refresh();
         }
         return 1;
     }
 
+    /**
+     * Runs this analysis in process with a PipelineExecutor rather than the
+     * make command, and returns the executor so listeners can be added. With
+     * critical path scheduling the jobs of the longest chains start first.
+     * A concurrency of zero packs jobs against the cores and memory of this
+     * machine instead of running a fixed number at a time.
+     */
+    public PipelineExecutor useExecutor(int concurrency, boolean keepGoing, boolean criticalPathFirst) {
+        RuntimeHistory history = new RuntimeHistory(new File(makefileDir, RUNTIME_HISTORY_FILE));
+        history.load();
+
+        executor = new PipelineExecutor(makefileDir, pipeline, table);
+        executor.setConcurrency(concurrency);
+        if (concurrency <= 0) {
+            executor.setCapacity(ExecutionCapacity.ofMachine());
+        }
+        executor.setKeepGoing(keepGoing);
+        executor.setCriticalPathFirst(criticalPathFirst);
+        executor.setRuntimeHistory(history);
+        return executor;
+    }
+
+    /**
+     * Runs this analysis with the make command again
+     */
+    public void useMake() {
+        executor = null;
+    }
+
     /**
      * Runs the 'cleanall' target for this makefile. This deletes all 
      * intermediate and target files produced by the makefile.
@@ -87,6 +299,8 @@ public class MakefileAnalysis {
 
         try {
             Process p = runAndWait("make -f Makefile cleanall");
+            progress.reset();
+            progress.refresh();
             return p.exitValue();
         } catch (IOException e) {
             System.err.println("MakefileAnalysis.java - clean() found IOException");
@@ -106,12 +320,13 @@ public class MakefileAnalysis {
             String analysisString = json.getString("analysis");
             String pipelineName = json.getString("pipeline");
             String tablePath = json.getString("tablePath");
+            layout = Layout.valueOf(json.optString("layout", Layout.RULES.name()));
 
             System.out.println("toolbox = " + toolboxString);
             System.out.println("analysis = " + analysisString);
             System.out.println("pipeline = " + pipelineName);
             System.out.println("tablePath = " + tablePath);
-        } catch (JSONException e) {
+        } catch (JSONException | IllegalArgumentException e) {
             throw new InvalidMakefileException(e);
         }
 
@@ -129,52 +344,25 @@ public class MakefileAnalysis {
         outputJSON.put("analysis", name);
         outputJSON.put("pipeline", pipeline.getName());
         outputJSON.put("tablePath", table.getPath());
+        outputJSON.put("layout", layout.name());
 
         return outputJSON;
     }
 
     /**
      * Returns the current fraction of target files that should be produced by 
-     * this analysis by querrying the makefile.
+     * this analysis as counted by its progress tracker.
      */
     public String getTargetRatio() {
-
-        try {
-            Process p = runAndWait("make -f Makefile target_ratio");
-            String stdout = readStdout(p);
-            if (stdout == null) {
-                return ERROR_RATIO;
-            } else {
-                return stdout;
-            }
-        } catch (IOException e) {
-            System.err.println("MakefileAnalysis.java - run() found IOException");
-        } catch (InterruptedException e) {
-            System.err.println("MakefileAnalysis.java - run() found InterruptedException");
-        }
-        return ERROR_RATIO;
+        return progress.getTargetRatio();
     }
 
     /**
      * Returns the current fraction of intermediate files that should be 
-     * produced by this analysis by querrying the makefile.
+     * produced by this analysis as counted by its progress tracker.
      */
     public String getIntermediateRatio() {
-
-        try {
-            Process p = runAndWait("make -f Makefile intermediate_ratio");
-            String stdout = readStdout(p);
-            if (stdout == null) {
-                return ERROR_RATIO;
-            } else {
-                return stdout;
-            }
-        } catch (IOException e) {
-            System.err.println("MakefileAnalysis.java - getIntermediateRatio() found IOException");
-        } catch (InterruptedException e) {
-            System.err.println("MakefileAnalysis.java - getIntermediateRatio() found InterruptedException");
-        }
-        return ERROR_RATIO;
+        return progress.getIntermediateRatio();
     }
 
     /**
@@ -191,56 +379,15 @@ public class MakefileAnalysis {
     }
 
     /**
-     * Returns the stdout stream from an executed Process
-     */
-    private String readStdout(Process p) throws IOException {
-
-        BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
-        String line = reader.readLine();
-        reader.close();
-        return line;
-    }
-
-    /**
-     * Returns true if this analysis has completed execution
+     * Returns true if this analysis has completed execution. Files still 
+     * missing are checked again, since they may appear on a shared file 
+     * system some time after make has finished.
      */
     public boolean isComplete() {
-
-        // Check that the complete set of target files are found
-        String targetRatio = getTargetRatio();
-        if (targetRatio.equals(ERROR_RATIO)) {
-            return false;
-        }
-
-        String[] tokens = targetRatio.split(" / ");
-        if (tokens.length != 2) {
-            return false;
-        }
-
-        int numerator = Integer.parseInt(tokens[0]);
-        int denomenator = Integer.parseInt(tokens[1]);
-        if (numerator != denomenator) {
-            return false;
+        if (! progress.isComplete()) {
+            progress.refresh();
         }
-
-        // Check that the complete set of intermediate files are found
-        String intermediateRatio = getIntermediateRatio();
-        if (intermediateRatio.equals(ERROR_RATIO)) {
-            return false;
-        }
-
-        tokens = targetRatio.split(" / ");
-        if (tokens.length != 2) {
-            return false;
-        }
-
-        numerator = Integer.parseInt(tokens[0]);
-        denomenator = Integer.parseInt(tokens[1]);
-        if (numerator != denomenator) {
-            return false;
-        }
-
-        return true;
+        return progress.isComplete();
     }
 
     /**
@@ -265,106 +412,95 @@ public class MakefileAnalysis {
     }
 
     /**
-     * Returns the stdout stream from running this makefile analysis
+     * Returns the file the stdout stream from running this makefile analysis
+     * is written to
      */
-    public String getStdout() {
-        return getFileText(STDOUT_FILE);
+    public File getStdoutFile() {
+        return new File(makefileDir, STDOUT_FILE);
     }
 
     /**
-     * Returns the error trees representing portions of the makefile dependency
-     * tree that could not be produced from running this makefile analysis.
+     * Forgets the failures of the last run once its error logs are cleared
      */
-    public String getErrorTrees() {
+    private synchronized void resetFailures() {
+        failures.reset();
+        errorTrees.setLength(0);
+    }
 
-        String tempText = "";
+    /**
+     * Reads the failures journaled since the last call and adds their error
+     * trees to the report. Returns the number of new failures, so a view can
+     * update while the analysis is still running.
+     */
+    public synchronized int pollFailures() {
 
-        File errorLogs = new File(makefileDir.toString() + "/ERROR_LOGS/");
-        for (File subjectDir : errorLogs.listFiles()) {
-            if (! subjectDir.isDirectory()) {
+        List<ModuleFailure> added = failures.poll();
+        for (ModuleFailure failure : added) {
+            ModuleElement module = modulesByID.get(failure.getModuleID());
+            if (module == null) {
+                System.err.println("Warning: Failure journal names unknown module " + failure.getModuleID());
                 continue;
             }
-            for (File moduleDir : subjectDir.listFiles()) {
-                if (! moduleDir.isDirectory()) {
-                    continue;
-                }
-                try {
-                    String subjectID = subjectDir.getName();
-                    int moduleID = Integer.parseInt(moduleDir.getName());
-
-                    ArrayList<ModuleElement> modules = pipeline.getModules();
-                    for (ModuleElement module : modules) {
-                        if (module.getID() == moduleID) {
-                            tempText += buildErrorTree(module, subjectID);
-                            tempText += "\n";
-                        }
-                    }
-                } catch (NumberFormatException e) {
-                    e.printStackTrace();
-                    System.err.println("NumberFormatException in MakefileAnalysis.java getErrorTrees()");
-                    continue;
-                }
-            }
+            appendErrorTree(errorTrees, module, failure.getId());
+            errorTrees.append("\n");
         }
-
-        return tempText;
+        return added.size();
     }
 
     /**
-     * Returns the error tree for a single module
+     * Returns the failures of the current or last run read so far
      */
-    private String buildErrorTree(ModuleElement module, String id) {
-
-        String tempText = "";
-        tempText += "<span class=\"redbold\">id " + id + " at module " + module.getName() + "</span>\n";
-
-        DataTableFile table = this.table;
-        ErrorTreeVisitor errorTree = new ErrorTreeVisitor(table, id);
-        errorTree.visit(module);
-        tempText += errorTree.getText();
+    public List<ModuleFailure> getFailures() {
+        return failures.getFailures();
+    }
 
-        return tempText;
+    /**
+     * Returns the error trees representing portions of the makefile dependency
+     * tree that could not be produced from running this makefile analysis.
+     */
+    public synchronized String getErrorTrees() {
+        pollFailures();
+        return errorTrees.toString();
     }
 
     /**
-     * Returns the stderr stream from running this makefile analysis
+     * Returns the error trees reported after the first start characters, so
+     * a view can append the trees of new failures to those it shows
      */
-    public String getStderr() {
-        return getFileText(STDERR_FILE);
+    public synchronized String getErrorTrees(int start) {
+        return errorTrees.substring(Math.min(start, errorTrees.length()));
     }
 
     /**
-     * Returns the contents of a text file
+     * Appends the error tree for a single module. The tree of each module is
+     * built once and then rendered for every id the module fails for.
      */
-    public String getFileText(String fileName) {
-        String path = makefileDir.toString() + "/" + fileName;        
-        try {
-            byte[] encoded = Files.readAllBytes(Paths.get(path));
-            Charset encoding = Charset.defaultCharset();
-            String out = new String(encoded, encoding);
-            System.out.println(out);
-            return out;
-        } catch (IOException e) {
-            return "ERROR: Could not read path " + path;
+    private void appendErrorTree(StringBuilder sb, ModuleElement module, String id) {
+
+        sb.append("<span class=\"redbold\">id " + id + " at module " + module.getName() + "</span>\n");
+
+        ErrorTree tree = errorTreesByModule.get(module.getID());
+        if (tree == null) {
+            ErrorTreeVisitor visitor = new ErrorTreeVisitor();
+            visitor.visit(module);
+            tree = visitor.getTree();
+            errorTreesByModule.put(module.getID(), tree);
         }
+        tree.render(sb, table, id);
+    }
+
+    /**
+     * Returns the file the stderr stream from running this makefile analysis
+     * is written to
+     */
+    public File getStderrFile() {
+        return new File(makefileDir, STDERR_FILE);
     }
 
     /**
      * Returns true if the file-stream stderr was empty during analysis
      */
     public boolean errorStreamEmpty() {
-        try {
-            String pathToErrors = makefileDir.toString() + "/" + STDERR_FILE;
-            BufferedReader br = new BufferedReader(new FileReader(pathToErrors));     
-            if (br.readLine() == null) {
-                return true;
-            }
-            return false;
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.err.println("Error in MakefileAnalysis.java function errorStreamEmpty(). Could not read error stream file.");
-            System.exit(1);
-        }
-        return false;
+        return getStderrFile().length() == 0;
     }
 }
@@ -0,0 +1,79 @@
+/*
+    Program:  MakefileExpansion.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class expands text written for an id's makefile rules the
+              way make would, so files and commands can be used without make.
+
+              The directories $(PROCESSING) and $(ERRORS), the table's
+              makefile-style variables for the id, and any other variable from
+              the environment are substituted, and "$$" becomes "$". Variables
+              that are not defined expand to nothing as they do in make.
+
+ */
+
+package pipegen;
+
+import java.util.*;
+
+
+public class MakefileExpansion {
+
+    // Directories defined at the top of every makefile
+    public static final String PROCESSING_DIRECTORY = "./PROCESSING_DIRECTORY/";
+    public static final String ERRORS_DIRECTORY = "./ERROR_LOGS/";
+
+    // Home directory a leading "~/" of a file name expands to
+    private static final String HOME = System.getenv("HOME") != null ? System.getenv("HOME") : System.getProperty("user.home");
+
+    private DataTableFile table;
+    private MakeVariableSubstitution substitution;
+
+    // Values of the variables for the id last expanded, as callers expand
+    // many texts for one id before moving on to the next
+    private String valuesID;
+    private Map<String, String> values;
+
+    public MakefileExpansion(DataTableFile table) {
+        this.table = table;
+        this.substitution = table.getMakeVariableSubstitution();
+    }
+
+    /**
+     * Expands all variable references in text for the given id
+     */
+    public String expand(String text, String id) {
+
+        if (text.indexOf('$') < 0) {
+            return text;
+        }
+        return substitution.expand(text, getValues(id));
+    }
+
+    /**
+     * Returns the values of the variables defined for an id's rules
+     */
+    private Map<String, String> getValues(String id) {
+
+        if (! id.equals(valuesID)) {
+            values = table.getMakeVariableValues(id);
+            values.put("PROCESSING", PROCESSING_DIRECTORY);
+            values.put("ERRORS", ERRORS_DIRECTORY);
+            valuesID = id;
+        }
+        return values;
+    }
+
+    /**
+     * Expands a file name for the given id, including a leading "~/" which
+     * make expands in the names of targets and prerequisites
+     */
+    public String expandFilename(String filename, String id) {
+        String expanded = expand(filename, id);
+        if (expanded.startsWith("~/")) {
+            expanded = HOME + expanded.substring(1);
+        }
+        return expanded;
+    }
+}
@@ -6,6 +6,29 @@
     Purpose:  This factory class composes the makefile content and writes it to 
               disk in preparation for analysis with the class MakefileAnalysis.
 
+              By default the makefile is composed in memory and then written. 
+              In streaming mode each section is written straight to a buffered
+              file channel as it is composed, and the target and intermediate 
+              file lists are spooled to temporary files that are spliced into 
+              the printing section, so memory use does not grow with the 
+              number of ids.
+
+              The rule blocks of the main section can also be built in parallel
+              on a fork-join pool. Blocks are still written in sink and id 
+              order so the makefile is the same as one built serially.
+
+              In pattern rule mode the main section holds one GNU make pattern
+              rule per module rather than one rule per module and id. The id 
+              is the stem of each pattern and table fields are looked up 
+              through id specific variables, so the size of the makefile grows
+              only with the variable table.
+
+              In sharded mode the rules and variables of each id are written 
+              to their own fragment "ids/<id>.mk" which the top-level makefile
+              includes. A fragment is only rewritten when its contents change,
+              and a single id can be run with "make only<id>" so that make 
+              reads just that id's fragment.
+
  */
 
 package pipegen;
@@ -13,6 +36,10 @@ package pipegen;
 import java.io.*;
 import java.util.*;
 import java.text.*;
+import java.util.concurrent.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 
 import pipegen.exceptions.*;
 import pipegen.instances.*;
@@ -20,13 +47,45 @@ import pipegen.instances.*;
 
 public class MakefileFactory {
 
+    // Version of the rule text this factory writes. It must be raised with
+    // any change to the text of a rule block, including the commands and
+    // error handling written by ModuleElement, so that blocks cached by an
+    // older version are rebuilt. Version 2 appends failures to the
+    // FAILURES.journal in the error catch of every module.
+    public static final int GENERATOR_VERSION = 2;
+
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+    private static final int MAX_PREVIEW_CHARS = 1 << 20;
+
+    // Number of ids whose rule blocks are held in memory at once when
+    // building them in parallel
+    private static final int PARALLEL_WINDOW = 4096;
+
+    // Directory next to the makefile holding the fragment of each id
+    private static final String SHARD_DIR = "ids";
+    private static final String SHARD_SUFFIX = ".mk";
+
     private File makefile;
     private File makefileDir;
     private DataTableFile table;
     private PipelineInstance pipeline;
 
-    private String targetList;
-    private String intermediateList;
+    private boolean streaming;
+    private boolean patternRules;
+    private boolean sharded;
+    private int parallelism;
+    private PatternRuleVisitor patternVisitor;
+    private RuleBlockCache ruleCache;
+    private UpstreamWalk upstreamWalk;
+    private String[] makeVariables;
+
+    // Space delimited lists of target and intermediate files. When streaming 
+    // these write to the spool files, otherwise they hold the lists in memory.
+    private Writer targetList;
+    private Writer intermediateList;
+    private Path targetSpool;
+    private Path intermediateSpool;
+    private FileChannel channel;
 
     private String text;
 
@@ -36,14 +95,98 @@ public class MakefileFactory {
         this.makefileDir = makefile.getParentFile();
         this.table = table;
         this.pipeline = pipeline;
+        this.streaming = false;
+        this.patternRules = false;
+        this.sharded = false;
+        this.parallelism = 1;
+    }
+
+    /**
+     * Sets whether this factory streams the makefile to disk as it is composed
+     * rather than composing the whole text in memory first
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Returns true if this factory streams the makefile to disk
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets whether this factory writes one pattern rule per module instead of
+     * one rule per module and id
+     */
+    public void setPatternRules(boolean patternRules) {
+        this.patternRules = patternRules;
+    }
+
+    /**
+     * Returns true if this factory writes pattern rules
+     */
+    public boolean isPatternRules() {
+        return patternRules;
+    }
+
+    /**
+     * Sets whether this factory writes the rules of each id to a separate 
+     * makefile fragment. Sharding does not apply to pattern rule mode, where 
+     * the makefile no longer holds rules for each id.
+     */
+    public void setSharded(boolean sharded) {
+        this.sharded = sharded;
+    }
+
+    /**
+     * Returns true if this factory writes a makefile fragment for each id
+     */
+    public boolean isSharded() {
+        return sharded;
+    }
+
+    /**
+     * Returns true if the rules of each id are written to fragments
+     */
+    private boolean isShardedLayout() {
+        return sharded && ! patternRules;
+    }
+
+    /**
+     * Sets a cache of rule blocks from a previous makefile. Blocks of ids whose
+     * fingerprint is unchanged are reused rather than rebuilt.
+     */
+    public void setRuleCache(RuleBlockCache ruleCache) {
+        this.ruleCache = ruleCache;
+    }
+
+    /**
+     * Sets the number of threads used to build the rule blocks of the main 
+     * section. A parallelism of one builds them serially.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns the number of threads used to build the main section
+     */
+    public int getParallelism() {
+        return parallelism;
     }
 
     /**
      * Composes the contents of this makefile and writes it to disk
      */
     public void composeAndWrite() throws InvalidMakefileException {
-        composeText();
-        writeFile();
+        if (streaming) {
+            composeAndStream();
+        } else {
+            composeText();
+            writeFile();
+        }
     }
 
     /**
@@ -51,14 +194,137 @@ public class MakefileFactory {
      */
     private void composeText() throws InvalidMakefileException  {
 
-        StringBuilder sb = new StringBuilder(32768);
-        sb.append(composeHeaderComments());   // Header comments
-        sb.append(composeInitialSection());   // Initial section
-        sb.append(composeSetupSection());     // Setup targets section
-        sb.append(composeMainSection());      // Main targets section
-        sb.append(composeCleanupSection());   // Cleanup targets section
-        sb.append(composePrintingSection());  // Printing targets section
-        text = sb.toString();
+        StringWriter out = new StringWriter(32768);
+        targetList = new StringWriter();
+        intermediateList = new StringWriter();
+        try {
+            composeSections(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new InvalidMakefileException(e);
+        }
+        text = out.toString();
+    }
+
+    /**
+     * Composes the contents of this makefile writing each section to disk as 
+     * it is composed. The text of the makefile is not kept in memory.
+     */
+    private void composeAndStream() throws InvalidMakefileException {
+
+        Writer out = null;
+        text = null;
+        try {
+
+            // Create enclosing directory if needed
+            if(! makefileDir.isDirectory()) {
+                makefileDir.mkdir();
+            }
+
+            // Spool the file lists next to the makefile
+            targetSpool = Files.createTempFile(makefileDir.toPath(), "targetList", ".tmp");
+            intermediateSpool = Files.createTempFile(makefileDir.toPath(), "intermediateList", ".tmp");
+            targetList = openSpool(targetSpool);
+            intermediateList = openSpool(intermediateSpool);
+
+            // Write contents to makefile
+            channel = FileChannel.open(makefile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1), WRITE_BUFFER_SIZE);
+            composeSections(out);
+            out.close();
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new InvalidMakefileException(e);
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                closeSpools();
+            } catch (IOException e) {
+                e.printStackTrace();
+                throw new InvalidMakefileException(e);
+            }
+        }
+    }
+
+    /**
+     * Composes each section of this makefile in order
+     */
+    private void composeSections(Writer out) throws InvalidMakefileException, IOException {
+
+        // Pattern rules are built up front since the initial section needs the
+        // sources and sinks they reference
+        patternVisitor = null;
+        if (patternRules) {
+            patternVisitor = new PatternRuleVisitor(table);
+            for (SinkElement sink : pipeline.getSinks()) {
+                patternVisitor.visit(sink);
+            }
+        }
+
+        composeHeaderComments(out);   // Header comments
+        composeInitialSection(out);   // Initial section
+        composeSetupSection(out);     // Setup targets section
+        composeMainSection(out);      // Main targets section
+        composeCleanupSection(out);   // Cleanup targets section
+        composePrintingSection(out);  // Printing targets section
+    }
+
+    /**
+     * Opens a buffered writer on a spool file
+     */
+    private static Writer openSpool(Path spool) throws IOException {
+        return Files.newBufferedWriter(spool, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes and deletes any spool files
+     */
+    private void closeSpools() throws IOException {
+        if (targetSpool != null) {
+            targetList.close();
+            Files.deleteIfExists(targetSpool);
+            targetSpool = null;
+        }
+        if (intermediateSpool != null) {
+            intermediateList.close();
+            Files.deleteIfExists(intermediateSpool);
+            intermediateSpool = null;
+        }
+        targetList = null;
+        intermediateList = null;
+    }
+
+    /**
+     * Writes a space delimited file list into the makefile. In-memory lists 
+     * are copied over directly while spooled lists are transferred from their
+     * spool file to the makefile's channel.
+     */
+    private void spliceList(Writer out, Writer list, Path spool) throws IOException {
+
+        if (spool == null) {
+            out.write(list.toString());
+            return;
+        }
+
+        list.flush();
+        out.flush();
+        FileChannel source = FileChannel.open(spool, StandardOpenOption.READ);
+        try {
+            long position = 0;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, channel);
+            }
+        } finally {
+            source.close();
+        }
     }
 
     /**
@@ -108,237 +374,550 @@ public class MakefileFactory {
      * Composes header comment for the makefile. Includes the time the makefile 
      * was composed.
      */
-    private String composeHeaderComments() {
+    private void composeHeaderComments(Writer out) throws IOException {
 
         Date date = new Date();
         SimpleDateFormat dayForm = new SimpleDateFormat ("EEEE, MMMM d yyyy.");
         SimpleDateFormat timeForm = new SimpleDateFormat ("hh:mm a");
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("#\n");
-        sb.append("#    This makefile was generated by pipe-gen\n");
-        sb.append("#\n");
-        sb.append("#    " + dayForm.format(date) + "\n");
-        sb.append("#    " + timeForm.format(date) + "\n");
-        sb.append("#\n");
-        sb.append("\n");
-        sb.append("\n");
-
-        return sb.toString();
+        out.write("#\n");
+        out.write("#    This makefile was generated by pipe-gen\n");
+        out.write("#\n");
+        out.write("#    " + dayForm.format(date) + "\n");
+        out.write("#    " + timeForm.format(date) + "\n");
+        out.write("#\n");
+        out.write("\n");
+        out.write("\n");
     }
 
     /**
      * Composes the initialization section of the makefile
      */
-    private String composeInitialSection() {
+    private void composeInitialSection(Writer out) throws IOException {
 
         String[] idList = table.getColumnByHeader("id");
         String[] makeVariables = table.getMakeVariables();
         ArrayList<SinkElement> sinks = pipeline.getSinks();
 
-        String idListString = "";
-        String setupListString = "";
-        for (int i=0; i < idList.length; i++) {
-            idListString += " id" + idList[i];
-            setupListString += " setup" + idList[i];
-        }
-
-        StringBuilder sb = new StringBuilder();
-
         // Define processing directory
-        sb.append("# Processing directory for intermediate files\n");
-        sb.append("PROCESSING = ./PROCESSING_DIRECTORY/\n");
-        sb.append("\n");
+        out.write("# Processing directory for intermediate files\n");
+        out.write("PROCESSING = ./PROCESSING_DIRECTORY/\n");
+        out.write("\n");
 
         // Define error log directory
-        sb.append("# Error log directory\n");
-        sb.append("ERRORS = ./ERROR_LOGS/\n");
-        sb.append("\n");        
+        out.write("# Error log directory\n");
+        out.write("ERRORS = ./ERROR_LOGS/\n");
+        out.write("\n");        
+
+        if (patternVisitor != null) {
+            composePatternInitialSection(out, idList, makeVariables);
+            return;
+        }
 
         // Define list of ID's
-        sb.append("# List processing subroutines for each ID\n");
-        sb.append("IDLIST =" + idListString + "\n");
-        sb.append("\n");
+        out.write("# List processing subroutines for each ID\n");
+        out.write("IDLIST =");
+        for (int i=0; i < idList.length; i++) {
+            out.write(" id" + idList[i]);
+        }
+        out.write("\n");
+        out.write("\n");
 
         // Define list of setup subroutines
-        sb.append("# List setup subroutines for each ID\n");
-        sb.append("SETUPLIST =" + setupListString + "\n");
-        sb.append("\n");
+        out.write("# List setup subroutines for each ID\n");
+        out.write("SETUPLIST =");
+        for (int i=0; i < idList.length; i++) {
+            out.write(" setup" + idList[i]);
+        }
+        out.write("\n");
+        out.write("\n");
 
         // Target all ID's  for analysis
-        sb.append("# Target all IDs for processing\n");
-        sb.append("all: $(IDLIST)\n");
-        sb.append(".PHONY: all\n");
-        sb.append(".PHONY: $(IDLIST)\n");
-        sb.append("\n");
+        out.write("# Target all IDs for processing\n");
+        out.write("all: $(IDLIST)\n");
+        out.write(".PHONY: all\n");
+        out.write(".PHONY: $(IDLIST)\n");
+        out.write("\n");
+
+        // Each id's subroutine and variables are kept in its fragment
+        if (isShardedLayout()) {
+            return;
+        }
 
         for (int i=0; i < idList.length; i++) {
-            sb.append("id" + idList[i] + ": ");
+            out.write("id" + idList[i] + ": ");
             for (int j=0; j < sinks.size(); j++) {
-                sb.append(sinks.get(j).getPhoneyname(idList[i]) + " ");
+                out.write(sinks.get(j).getPhoneyname(idList[i]) + " ");
             }
-            sb.append("\n");
+            out.write("\n");
         }
-        sb.append("\n");
+        out.write("\n");
 
         // Defines makefile variables specific to each ID
-        sb.append("# ID specific makefile variables\n");
+        out.write("# ID specific makefile variables\n");
         for (int i=0; i < idList.length; i++) {
             for (String variable : makeVariables) {
-                sb.append("id" + idList[i] + "_" + variable + " = " + table.getDataByHeaderAndRowid("$(" + variable + ")", idList[i]) + "\n");
+                out.write("id" + idList[i] + "_" + variable + " = " + table.getDataByHeaderAndRowid("$(" + variable + ")", idList[i]) + "\n");
             }
-            sb.append("\n");
+            out.write("\n");
         }
+    }
 
-        return sb.toString();
+    /**
+     * Composes the remainder of the initialization section for a makefile of 
+     * pattern rules. Lists are derived from the ids with make functions and 
+     * the table fields used by sources and sinks get id specific variables.
+     */
+    private void composePatternInitialSection(Writer out, String[] idList, String[] makeVariables) throws IOException {
+
+        MakeVariableSubstitution substitution = table.getMakeVariableSubstitution();
+        List<SourceElement> sources = patternVisitor.getSources();
+        List<SinkElement> sinks = patternVisitor.getSinks();
+
+        // Define list of ID's
+        out.write("# List of IDs\n");
+        out.write("IDS =");
+        for (int i=0; i < idList.length; i++) {
+            out.write(" " + idList[i]);
+        }
+        out.write("\n");
+        out.write("\n");
+
+        out.write("# List processing subroutines for each ID\n");
+        out.write("IDLIST = $(addprefix id,$(IDS))\n");
+        out.write("\n");
+
+        out.write("# List setup subroutines for each ID\n");
+        out.write("SETUPLIST = $(addprefix setup,$(IDS))\n");
+        out.write("\n");
+
+        // Target all ID's  for analysis
+        out.write("# Target all IDs for processing\n");
+        out.write("all: $(IDLIST)\n");
+        out.write(".PHONY: all\n");
+        out.write(".PHONY: $(IDLIST)\n");
+        out.write("\n");
+
+        out.write("$(IDLIST): id%:");
+        for (SinkElement sink : sinks) {
+            out.write(" " + sink.getPhoneyname("%"));
+        }
+        out.write("\n");
+        out.write("\n");
+
+        // Defines makefile variables specific to each ID
+        out.write("# ID specific makefile variables\n");
+        for (int i=0; i < idList.length; i++) {
+            String prefix = "id" + idList[i] + "_";
+            for (String variable : makeVariables) {
+                out.write(prefix + variable + " = " + table.getDataByHeaderAndRowid("$(" + variable + ")", idList[i]) + "\n");
+            }
+            for (SourceElement source : sources) {
+                String value = source.getContents(idList[i], table);
+                out.write(prefix + source.getVariableName() + " = " + substitution.rename(value, prefix) + "\n");
+            }
+            for (SinkElement sink : sinks) {
+                String value = sink.getFilename(idList[i], table);
+                out.write(prefix + sink.getVariableName() + " = " + substitution.rename(value, prefix) + "\n");
+            }
+            out.write("\n");
+        }
     }
 
     /**
      * Composes the section of the makefile that handles setting up the 
      * directory structure prior to running the analysis.
      */
-    private String composeSetupSection() {
+    private void composeSetupSection(Writer out) throws IOException {
 
         String[] idList = table.getColumnByHeader("id");
 
-        StringBuilder sb = new StringBuilder();
-
         // Append line comment
-        sb.append(lineComment("SETUP TARGETS"));
-        sb.append("\n");
+        out.write(lineComment("SETUP TARGETS"));
+        out.write("\n");
 
         // Implement setup subroutines
-        sb.append("# Create processing subdirectory for each ID\n");
-        sb.append(".PHONY: setupall\n");
-        sb.append("setupall: $(SETUPLIST)\n");
-        sb.append("\n");
-
-        sb.append("# Clear error logs and create error log directory\n");
-        sb.append(".PHONY: seterror\n");
-        sb.append("setuperror: cleanerror\n");
-        sb.append("\tmkdir -p $(ERRORS)\n");
-        sb.append("\n");
-
-        sb.append(".PHONY: $(SETUPLIST)\n");
-        sb.append("\n");
+        out.write("# Create processing subdirectory for each ID\n");
+        out.write(".PHONY: setupall\n");
+        out.write("setupall: $(SETUPLIST)\n");
+        out.write("\n");
+
+        out.write("# Clear error logs and create error log directory\n");
+        out.write(".PHONY: seterror\n");
+        out.write("setuperror: cleanerror\n");
+        out.write("\tmkdir -p $(ERRORS)\n");
+        out.write("\n");
+
+        out.write(".PHONY: $(SETUPLIST)\n");
+        out.write("\n");
+
+        if (patternVisitor != null || isShardedLayout()) {
+            out.write("$(SETUPLIST): setup%: setuperror\n");
+            out.write("\tmkdir -p $(PROCESSING)/$*\n");
+            out.write("\n");
+            return;
+        }
 
         for (int i=0; i < idList.length; i++) {
-            sb.append("setup" + idList[i] + ": setuperror\n");
-            sb.append("\tmkdir -p $(PROCESSING)/" + idList[i] + "\n");
-            sb.append("\n");
+            out.write("setup" + idList[i] + ": setuperror\n");
+            out.write("\tmkdir -p $(PROCESSING)/" + idList[i] + "\n");
+            out.write("\n");
         }
-
-        return sb.toString();
     }
 
     /**
      * Composes the main section of the makefile that handles producing the  
      * running the analysis.
      */
-    private String composeMainSection() throws InvalidMakefileException {
+    private void composeMainSection(Writer out) throws InvalidMakefileException, IOException {
 
-        targetList = "";
-        intermediateList = "";
-        String[] makeVariables = table.getMakeVariables();
+        makeVariables = table.getMakeVariables();
         ArrayList<SinkElement> sinks = pipeline.getSinks();
+        upstreamWalk = new UpstreamWalk(sinks);
         String[] idList = table.getColumnByHeader("id");
 
-        StringBuilder sb = new StringBuilder();
-
         // Append line comment
-        sb.append(lineComment("MAKE ALL"));
-        sb.append("\n");
+        out.write(lineComment("MAKE ALL"));
+        out.write("\n");
 
         // Add the dependency tree for each file in SINKS
-        BlockElementVisitor blockVisitor;
-        for (SinkElement sink : sinks) {
-            for (String id : idList) {
-                blockVisitor = new BlockElementVisitor(table);
-                int sinkID = sink.getID();
-                String target = sink.asTarget(id);
-
-                blockVisitor.visit(sink, id);
-                String newTarget = sink.getFilename(id, table);
-                String newIntermediates = blockVisitor.getIntermediateList();
-
-                for (String variable : makeVariables) {
-                    newTarget = newTarget.replace("$(" + variable + ")", "$(id" + id + "_" + variable + ")");
-                    newIntermediates = newIntermediates.replace("$(" + variable + ")", "$(id" + id + "_" + variable + ")");
+        if (patternVisitor != null) {
+            composePatternRules(out);
+        } else if (isShardedLayout()) {
+            composeFragments(out, sinks, idList);
+        } else if (parallelism > 1) {
+            composeRuleBlocksParallel(out, sinks, idList);
+        } else {
+            for (SinkElement sink : sinks) {
+                for (String id : idList) {
+                    writeRuleBlock(out, composeRuleBlock(sink, id));
                 }
+            }
+        }
+    }
+
+    /**
+     * Writes the pattern rules built for the pipeline. The target and 
+     * intermediate lists are written as make functions over the ids.
+     */
+    private void composePatternRules(Writer out) throws IOException {
+
+        // Prerequisites naming id specific variables are expanded a second 
+        // time once the stem is known. Files built by chains of pattern rules 
+        // are kept rather than deleted as intermediates.
+        out.write(".SECONDEXPANSION:\n");
+        out.write(".SECONDARY:\n");
+        out.write("\n");
+        out.write(patternVisitor.getText());
+
+        targetList.write(" $(foreach id,$(IDS),");
+        for (SinkElement sink : patternVisitor.getSinks()) {
+            targetList.write(" $(id$(id)_" + sink.getVariableName() + ")");
+        }
+        targetList.write(")");
+
+        intermediateList.write(" $(foreach id,$(IDS),");
+        for (String intermediate : patternVisitor.getIntermediates()) {
+            intermediateList.write(" " + intermediate);
+        }
+        intermediateList.write(")");
+    }
+
+    /**
+     * Builds the rule blocks for each sink and id on a fork-join pool. The ids
+     * are handled in windows so that only a bounded number of blocks are held 
+     * in memory, and each window is written in id order.
+     */
+    private void composeRuleBlocksParallel(Writer out, ArrayList<SinkElement> sinks, String[] idList) throws InvalidMakefileException, IOException {
 
-                targetList += " " + newTarget;
-                intermediateList += " " + newIntermediates;
-                sb.append(blockVisitor.getText());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            RuleBlock[] results = new RuleBlock[Math.min(PARALLEL_WINDOW, idList.length)];
+            for (SinkElement sink : sinks) {
+                for (int start=0; start < idList.length; start += PARALLEL_WINDOW) {
+                    int end = Math.min(start + PARALLEL_WINDOW, idList.length);
+                    composeRuleBlocks(pool, sink, idList, results, start, end);
+                    for (int i=0; i < end - start; i++) {
+                        writeRuleBlock(out, results[i]);
+                        results[i] = null;
+                    }
+                }
             }
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        return sb.toString();
+    /**
+     * Builds the rule blocks of one sink for the ids from start to end into 
+     * results, on the pool if there is one and otherwise serially
+     */
+    private void composeRuleBlocks(ForkJoinPool pool, SinkElement sink, String[] idList, RuleBlock[] results, int start, int end) throws InvalidMakefileException {
+        if (pool == null) {
+            for (int i=start; i < end; i++) {
+                results[i - start] = composeRuleBlock(sink, idList[i]);
+            }
+            return;
+        }
+        try {
+            pool.invoke(new RuleBlockTask(this, sink, idList, results, start, start, end));
+        } catch (RuntimeException e) {
+            throw unwrapMakefileException(e);
+        }
     }
 
     /**
-     * Composes the section of the makefile that handles cleaning files from 
-     * previous analyses.
+     * Writes the makefile fragment of each id and the top-level rules that 
+     * include them. Fragments of ids no longer in the table are removed.
      */
-    private String composeCleanupSection() {
+    private void composeFragments(Writer out, ArrayList<SinkElement> sinks, String[] idList) throws InvalidMakefileException, IOException {
 
-        StringBuilder sb = new StringBuilder();
+        File shardDir = new File(makefileDir, SHARD_DIR);
+        if (! shardDir.isDirectory()) {
+            shardDir.mkdirs();
+        }
 
-        // Append line comment
-        sb.append(lineComment("CLEAN UP"));
-        sb.append("\n");
+        ForkJoinPool pool = null;
+        if (parallelism > 1) {
+            pool = new ForkJoinPool(parallelism);
+        }
+        try {
+            RuleBlock[][] results = new RuleBlock[sinks.size()][Math.min(PARALLEL_WINDOW, idList.length)];
+            for (int start=0; start < idList.length; start += PARALLEL_WINDOW) {
+                int end = Math.min(start + PARALLEL_WINDOW, idList.length);
+                for (int j=0; j < sinks.size(); j++) {
+                    composeRuleBlocks(pool, sinks.get(j), idList, results[j], start, end);
+                }
+                for (int i=start; i < end; i++) {
+                    String fragment = composeFragment(idList[i], sinks, results, i - start);
+                    writeFragment(new File(shardDir, idList[i] + SHARD_SUFFIX), fragment);
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+            }
+        }
+        removeStaleFragments(shardDir, idList);
+
+        // Include every fragment unless a single id was requested
+        out.write("# Rules for each ID are kept in the makefile fragment " + SHARD_DIR + "/<id>" + SHARD_SUFFIX + "\n");
+        out.write("ifeq ($(filter only%,$(MAKECMDGOALS)),)\n");
+        out.write("include $(patsubst id%," + SHARD_DIR + "/%" + SHARD_SUFFIX + ",$(IDLIST))\n");
+        out.write("endif\n");
+        out.write("\n");
+
+        // Run a single ID reading only its own fragment
+        out.write("# Process a single ID reading only its makefile fragment\n");
+        out.write("ONLYLIST = $(patsubst id%,only%,$(IDLIST))\n");
+        out.write(".PHONY: $(ONLYLIST)\n");
+        out.write("$(ONLYLIST): only%:\n");
+        out.write("\tmkdir -p $(PROCESSING)/$* $(ERRORS)\n");
+        out.write("\trm -rf $(ERRORS)$*\n");
+        out.write("\t$(MAKE) -f " + SHARD_DIR + "/$*" + SHARD_SUFFIX + " PROCESSING=$(PROCESSING) ERRORS=$(ERRORS) id$*\n");
+        out.write("\n");
+    }
 
-        // Declare cleaning targets
-        sb.append(".PHONY: cleanall cleanerror cleanprocess\n");
-        sb.append("\n");
+    /**
+     * Composes the makefile fragment of one id. Fragments carry no time stamp
+     * so that regenerating an unchanged id produces the same text.
+     */
+    private String composeFragment(String id, ArrayList<SinkElement> sinks, RuleBlock[][] results, int index) {
 
-        sb.append("cleanall: cleanerror cleanprocess\n");
+        StringBuilder sb = new StringBuilder();
+        sb.append("#\n");
+        sb.append("#    Makefile fragment for id " + id + " generated by pipe-gen\n");
+        sb.append("#\n");
         sb.append("\n");
 
-        sb.append("cleanerror:\n");
-        sb.append("\trm -rf $(ERRORS)* \n");
+        sb.append("id" + id + ": ");
+        for (int j=0; j < sinks.size(); j++) {
+            sb.append(sinks.get(j).getPhoneyname(id) + " ");
+        }
+        sb.append("\n");
         sb.append("\n");
 
-        sb.append("cleanprocess:\n");
-        sb.append("\trm -f $(targetList) $(intermediateList) \n");
+        // Defines makefile variables specific to this ID
+        sb.append("# ID specific makefile variables\n");
+        for (String variable : makeVariables) {
+            sb.append("id" + id + "_" + variable + " = " + table.getDataByHeaderAndRowid("$(" + variable + ")", id) + "\n");
+        }
         sb.append("\n");
 
+        StringBuilder targets = new StringBuilder();
+        StringBuilder intermediates = new StringBuilder();
+        for (int j=0; j < sinks.size(); j++) {
+            RuleBlock block = results[j][index];
+            results[j][index] = null;
+            sb.append(block.getText());
+            targets.append(" " + block.getTarget());
+            intermediates.append(" " + block.getIntermediates());
+        }
+
+        sb.append("# Target and intermediate files of this ID\n");
+        sb.append("targetList +=" + targets + "\n");
+        sb.append("intermediateList +=" + intermediates + "\n");
+
         return sb.toString();
     }
 
+    /**
+     * Writes a makefile fragment unless the file already holds the same text
+     */
+    private static void writeFragment(File fragment, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (fragment.isFile() && fragment.length() == bytes.length 
+                && Arrays.equals(Files.readAllBytes(fragment.toPath()), bytes)) {
+            return;
+        }
+        Files.write(fragment.toPath(), bytes);
+    }
+
+    /**
+     * Deletes the fragments of ids that are not in the id list
+     */
+    private static void removeStaleFragments(File shardDir, String[] idList) {
+        Set<String> names = new HashSet<String>();
+        for (String id : idList) {
+            names.add(id + SHARD_SUFFIX);
+        }
+        File[] files = shardDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(SHARD_SUFFIX) && ! names.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the InvalidMakefileException that caused a failure in a 
+     * fork-join task, or rethrows the failure if it had another cause
+     */
+    private static InvalidMakefileException unwrapMakefileException(RuntimeException e) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof InvalidMakefileException) {
+                return (InvalidMakefileException)cause;
+            }
+        }
+        throw e;
+    }
+
+    /**
+     * Builds the rule block holding the dependency tree of one sink for one id
+     */
+    RuleBlock composeRuleBlock(SinkElement sink, String id) throws InvalidMakefileException {
+
+        if (ruleCache != null) {
+            RuleBlock cached = ruleCache.get(sink, id);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        BlockElementVisitor blockVisitor = new BlockElementVisitor(table);
+        blockVisitor.visit(sink, id, upstreamWalk);
+        String newTarget = sink.getFilename(id, table);
+        String newIntermediates = blockVisitor.getIntermediateList();
+
+        // Replace all user provided makefile variables with an ID specific version 
+        MakeVariableSubstitution substitution = table.getMakeVariableSubstitution();
+        newTarget = substitution.rename(newTarget, "id" + id + "_");
+        newIntermediates = substitution.rename(newIntermediates, "id" + id + "_");
+
+        RuleBlock block = new RuleBlock(blockVisitor.getText(), newTarget, newIntermediates);
+        if (ruleCache != null) {
+            ruleCache.put(sink, id, block);
+        }
+        return block;
+    }
+
+    /**
+     * Writes a rule block to the makefile and adds its files to the target and
+     * intermediate lists
+     */
+    private void writeRuleBlock(Writer out, RuleBlock block) throws IOException {
+        targetList.write(" " + block.getTarget());
+        intermediateList.write(" " + block.getIntermediates());
+        out.write(block.getText());
+    }
+
+    /**
+     * Composes the section of the makefile that handles cleaning files from 
+     * previous analyses.
+     */
+    private void composeCleanupSection(Writer out) throws IOException {
+
+        // Append line comment
+        out.write(lineComment("CLEAN UP"));
+        out.write("\n");
+
+        // Declare cleaning targets
+        out.write(".PHONY: cleanall cleanerror cleanprocess\n");
+        out.write("\n");
+
+        out.write("cleanall: cleanerror cleanprocess\n");
+        out.write("\n");
+
+        out.write("cleanerror:\n");
+        out.write("\trm -rf $(ERRORS)* \n");
+        out.write("\n");
+
+        out.write("cleanprocess:\n");
+        out.write("\trm -f $(targetList) $(intermediateList) \n");
+        out.write("\n");
+    }
+
     /**
      * Composes the section of the makefile that handles targets for printing 
      * the progress of analysis 'target_ratio' and 'intermediate_ratio'.
      */
-    private String composePrintingSection() {
-
-        StringBuilder sb = new StringBuilder();
+    private void composePrintingSection(Writer out) throws IOException {
 
         // Append line comment
-        sb.append(lineComment("PRINTING TARGETS"));
-        sb.append("\n");
+        out.write(lineComment("PRINTING TARGETS"));
+        out.write("\n");
 
         // Declare printing targets
-        sb.append(".PHONY: target_ratio total_ratio\n");
-        sb.append("\n");
-        sb.append("# List target files (output files attached to a sink)\n");
-        sb.append("targetList =" + targetList + "\n");
-        sb.append("\n");
-        sb.append("# List intermediate files\n");
-        sb.append("intermediateList =" + intermediateList + "\n");
-        sb.append("\n");
-        sb.append("# Print ratio (existing target files / total target files)\n");
-        sb.append("target_ratio:\n");
-        sb.append("\t$(eval numeratorTarget = $(shell ls $(targetList) | uniq | wc -l))\n");
-        sb.append("\t$(eval denominatorTarget = $(shell echo $(targetList) | xargs -n1 | sort -u | wc -l))\n");
-        sb.append("\t@echo $(numeratorTarget) / $(denominatorTarget)\n");
-        sb.append("\n");
-        sb.append("# Print ratio (existing intermediate files / total intermediate files)\n");
-        sb.append("intermediate_ratio:\n");
-        sb.append("\t$(eval numeratorIntermediate = $(shell ls $(intermediateList) | uniq | wc -l))\n");
-        sb.append("\t$(eval denominatorIntermediate = $(shell echo $(intermediateList) | xargs -n1 | sort -u | wc -l))\n");
-        sb.append("\t@echo $(numeratorIntermediate) / $(denominatorIntermediate)\n");
+        out.write(".PHONY: target_ratio total_ratio\n");
+        out.write("\n");
+
+        // Each id's fragment appends its own files to the lists
+        if (isShardedLayout()) {
+            out.write("# Target and intermediate files are listed by each ID's fragment\n");
+            out.write("\n");
+        } else {
+            composeFileLists(out);
+        }
+        out.write("# Print ratio (existing target files / total target files)\n");
+        out.write("target_ratio:\n");
+        out.write("\t$(eval numeratorTarget = $(shell ls $(targetList) | uniq | wc -l))\n");
+        out.write("\t$(eval denominatorTarget = $(shell echo $(targetList) | xargs -n1 | sort -u | wc -l))\n");
+        out.write("\t@echo $(numeratorTarget) / $(denominatorTarget)\n");
+        out.write("\n");
+        out.write("# Print ratio (existing intermediate files / total intermediate files)\n");
+        out.write("intermediate_ratio:\n");
+        out.write("\t$(eval numeratorIntermediate = $(shell ls $(intermediateList) | uniq | wc -l))\n");
+        out.write("\t$(eval denominatorIntermediate = $(shell echo $(intermediateList) | xargs -n1 | sort -u | wc -l))\n");
+        out.write("\t@echo $(numeratorIntermediate) / $(denominatorIntermediate)\n");
+    }
 
-        return sb.toString();
+    /**
+     * Composes the definitions of the target and intermediate file lists
+     */
+    private void composeFileLists(Writer out) throws IOException {
+        out.write("# List target files (output files attached to a sink)\n");
+        out.write("targetList =");
+        spliceList(out, targetList, targetSpool);
+        out.write("\n");
+        out.write("\n");
+        out.write("# List intermediate files\n");
+        out.write("intermediateList =");
+        spliceList(out, intermediateList, intermediateSpool);
+        out.write("\n");
+        out.write("\n");
     }
 
     /**
@@ -372,9 +951,39 @@ public class MakefileFactory {
     }
 
     /**
-     * Returns the text contents of the makefile generated by this factory
+     * Returns the text contents of the makefile generated by this factory. A
+     * streamed makefile is not held in memory, so only its beginning is read 
+     * back from disk.
      */
     public String getMakefileText() {
-        return text;
+        if (text != null || ! streaming) {
+            return text;
+        }
+
+        BufferedReader reader = null;
+        try {
+            reader = Files.newBufferedReader(makefile.toPath(), StandardCharsets.UTF_8);
+            char[] buffer = new char[MAX_PREVIEW_CHARS];
+            int length = 0;
+            int read = 0;
+            while (length < buffer.length && (read = reader.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+            }
+            String preview = new String(buffer, 0, length);
+            if (reader.read() != -1) {
+                preview += "\n# ... makefile truncated, see " + makefile.getPath() + "\n";
+            }
+            return preview;
+        } catch (IOException e) {
+            return "ERROR: Could not read path " + makefile.getPath();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
     }
 }
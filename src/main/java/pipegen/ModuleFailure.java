@@ -0,0 +1,41 @@
+/*
+    Program:  ModuleFailure.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class represents the failure of a module's recipe for one
+              id, as recorded in the failure journal of an analysis.
+
+ */
+
+package pipegen;
+
+
+public class ModuleFailure {
+
+    private final String id;
+    private final int moduleID;
+
+    public ModuleFailure(String id, int moduleID) {
+        this.id = id;
+        this.moduleID = moduleID;
+    }
+
+    /**
+     * Returns the id of the row the module failed for
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the ID of the module that failed
+     */
+    public int getModuleID() {
+        return moduleID;
+    }
+
+    public String toString() {
+        return id + " " + moduleID;
+    }
+}
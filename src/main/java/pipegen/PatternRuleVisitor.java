@@ -0,0 +1,239 @@
+/*
+    Program:  PatternRuleVisitor.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class implements the VISITOR PATTERN to traverse a graph of 
+              connected BlockElements.
+
+              Unlike BlockElementVisitor, which writes concrete rules for one 
+              id at a time, this visitor writes a single GNU make pattern rule
+              for each element. The stem of every pattern is the id, so one 
+              rule such as "$(PROCESSING)%/3_0.nii.gz: ..." covers the whole 
+              data table. Files named in the data table are looked up through 
+              id specific variables like "id001_SOURCE2" using secondary 
+              expansion.
+
+              Each element is visited once no matter how many sinks depend on
+              it. The visitor starts from SinkElements and traverses upstream.
+
+ */
+
+package pipegen;
+
+import java.util.*;
+
+import pipegen.exceptions.*;
+import pipegen.instances.*;
+
+
+public class PatternRuleVisitor {
+
+    // Stems used in the prerequisites and recipes of pattern rules
+    private static final String PREREQ_STEM = "%";
+    private static final String RECIPE_STEM = "$*";
+
+    private MakeVariableSubstitution substitution;
+    private StringBuilder sb;
+    private Set<BlockElement> visited;
+    private List<SourceElement> sources;
+    private List<SinkElement> sinks;
+    private List<String> intermediates;
+
+    public PatternRuleVisitor(DataTableFile table) {
+        substitution = table.getMakeVariableSubstitution();
+        sb = new StringBuilder();
+        visited = new HashSet<BlockElement>();
+        sources = new ArrayList<SourceElement>();
+        sinks = new ArrayList<SinkElement>();
+        intermediates = new ArrayList<String>();
+    }
+
+    /**
+     * Visit a BlockElement and generate relevant makefile text. This is a 
+     * slightly awkward way to mimic polymorphism, but it will work for now.
+     */
+    public void visit(BlockElement block) throws InvalidMakefileException {
+        if (block == null || ! visited.add(block)) {
+            return;
+        }
+
+        if (block instanceof ModuleElement) {
+            visit((ModuleElement)block);
+        } else if (block instanceof SourceElement) {
+            visit((SourceElement)block);
+        } else if (block instanceof SinkElement) {
+            visit((SinkElement)block);
+        }
+    }
+
+    /**
+     * Visit a SinkElement and generate relevant makefile text
+     */
+    private void visit(SinkElement sink) throws InvalidMakefileException {
+
+        // Ignore this SinkElement if it is not connected to other elements
+        MountPointOut start = getStart(sink.getInput());
+        if (start == null) {
+            return;
+        }
+        sinks.add(sink);
+
+        // Build rule for the visited sink
+        String phoneyFile = sink.getPhoneyname(PREREQ_STEM);
+        String outFile = "$(id" + RECIPE_STEM + "_" + sink.getVariableName() + ")";
+
+        sb.append("# sink " + sink.getBlockName() + "\n");
+        sb.append(phoneyFile + ": " + getPrerequisite(start) + "\n");
+        sb.append("\tcp " + getFilename(start, RECIPE_STEM) + " " + outFile + "\n");
+        sb.append("\n");
+
+        visit(start.getBlock());
+    }
+
+    /**
+     * Visit a ModuleElement and generate relevant makefile text
+     */
+    private void visit(ModuleElement module) throws InvalidMakefileException {
+
+        MountPointIn[] inputs = module.getInputs();
+
+        // Setup variables
+        String targets = "";
+        for (int i=0; i < module.getOutputsLength(); i++) {
+            targets += " " + module.getFilename(PREREQ_STEM, i);
+            intermediates.add(module.getFilename("$(id)", i));
+        }
+
+        String prereqs = "";
+        String[] inputFilenames = new String[inputs.length];
+        for (int i=0; i < inputs.length; i++) {
+            MountPointOut start = getStart(inputs[i]);
+            if (start != null) {
+                prereqs += " " + getPrerequisite(start);
+                inputFilenames[i] = getFilename(start, RECIPE_STEM);
+            }
+        }
+
+        String recipe = module.getRecipe(inputFilenames, RECIPE_STEM);
+        if (recipe == null) {
+            throw new InvalidMakefileException();
+        }
+        String errorCatch = module.getErrorCatch(RECIPE_STEM);
+
+        // Replace all user provided makefile variables with an ID specific version 
+        recipe = substitution.rename(recipe, "id" + RECIPE_STEM + "_");
+
+        // Build the rule for the visited module. A pattern rule with more than
+        // one target runs its recipe once to produce all of them.
+        sb.append("# module " + module.getName() + "\n");
+        sb.append(targets.substring(1) + ":" + prereqs + "\n");
+        sb.append("\t" + recipe + " " + errorCatch + "\n");
+        sb.append("\n");
+
+        // Visit the parents of this module
+        for (BlockElement parent : module.getParents()) {
+            visit(parent);
+        }
+    }
+
+    /**
+     * Visit a SourceElement and generate relevant makefile text
+     */
+    private void visit(SourceElement source) {
+
+        sources.add(source);
+
+        // Generate rules for sources with argument-type data
+        if (source.isArg()) {
+
+            // Setup variables
+            String target = getFilename(source, RECIPE_STEM);
+            String contents = "\"$(id" + RECIPE_STEM + "_" + source.getVariableName() + ")\"";
+            intermediates.add(getFilename(source, "$(id)"));
+
+            // Build rule for the visited source
+            sb.append("# source " + source.getName() + "\n");
+            sb.append(getFilename(source, PREREQ_STEM) + ":\n");
+            sb.append("\t[ ! -f " + target + " ] && echo " + contents + " > " + target + "; if [ -f " + target + " ] && [ `cat " + target + "` != " + contents + " ]; then echo " + contents + " > " + target + "; fi\n"); 
+            sb.append("\n");
+        }
+    }
+
+    /**
+     * Returns the output mount point connected to an input mount point, or 
+     * null if it is not connected
+     */
+    private static MountPointOut getStart(MountPointIn input) {
+        ConnectionElement connection = input.getConnection();
+        if (connection == null) {
+            return null;
+        }
+        return connection.getStart();
+    }
+
+    /**
+     * Returns the name of the file at an output mount point for the given stem
+     */
+    private static String getFilename(MountPointOut output, String stem) {
+        BlockElement block = output.getBlock();
+        if (block instanceof ModuleElement) {
+            return ((ModuleElement)block).getFilename(stem, output.getIndex());
+        }
+        return getFilename((SourceElement)block, stem);
+    }
+
+    /**
+     * Returns the name of the file passed along by a source for the given stem
+     */
+    private static String getFilename(SourceElement source, String stem) {
+        if (source.isArg()) {
+            return "$(PROCESSING)" + stem + "/" + source.getOutputName(0);
+        }
+        return "$(id" + stem + "_" + source.getVariableName() + ")";
+    }
+
+    /**
+     * Returns the name of the file at an output mount point as a pattern rule
+     * prerequisite. References to id specific variables are escaped so they 
+     * are only expanded once the stem is known.
+     */
+    private static String getPrerequisite(MountPointOut output) {
+        String filename = getFilename(output, PREREQ_STEM);
+        BlockElement block = output.getBlock();
+        if (block instanceof SourceElement && ! ((SourceElement)block).isArg()) {
+            return "$" + filename;
+        }
+        return filename;
+    }
+
+    /**
+     * Returns the pattern rules generated during this visitor's traversal of
+     * the workflow.
+     */
+    public String getText() {
+        return sb.toString();
+    }
+
+    /**
+     * Returns the sources encountered by this visitor
+     */
+    public List<SourceElement> getSources() {
+        return sources;
+    }
+
+    /**
+     * Returns the connected sinks encountered by this visitor
+     */
+    public List<SinkElement> getSinks() {
+        return sinks;
+    }
+
+    /**
+     * Returns the intermediate files created by the makefile, named for the 
+     * id held by the make variable 'id'.
+     */
+    public List<String> getIntermediates() {
+        return intermediates;
+    }
+}
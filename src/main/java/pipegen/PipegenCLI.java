@@ -0,0 +1,339 @@
+/*
+    Program:  PipegenCLI.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class runs pipe-gen from the command line without a display.
+
+              A toolbox, a pipeline and a data table are loaded as the GUI
+              would load them, and the named analysis is then generated, run,
+              checked or cleaned. No GUI classes are loaded and AWT is put in
+              headless mode, so analyses can be scripted on machines without
+              a display, e.g. the head node of a cluster.
+
+    Usage:    java -jar build/libs/pipe-gen.jar <command> [options] <toolboxDir> <pipeline.json> <table.csv> <analysisName>
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.util.*;
+
+import pipegen.exceptions.*;
+import pipegen.instances.*;
+import pipegen.definitions.*;
+
+
+class PipegenCLI {
+
+    private static final String DEFAULT_COMMAND = "make -f Makefile";
+
+    // Exit codes
+    private static final int EXIT_SUCCESS = 0;
+    private static final int EXIT_INVALID = 1;
+    private static final int EXIT_INCOMPLETE = PipelineExecutor.FAILURE_EXIT_CODE;
+
+    private String command;
+    private int jobs;
+    private boolean keepGoing;
+    private boolean useExecutor;
+    private String makeCommand;
+    private MakefileAnalysis.Layout layout;
+
+    private DataTableFile table;
+    private PipelineInstance pipeline;
+    private String analysisName;
+
+    public static void main(String[] argv) {
+        System.exit(new PipegenCLI().execute(argv));
+    }
+
+    /**
+     * Runs a command line and returns the exit code
+     */
+    public int execute(String[] argv) {
+
+        if (System.getProperty("java.awt.headless") == null) {
+            System.setProperty("java.awt.headless", "true");
+        }
+
+        if (! parseArguments(argv)) {
+            printUsage();
+            return EXIT_INVALID;
+        }
+
+        try {
+            load(argv);
+        } catch (InvalidFileFormatDefException | InvalidModuleDefException | InvalidWorkflowDefException
+                | InvalidAboutFileException | InvalidCSVFileException e) {
+            e.printStackTrace();
+            System.err.println("Error: Could not load the toolbox, pipeline or data table. See stack trace.");
+            return EXIT_INVALID;
+        }
+        if (! isDataMatched()) {
+            return EXIT_INVALID;
+        }
+
+        if (command.equals("status")) {
+            return status();
+        }
+
+        MakefileAnalysis analysis;
+        try {
+            analysis = new MakefileAnalysis(analysisName, table, pipeline, layout);
+        } catch (InvalidMakefileException e) {
+            e.printStackTrace();
+            System.err.println("Error: Could not generate the makefile. See stack trace.");
+            return EXIT_INVALID;
+        }
+
+        if (command.equals("generate")) {
+            System.out.println("Generated " + new File(pipeline.getAnalysisPath(analysisName), "Makefile").getPath());
+            return EXIT_SUCCESS;
+        } else if (command.equals("run")) {
+            return run(analysis);
+        } else {
+            int exitCode = analysis.clean();
+            System.out.println("Cleaned " + pipeline.getAnalysisPath(analysisName));
+            return exitCode;
+        }
+    }
+
+    /**
+     * Reads the command and its options, leaving the four operands at the end
+     * of argv. Returns false if the command line is not valid.
+     */
+    private boolean parseArguments(String[] argv) {
+
+        if (argv.length == 0) {
+            return false;
+        }
+        command = argv[0];
+        if (! Arrays.asList("generate", "run", "status", "clean").contains(command)) {
+            System.err.println("Error: Unknown command " + command);
+            return false;
+        }
+
+        jobs = 1;
+        keepGoing = false;
+        useExecutor = false;
+        makeCommand = null;
+        layout = MakefileAnalysis.Layout.RULES;
+
+        int i = 1;
+        try {
+            for (; i < argv.length - 4; i++) {
+                if (argv[i].equals("-j")) {
+                    jobs = Integer.parseInt(argv[++i]);
+                } else if (argv[i].equals("-k")) {
+                    keepGoing = true;
+                } else if (argv[i].equals("-x")) {
+                    useExecutor = true;
+                } else if (argv[i].equals("-c")) {
+                    makeCommand = argv[++i];
+                } else if (argv[i].equals("-l")) {
+                    layout = parseLayout(argv[++i]);
+                    if (layout == null) {
+                        System.err.println("Error: Unknown layout " + argv[i]);
+                        return false;
+                    }
+                } else {
+                    System.err.println("Error: Unknown option " + argv[i]);
+                    return false;
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Error: Option -j takes a number of jobs");
+            return false;
+        }
+
+        if (i != argv.length - 4) {
+            System.err.println("Error: Expected a toolbox, pipeline, data table and analysis name");
+            return false;
+        }
+        if (! command.equals("run") && (jobs != 1 || keepGoing || useExecutor || makeCommand != null)) {
+            System.err.println("Error: Options are only used by the run command");
+            return false;
+        }
+        if (layout != MakefileAnalysis.Layout.RULES && command.equals("clean")) {
+            System.err.println("Error: Option -l is only used by the generate, run and status commands");
+            return false;
+        }
+        if (jobs < 0 || (jobs == 0 && ! useExecutor)) {
+            System.err.println("Error: Option -j takes a positive number of jobs, or 0 with -x");
+            return false;
+        }
+        if (useExecutor && makeCommand != null) {
+            System.err.println("Error: Options -c and -x can not be used together");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the layout with the given option name, e.g. pattern-rules, or
+     * null if there is none
+     */
+    private static MakefileAnalysis.Layout parseLayout(String name) {
+        for (MakefileAnalysis.Layout layout : MakefileAnalysis.Layout.values()) {
+            if (getOptionName(layout).equals(name)) {
+                return layout;
+            }
+        }
+        return null;
+    }
+
+    private static String getOptionName(MakefileAnalysis.Layout layout) {
+        return layout.name().toLowerCase().replace('_', '-');
+    }
+
+    /**
+     * Loads the toolbox, pipeline and data table named by the last operands
+     */
+    private void load(String[] argv) throws InvalidFileFormatDefException, InvalidModuleDefException,
+            InvalidWorkflowDefException, InvalidAboutFileException, InvalidCSVFileException {
+
+        File toolboxDir = new File(argv[argv.length - 4]);
+        File pipelineFile = new File(argv[argv.length - 3]);
+        File tableFile = new File(argv[argv.length - 2]);
+        analysisName = argv[argv.length - 1];
+
+        ToolboxDef toolbox = new ToolboxDef(toolboxDir);
+        toolbox.load();
+
+        pipeline = new PipelineInstance(new PipelineDef(toolbox, pipelineFile));
+        pipeline.load();
+
+        table = new DataTableFile(tableFile.getAbsolutePath());
+        table.loadData();
+    }
+
+    /**
+     * Checks the data table has a column for each source and sink of the
+     * pipeline and no others, as the GUI does before saving an analysis
+     */
+    private boolean isDataMatched() {
+
+        String[] missingData = pipeline.getMissingData(table);
+        String[] unusedFields = pipeline.getUnusedData(table);
+        if (missingData == null && unusedFields == null) {
+            return true;
+        }
+
+        System.err.println("Error: The data table must have a column corresponding to each source and sink");
+        System.err.println("       in the pipeline " + pipeline.getName() + ".");
+        if (missingData != null) {
+            System.err.println("Missing data fields, N = " + missingData.length + " :");
+            for (String field : missingData) {
+                System.err.println("     " + field);
+            }
+        }
+        if (unusedFields != null) {
+            System.err.println("Unused data fields, N = " + unusedFields.length + " :");
+            for (String field : unusedFields) {
+                System.err.println("     " + field);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the analysis and reports its progress and failures
+     */
+    private int run(MakefileAnalysis analysis) {
+
+        if (useExecutor) {
+            analysis.useExecutor(jobs, keepGoing, true);
+        } else if (makeCommand != null) {
+            analysis.setMakeCommand(makeCommand);
+        } else {
+            String options = (jobs != 1 ? " -j " + jobs : "") + (keepGoing ? " -k" : "");
+            analysis.setMakeCommand(DEFAULT_COMMAND.replaceFirst("^make", "make" + options));
+        }
+
+        long startTime = System.currentTimeMillis();
+        int exitCode = analysis.run();
+        long elapsedSecs = (System.currentTimeMillis() - startTime) / 1000;
+
+        analysis.pollFailures();
+        List<ModuleFailure> failures = analysis.getFailures();
+        System.out.println("Exit code:      " + exitCode);
+        System.out.println("Time elapsed:   " + elapsedSecs + " s");
+        printProgress(analysis.getTargetRatio(), analysis.getIntermediateRatio(), failures);
+        System.out.println("Output:         " + analysis.getStdoutFile().getPath());
+        System.out.println("Errors:         " + analysis.getStderrFile().getPath());
+
+        if (exitCode != 0) {
+            return exitCode;
+        }
+        return failures.isEmpty() && analysis.isComplete() ? EXIT_SUCCESS : EXIT_INCOMPLETE;
+    }
+
+    /**
+     * Reports the files produced and the failures of the last run without
+     * generating or running the makefile
+     */
+    private int status() {
+
+        File makefileDir = new File(pipeline.getAnalysisPath(analysisName));
+        if (! new File(makefileDir, "Makefile").isFile()) {
+            System.err.println("Error: The analysis " + analysisName + " has not been generated");
+            return EXIT_INVALID;
+        }
+
+        ProgressTracker progress = new ProgressTracker(makefileDir, pipeline, table, layout);
+        progress.refresh();
+
+        File errors = new File(makefileDir, MakefileExpansion.ERRORS_DIRECTORY);
+        FailureJournal journal = new FailureJournal(new File(errors, FailureJournal.FILE_NAME));
+        List<ModuleFailure> failures = journal.poll();
+
+        printProgress(progress.getTargetRatio(), progress.getIntermediateRatio(), failures);
+        return failures.isEmpty() && progress.isComplete() ? EXIT_SUCCESS : EXIT_INCOMPLETE;
+    }
+
+    private void printProgress(String targetRatio, String intermediateRatio, List<ModuleFailure> failures) {
+
+        Map<Integer, String> moduleNames = new HashMap<Integer, String>();
+        for (ModuleElement module : pipeline.getModules()) {
+            moduleNames.put(module.getID(), module.getName());
+        }
+
+        System.out.println("Target files:   " + targetRatio);
+        System.out.println("Total files:    " + intermediateRatio);
+        System.out.println("Failures:       " + failures.size());
+        for (ModuleFailure failure : failures) {
+            System.out.println("     id " + failure.getId() + " at module " + moduleNames.get(failure.getModuleID()));
+        }
+    }
+
+    private static void printUsage() {
+        System.err.println();
+        System.err.println("Usage:    java -jar pipe-gen.jar <command> [options] <toolboxDir> <pipeline.json> <table.csv> <analysisName>");
+        System.err.println();
+        System.err.println("Commands:");
+        System.err.println("          generate    Writes the analysis makefile");
+        System.err.println("          run         Writes the analysis makefile and runs it");
+        System.err.println("          status      Reports the files produced and the failures of the last run");
+        System.err.println("          clean       Deletes the files produced by the analysis");
+        System.err.println();
+        System.err.println("Options for generate, run and status:");
+        StringBuilder layouts = new StringBuilder();
+        for (MakefileAnalysis.Layout layout : MakefileAnalysis.Layout.values()) {
+            layouts.append(layouts.length() == 0 ? "" : ", ").append(getOptionName(layout));
+        }
+        System.err.println("          -l <layout> Lays out the makefile rules as one of " + layouts + ",");
+        System.err.println("                      rules by default. Give status the layout the analysis");
+        System.err.println("                      was generated with");
+        System.err.println();
+        System.err.println("Options for run:");
+        System.err.println("          -j <jobs>   Runs this many jobs at once, or as many as fit this machine if 0 with -x");
+        System.err.println("          -k          Keeps going after a job fails");
+        System.err.println("          -x          Runs the jobs in process instead of with make");
+        System.err.println("          -c <cmd>    Runs this make command instead of '" + DEFAULT_COMMAND + "'");
+        System.err.println();
+        System.err.println("Without a command the GUI is opened.");
+        System.err.println();
+    }
+}
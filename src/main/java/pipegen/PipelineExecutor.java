@@ -0,0 +1,684 @@
+/*
+    Program:  PipelineExecutor.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class runs an analysis directly from its pipeline, as an
+              alternative to running the generated makefile with make.
+
+              The pipeline is compiled into one job per element and id, with
+              the same targets, prerequisites and commands as the makefile's
+              rules. Jobs are run on a work-stealing pool limited to a number
+              of concurrent commands. A job is started as soon as its last
+              producer finishes and is skipped when its targets are up to date,
+              using make's rule: a target is rebuilt if it is missing or older
+              than any of its prerequisites. Sinks are phony and always copy.
+
+              As with make, a failed command stops new jobs from starting
+              unless the executor keeps going, in which case only the jobs
+              depending on the failure are skipped.
+
+              By default ready jobs start in the order of the makefile. With 
+              critical path scheduling they start longest remaining chain 
+              first, estimated from the runtimes of earlier runs, so long 
+              chains are not left to run alone at the end.
+
+              Jobs are limited either to a fixed number at a time, like make's
+              option -j, or by an ExecutionCapacity, which admits jobs while 
+              the cores and memory their modules declare fit in the machine.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import pipegen.exceptions.*;
+import pipegen.instances.*;
+
+
+public class PipelineExecutor {
+
+    // Exit code reported when a job failed, as make does
+    public static final int FAILURE_EXIT_CODE = 2;
+
+    private File makefileDir;
+    private Path baseDir;
+    private PipelineInstance pipeline;
+    private DataTableFile table;
+    private MakefileExpansion expansion;
+
+    private int concurrency;
+    private boolean keepGoing;
+    private AnalysisLog log;
+    private List<ExecutionListener> listeners;
+    private boolean criticalPathFirst;
+    private RuntimeHistory history;
+    private ExecutionCapacity capacity;
+
+    // State of the current run
+    private List<ExecutionJob> jobs;
+    private ForkJoinPool pool;
+    private PriorityBlockingQueue<ExecutionJob> ready;
+    private NavigableSet<ExecutionJob> admission;
+    private CountDownLatch remaining;
+    private AtomicBoolean stopping;
+    private AtomicBoolean failed;
+    private Set<Process> running;
+
+    public PipelineExecutor(File makefileDir, PipelineInstance pipeline, DataTableFile table) {
+        this.makefileDir = makefileDir;
+        this.baseDir = makefileDir.toPath();
+        this.pipeline = pipeline;
+        this.table = table;
+        this.expansion = new MakefileExpansion(table);
+
+        concurrency = 1;
+        keepGoing = false;
+        listeners = new CopyOnWriteArrayList<ExecutionListener>();
+    }
+
+    /**
+     * Sets the largest number of commands run at the same time, like the
+     * option -j of make
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Sets whether jobs not depending on a failed job are still run, like the
+     * option -k of make
+     */
+    public void setKeepGoing(boolean keepGoing) {
+        this.keepGoing = keepGoing;
+    }
+
+    public boolean isKeepGoing() {
+        return keepGoing;
+    }
+
+    /**
+     * Sets the log receiving the echoed commands and their output line by 
+     * line. Without a log the output goes to this process's streams.
+     */
+    public void setLog(AnalysisLog log) {
+        this.log = log;
+    }
+
+    /**
+     * Sets whether ready jobs start longest remaining chain first rather than
+     * in the order of the makefile
+     */
+    public void setCriticalPathFirst(boolean criticalPathFirst) {
+        this.criticalPathFirst = criticalPathFirst;
+    }
+
+    public boolean isCriticalPathFirst() {
+        return criticalPathFirst;
+    }
+
+    /**
+     * Sets the history that estimates job runtimes and records the runtimes
+     * of this executor's jobs
+     */
+    public void setRuntimeHistory(RuntimeHistory history) {
+        this.history = history;
+    }
+
+    public RuntimeHistory getRuntimeHistory() {
+        return history;
+    }
+
+    /**
+     * Sets the cores and memory jobs are packed against. Without a capacity 
+     * the executor runs a fixed number of jobs at a time.
+     */
+    public void setCapacity(ExecutionCapacity capacity) {
+        this.capacity = capacity;
+    }
+
+    public ExecutionCapacity getCapacity() {
+        return capacity;
+    }
+
+    public void addListener(ExecutionListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ExecutionListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Prepares the directories of a run as the makefile's 'setupall' target
+     * does: clears the error logs and creates a processing directory per id
+     */
+    public void setup() throws IOException {
+
+        Path errors = baseDir.resolve(MakefileExpansion.ERRORS_DIRECTORY).normalize();
+        deleteRecursively(errors);
+        Files.createDirectories(errors);
+
+        Path processing = baseDir.resolve(MakefileExpansion.PROCESSING_DIRECTORY).normalize();
+        for (String id : table.getColumnByHeader("id")) {
+            Files.createDirectories(processing.resolve(id));
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (! Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if (e != null) {
+                    throw e;
+                }
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Runs every job of the analysis and waits for them to finish. Returns 0
+     * if every job succeeded or was up to date, otherwise FAILURE_EXIT_CODE.
+     */
+    public int run() throws InvalidMakefileException, InterruptedException {
+
+        jobs = compileJobs();
+        ready = null;
+        admission = null;
+
+        Comparator<ExecutionJob> ordering = new Comparator<ExecutionJob>() {
+            public int compare(ExecutionJob a, ExecutionJob b) {
+                return Integer.compare(a.getOrder(), b.getOrder());
+            }
+        };
+        if (criticalPathFirst) {
+            estimateCriticalPaths(jobs);
+            ordering = new Comparator<ExecutionJob>() {
+                public int compare(ExecutionJob a, ExecutionJob b) {
+                    if (a.getCriticalPath() != b.getCriticalPath()) {
+                        return a.getCriticalPath() > b.getCriticalPath() ? -1 : 1;
+                    }
+                    return Integer.compare(a.getOrder(), b.getOrder());
+                }
+            };
+        }
+
+        int workers = concurrency;
+        if (capacity != null) {
+            admission = new TreeSet<ExecutionJob>(ordering);
+            workers = capacity.getCores();
+        } else if (criticalPathFirst) {
+            ready = new PriorityBlockingQueue<ExecutionJob>(Math.max(1, jobs.size()), ordering);
+        }
+        remaining = new CountDownLatch(jobs.size());
+        stopping = new AtomicBoolean(false);
+        failed = new AtomicBoolean(false);
+        running = Collections.newSetFromMap(new ConcurrentHashMap<Process, Boolean>());
+
+        pool = new ForkJoinPool(workers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        try {
+            for (ExecutionJob job : jobs) {
+                if (! job.isWaiting()) {
+                    schedule(job);
+                }
+            }
+            remaining.await();
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        } finally {
+            pool.shutdownNow();
+            pool = null;
+        }
+
+        if (failed.get()) {
+            return FAILURE_EXIT_CODE;
+        }
+        return 0;
+    }
+
+    /**
+     * Stops starting new jobs and kills the commands that are running
+     */
+    public void cancel() {
+        if (stopping == null) {
+            return;
+        }
+        stopping.set(true);
+        failed.set(true);
+        for (Process process : running) {
+            process.destroy();
+        }
+    }
+
+    /**
+     * Returns the jobs of the current or last run
+     */
+    public List<ExecutionJob> getJobs() {
+        if (jobs == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(jobs);
+    }
+
+    /**
+     * Compiles the pipeline into jobs for every id, in the order the makefile
+     * lists its rules
+     */
+    private List<ExecutionJob> compileJobs() throws InvalidMakefileException {
+
+        List<ExecutionJob> compiled = new ArrayList<ExecutionJob>();
+        ArrayList<SinkElement> sinks = pipeline.getSinks();
+
+        for (String id : table.getColumnByHeader("id")) {
+            Map<BlockElement, ExecutionJob> elementJobs = new HashMap<BlockElement, ExecutionJob>();
+            for (SinkElement sink : sinks) {
+
+                // Unconnected sinks are left out of the makefile
+                BlockElement parent = sink.getParent(0);
+                if (parent == null) {
+                    continue;
+                }
+
+                String inFile = sink.getInput().getFilename(id, table);
+                String outFile = sink.getFilename(id, table);
+                if (inFile == null || outFile == null) {
+                    throw new InvalidMakefileException();
+                }
+
+                String command = expansion.expand("cp " + inFile + " " + outFile, id);
+                ExecutionJob job = new ExecutionJob(id, "sink " + sink.getBlockName(), command, true, new Path[] { toPath(outFile, id) });
+                job.addPrerequisite(toPath(inFile, id), compileElement(parent, id, elementJobs, compiled));
+                compiled.add(job);
+            }
+        }
+
+        for (int i=0; i < compiled.size(); i++) {
+            compiled.get(i).setOrder(i);
+        }
+        return compiled;
+    }
+
+    /**
+     * Estimates the critical path of every job: its own runtime plus the 
+     * longest critical path of its dependents. Jobs are compiled producers
+     * first, so walking them backwards visits dependents first. Without a 
+     * history every job counts the same, so the longest chains go first.
+     */
+    private void estimateCriticalPaths(List<ExecutionJob> compiled) {
+
+        for (int i=compiled.size() - 1; i >= 0; i--) {
+            ExecutionJob job = compiled.get(i);
+            long longest = 0;
+            for (ExecutionJob dependent : job.getDependents()) {
+                longest = Math.max(longest, dependent.getCriticalPath());
+            }
+            long estimate = history != null ? history.getEstimate(job.getName()) : 1;
+            job.setCriticalPath(estimate + longest);
+        }
+    }
+
+    /**
+     * Returns the job producing the files of an upstream element for an id,
+     * compiling it and its own producers first. Returns null for sources whose
+     * files are expected to exist already.
+     */
+    private ExecutionJob compileElement(BlockElement element, String id, Map<BlockElement, ExecutionJob> elementJobs, List<ExecutionJob> compiled) throws InvalidMakefileException {
+
+        if (elementJobs.containsKey(element)) {
+            return elementJobs.get(element);
+        }
+
+        ExecutionJob job = null;
+        if (element instanceof ModuleElement) {
+            job = compileModule((ModuleElement) element, id, elementJobs, compiled);
+        } else if (element instanceof SourceElement) {
+            job = compileSource((SourceElement) element, id);
+        }
+
+        elementJobs.put(element, job);
+        if (job != null) {
+            compiled.add(job);
+        }
+        return job;
+    }
+
+    /**
+     * Compiles the rules of a module. A module with more than one output also
+     * links each of its inputs into its processing directory first.
+     */
+    private ExecutionJob compileModule(ModuleElement module, String id, Map<BlockElement, ExecutionJob> elementJobs, List<ExecutionJob> compiled) throws InvalidMakefileException {
+
+        String recipe = module.getRecipe(id, table);
+        if (recipe == null) {
+            throw new InvalidMakefileException();
+        }
+        String command = expansion.expand(recipe + " " + module.getErrorCatch(id), id);
+
+        Path[] targets = new Path[module.getOutputsLength()];
+        for (int i=0; i < targets.length; i++) {
+            targets[i] = toPath(module.getFilename(id, i), id);
+        }
+
+        ExecutionJob job = new ExecutionJob(id, "module " + module.getName(), command, false, targets);
+        job.setResources(module.getDefinition().getCores(), module.getDefinition().getMemoryMB());
+        BlockElement[] parents = module.getParents();
+
+        if (module.getOutputsLength() == 1) {
+            for (BlockElement parent : parents) {
+                if (parent != null) {
+                    ExecutionJob producer = compileElement(parent, id, elementJobs, compiled);
+                    job.addPrerequisite(toPath(parent.getFilename(id, table), id), producer);
+                }
+            }
+        } else {
+            for (int i=0; i < parents.length; i++) {
+                if (parents[i] == null) {
+                    continue;
+                }
+                ExecutionJob producer = compileElement(parents[i], id, elementJobs, compiled);
+
+                String link = module.getFilenameInput(id, i);
+                String prereq = parents[i].getFilename(id, table);
+                String linked = prereq.replaceFirst("\\$\\(PROCESSING\\)", "\\.\\./\\.\\./\\$\\(PROCESSING\\)");
+                String linkCommand = expansion.expand("ln -sf " + linked + " " + link, id);
+
+                Path linkPath = toPath(link, id);
+                ExecutionJob linkJob = new ExecutionJob(id, "module " + module.getName() + " input " + i, linkCommand, false, new Path[] { linkPath });
+                linkJob.addPrerequisite(toPath(prereq, id), producer);
+                compiled.add(linkJob);
+
+                job.addPrerequisite(linkPath, linkJob);
+            }
+        }
+
+        return job;
+    }
+
+    /**
+     * Compiles the rule writing the value of an argument source into its file
+     */
+    private ExecutionJob compileSource(SourceElement source, String id) {
+
+        if (! source.isArg()) {
+            return null;
+        }
+
+        String target = source.getFilename(id, table);
+        String contents = "\"" + source.getContents(id, table) + "\"";
+        String command = "[ ! -f " + target + " ] && echo " + contents + " > " + target + "; if [ -f " + target + " ] && [ `cat " + target + "` != " + contents + " ]; then echo " + contents + " > " + target + "; fi";
+
+        return new ExecutionJob(id, "source " + source.getName(), expansion.expand(command, id), false, new Path[] { toPath(target, id) });
+    }
+
+    private Path toPath(String filename, String id) {
+        return baseDir.resolve(expansion.expandFilename(filename, id)).normalize();
+    }
+
+    /**
+     * Hands a job whose producers have finished to the pool. Jobs scheduled
+     * from a worker go onto that worker's own queue, where idle workers can
+     * steal them. With critical path scheduling the job joins the ready queue
+     * instead, and the task runs whichever ready job is most critical when
+     * a worker gets to it.
+     */
+    private void schedule(final ExecutionJob job) {
+        if (admission != null) {
+            synchronized (admission) {
+                admission.add(job);
+            }
+            admit();
+            return;
+        }
+
+        ForkJoinTask<?> task;
+        if (ready != null) {
+            ready.add(job);
+            task = ForkJoinTask.adapt(new Runnable() {
+                public void run() {
+                    execute(ready.poll());
+                }
+            });
+        } else {
+            task = ForkJoinTask.adapt(new Runnable() {
+                public void run() {
+                    execute(job);
+                }
+            });
+        }
+        submit(task);
+    }
+
+    /**
+     * Starts the waiting jobs whose resources fit in the free capacity, most
+     * urgent first. A job that does not fit lets smaller jobs behind it start.
+     */
+    private void admit() {
+        synchronized (admission) {
+            Iterator<ExecutionJob> iterator = admission.iterator();
+            while (iterator.hasNext() && ! capacity.isFull()) {
+                final ExecutionJob job = iterator.next();
+                if (! capacity.tryAcquire(job)) {
+                    continue;
+                }
+                iterator.remove();
+                submit(ForkJoinTask.adapt(new Runnable() {
+                    public void run() {
+                        execute(job);
+                    }
+                }));
+            }
+        }
+    }
+
+    private void submit(ForkJoinTask<?> task) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            task.fork();
+        } else {
+            pool.execute(task);
+        }
+    }
+
+    /**
+     * Runs a job if it is out of date and then releases its dependents
+     */
+    private void execute(ExecutionJob job) {
+
+        try {
+            if (job.isBlocked() || stopping.get()) {
+                job.setStatus(ExecutionJob.Status.SKIPPED);
+            } else if (! checkPrerequisites(job)) {
+                fail(job, FAILURE_EXIT_CODE);
+            } else if (! isOutOfDate(job)) {
+                job.setStatus(ExecutionJob.Status.UP_TO_DATE);
+            } else {
+                job.setStatus(ExecutionJob.Status.RUNNING);
+                fireStarted(job);
+                long start = System.currentTimeMillis();
+                int exitCode = runCommand(job);
+                if (history != null && exitCode == 0) {
+                    history.record(job.getName(), System.currentTimeMillis() - start);
+                }
+                job.setExitCode(exitCode);
+                if (exitCode == 0) {
+                    job.setStatus(ExecutionJob.Status.DONE);
+                } else {
+                    println("pipegen: *** [" + job + "] Error " + exitCode, true);
+                    fail(job, exitCode);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            fail(job, FAILURE_EXIT_CODE);
+        } catch (InterruptedException e) {
+            fail(job, FAILURE_EXIT_CODE);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            fail(job, FAILURE_EXIT_CODE);
+        }
+
+        fireFinished(job);
+        release(job);
+
+        // Let waiting jobs use the resources this job held
+        if (admission != null) {
+            capacity.release(job);
+            admit();
+        }
+    }
+
+    /**
+     * Marks a job as failed and stops the run unless it keeps going
+     */
+    private void fail(ExecutionJob job, int exitCode) {
+        job.setExitCode(exitCode);
+        job.setStatus(ExecutionJob.Status.FAILED);
+        failed.set(true);
+        if (! keepGoing) {
+            stopping.set(true);
+        }
+    }
+
+    /**
+     * Counts a job as finished and schedules each dependent that has no
+     * producers left. Dependents of a job that did not succeed are blocked.
+     */
+    private void release(ExecutionJob job) {
+
+        ExecutionJob.Status status = job.getStatus();
+        boolean succeeded = status == ExecutionJob.Status.DONE || status == ExecutionJob.Status.UP_TO_DATE;
+
+        for (ExecutionJob dependent : job.getDependents()) {
+            if (! succeeded) {
+                dependent.block();
+            }
+            if (dependent.producerFinished()) {
+                schedule(dependent);
+            }
+        }
+        remaining.countDown();
+    }
+
+    /**
+     * Returns false if a prerequisite without a producer does not exist, as
+     * make has no rule to make it
+     */
+    private boolean checkPrerequisites(ExecutionJob job) {
+        List<Path> prerequisites = job.getPrerequisites();
+        List<ExecutionJob> producers = job.getProducers();
+        for (int i=0; i < prerequisites.size(); i++) {
+            if (producers.get(i) == null && ! Files.exists(prerequisites.get(i))) {
+                println("pipegen: *** No rule to make target '" + prerequisites.get(i) + "', needed by '" + job + "'.", true);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if a job must run: it is phony, a target is missing, or a
+     * prerequisite is missing or newer than the oldest target
+     */
+    private boolean isOutOfDate(ExecutionJob job) throws IOException {
+
+        if (job.isPhony()) {
+            return true;
+        }
+
+        long oldestTarget = Long.MAX_VALUE;
+        for (Path target : job.getTargets()) {
+            if (! Files.exists(target)) {
+                return true;
+            }
+            oldestTarget = Math.min(oldestTarget, Files.getLastModifiedTime(target).toMillis());
+        }
+
+        for (Path prerequisite : job.getPrerequisites()) {
+            if (! Files.exists(prerequisite)) {
+                return true;
+            }
+            if (Files.getLastModifiedTime(prerequisite).toMillis() > oldestTarget) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Echoes a job's command and runs it with the shell in the analysis
+     * directory, returning its exit code
+     */
+    private int runCommand(ExecutionJob job) throws IOException, InterruptedException {
+
+        println(job.getCommand(), false);
+
+        ProcessBuilder pb = new ProcessBuilder("/bin/sh", "-c", job.getCommand());
+        pb.directory(makefileDir);
+        if (log == null) {
+            pb.inheritIO();
+        }
+
+        Process p = pb.start();
+        running.add(p);
+        try {
+            if (log == null) {
+                return p.waitFor();
+            }
+
+            // Copy the output into the log until the command closes it
+            p.getOutputStream().close();
+            Thread outPump = log.pump(p.getInputStream(), false);
+            Thread errPump = log.pump(p.getErrorStream(), true);
+            int exitCode = p.waitFor();
+            outPump.join();
+            errPump.join();
+            return exitCode;
+        } finally {
+            running.remove(p);
+        }
+    }
+
+    /**
+     * Writes a line to the log, or to this process's streams without one
+     */
+    private void println(String text, boolean error) {
+        if (log != null) {
+            log.println(text, error);
+        } else if (error) {
+            System.err.println(text);
+        } else {
+            System.out.println(text);
+        }
+    }
+
+    private void fireStarted(ExecutionJob job) {
+        for (ExecutionListener listener : listeners) {
+            listener.jobStarted(job);
+        }
+    }
+
+    private void fireFinished(ExecutionJob job) {
+        for (ExecutionListener listener : listeners) {
+            listener.jobFinished(job);
+        }
+    }
+}
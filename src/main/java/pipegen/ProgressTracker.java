@@ -0,0 +1,218 @@
+/*
+    Program:  ProgressTracker.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class tracks the progress of a makefile analysis without
+              running make.
+
+              The target and intermediate files of every id are listed once
+              from the pipeline when the makefile is generated, the same files
+              the makefile's 'target_ratio' and 'intermediate_ratio' targets
+              count. A sweep checks only the files not yet found, so each file
+              is looked up until it first exists and the ratios are read from
+              counters without touching the file system.
+
+              The files depend on the layout of the makefile: pattern rules
+              build each module's outputs directly from its inputs, without
+              the links to the inputs of modules with several outputs.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.nio.file.*;
+
+import pipegen.instances.*;
+
+
+public class ProgressTracker {
+
+    private final FileSet targets;
+    private final FileSet intermediates;
+
+    private ScheduledExecutorService sweeper;
+
+    public ProgressTracker(File makefileDir, PipelineInstance pipeline, DataTableFile table, MakefileAnalysis.Layout layout) {
+
+        Path baseDir = makefileDir.toPath();
+        Set<Path> targetPaths = new LinkedHashSet<Path>();
+        Set<Path> intermediatePaths = new LinkedHashSet<Path>();
+        MakefileExpansion expansion = new MakefileExpansion(table);
+        boolean inputLinks = layout != MakefileAnalysis.Layout.PATTERN_RULES;
+
+        ArrayList<SinkElement> sinks = pipeline.getSinks();
+        UpstreamWalk walk = new UpstreamWalk(sinks);
+        for (String id : table.getColumnByHeader("id")) {
+            for (SinkElement sink : sinks) {
+                addPath(targetPaths, baseDir, expansion, id, sink.getFilename(id, table));
+
+                // Unconnected sinks have a target but build nothing
+                if (sink.getParent(0) == null) {
+                    continue;
+                }
+                for (BlockElement block : walk.getBlocks(sink)) {
+                    addIntermediates(intermediatePaths, baseDir, table, expansion, id, block, inputLinks);
+                }
+            }
+        }
+
+        targets = new FileSet(targetPaths);
+        intermediates = new FileSet(intermediatePaths);
+    }
+
+    /**
+     * Adds the files an upstream element builds for an id, matching the
+     * intermediate list written by BlockElementVisitor, or by
+     * PatternRuleVisitor when there are no input links
+     */
+    private static void addIntermediates(Set<Path> paths, Path baseDir, DataTableFile table, MakefileExpansion expansion, String id,
+            BlockElement block, boolean inputLinks) {
+
+        if (block instanceof ModuleElement) {
+            ModuleElement module = (ModuleElement) block;
+            for (int i=0; i < module.getOutputsLength(); i++) {
+                addPath(paths, baseDir, expansion, id, module.getFilename(id, i));
+            }
+
+            // Modules with more than one output link each of their inputs
+            if (inputLinks && module.getOutputsLength() != 1) {
+                for (int i=0; i < module.getParents().length; i++) {
+                    addPath(paths, baseDir, expansion, id, module.getFilenameInput(id, i));
+                }
+            }
+        } else if (block instanceof SourceElement) {
+            SourceElement source = (SourceElement) block;
+            if (source.isArg()) {
+                addPath(paths, baseDir, expansion, id, source.getFilename(id, table));
+            }
+        }
+    }
+
+    /**
+     * Resolves a file named in the makefile to a path and adds it to a set
+     */
+    private static void addPath(Set<Path> paths, Path baseDir, MakefileExpansion expansion, String id, String filename) {
+
+        if (filename == null || filename.isEmpty()) {
+            return;
+        }
+
+        String resolved = expansion.expandFilename(filename, id);
+        try {
+            paths.add(baseDir.resolve(resolved).normalize());
+        } catch (InvalidPathException e) {
+            System.err.println("Warning: Could not track the progress of file " + resolved);
+        }
+    }
+
+    /**
+     * Checks the files not yet found and counts those that now exist
+     */
+    public synchronized void refresh() {
+        targets.sweep();
+        intermediates.sweep();
+    }
+
+    /**
+     * Forgets every file found so far, e.g. after the files are cleaned. The
+     * next sweep checks every file again.
+     */
+    public synchronized void reset() {
+        targets.reset();
+        intermediates.reset();
+    }
+
+    /**
+     * Starts sweeping for new files in the background every period
+     */
+    public synchronized void start(long periodMillis) {
+        stop();
+        sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ProgressTracker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                refresh();
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sweeping in the background
+     */
+    public synchronized void stop() {
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+            sweeper = null;
+        }
+    }
+
+    /**
+     * Returns the ratio of existing to total target files, e.g. "3 / 10"
+     */
+    public String getTargetRatio() {
+        return targets.getRatio();
+    }
+
+    /**
+     * Returns the ratio of existing to total intermediate files
+     */
+    public String getIntermediateRatio() {
+        return intermediates.getRatio();
+    }
+
+    /**
+     * Returns true if every target and intermediate file has been found
+     */
+    public boolean isComplete() {
+        return targets.isComplete() && intermediates.isComplete();
+    }
+
+    /**
+     * A set of files split into those found and those still pending. Pending
+     * files are kept at the end of the array so a sweep only visits them.
+     */
+    private static class FileSet {
+
+        private final Path[] paths;
+        private volatile int found;
+
+        FileSet(Collection<Path> paths) {
+            this.paths = paths.toArray(new Path[paths.size()]);
+            this.found = 0;
+        }
+
+        void sweep() {
+            int count = found;
+            for (int i=count; i < paths.length; i++) {
+                if (Files.exists(paths[i], LinkOption.NOFOLLOW_LINKS)) {
+                    Path path = paths[i];
+                    paths[i] = paths[count];
+                    paths[count] = path;
+                    count++;
+                }
+            }
+            found = count;
+        }
+
+        void reset() {
+            found = 0;
+        }
+
+        String getRatio() {
+            return found + " / " + paths.length;
+        }
+
+        boolean isComplete() {
+            return found == paths.length;
+        }
+    }
+}
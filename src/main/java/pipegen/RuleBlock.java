@@ -0,0 +1,51 @@
+/*
+    Program:  RuleBlock.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class holds the makefile text generated for a single sink 
+              and id, along with the target and intermediate files it names.
+
+              Rule blocks are produced by MakefileFactory, either one at a time
+              or in parallel by RuleBlockTask, and then written to the makefile
+              in sink and id order.
+
+ */
+
+package pipegen;
+
+
+public class RuleBlock {
+
+    private final String text;
+    private final String target;
+    private final String intermediates;
+
+    public RuleBlock(String text, String target, String intermediates) {
+        this.text = text;
+        this.target = target;
+        this.intermediates = intermediates;
+    }
+
+    /**
+     * Returns the makefile rules for this block
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the target file produced by this block
+     */
+    public String getTarget() {
+        return target;
+    }
+
+    /**
+     * Returns a space delimited list of intermediate files produced by this 
+     * block
+     */
+    public String getIntermediates() {
+        return intermediates;
+    }
+}
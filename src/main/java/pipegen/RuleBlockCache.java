@@ -0,0 +1,279 @@
+/*
+    Program:  RuleBlockCache.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class caches the rule blocks of a makefile between saves of
+              an analysis so that only the blocks of changed ids are rebuilt.
+
+              Each block is stored with a fingerprint of its id. The fingerprint
+              is a digest of the id's row in the data table together with the
+              pipeline graph and the command of every module, so any edit that
+              could change the block's text also changes the fingerprint.
+
+              The cache is kept in a file next to the analysis makefile. Only
+              blocks used by the most recent makefile are written back, so ids
+              removed from the table drop out of the cache. The file records
+              MakefileFactory.GENERATOR_VERSION, and the whole cache is
+              discarded when the code writing the rules has changed since.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+
+import pipegen.definitions.*;
+import pipegen.instances.*;
+
+
+public class RuleBlockCache {
+
+    private static final int MAGIC = 0x50474342;
+    private static final int VERSION = 2;
+    private static final String DIGEST = "SHA-256";
+
+    private File file;
+    private DataTableFile table;
+    private String[] headers;
+    private byte[] pipelineFingerprint;
+
+    // Blocks read from the cache file
+    private Map<String, RuleBlock> loadedBlocks;
+    private Map<String, byte[]> loadedFingerprints;
+
+    // Blocks used by the makefile being composed
+    private Map<String, RuleBlock> blocks;
+    private Map<String, byte[]> fingerprints;
+    private Map<String, byte[]> idFingerprints;
+
+    public RuleBlockCache(File file, PipelineInstance pipeline, DataTableFile table) {
+        this.file = file;
+        this.table = table;
+        this.headers = table.getHeaders();
+        this.pipelineFingerprint = digest(describePipeline(pipeline));
+
+        loadedBlocks = new HashMap<String, RuleBlock>();
+        loadedFingerprints = new HashMap<String, byte[]>();
+        blocks = new ConcurrentHashMap<String, RuleBlock>();
+        fingerprints = new ConcurrentHashMap<String, byte[]>();
+        idFingerprints = new ConcurrentHashMap<String, byte[]>();
+    }
+
+    /**
+     * Reads the cache file if there is one. A missing or unreadable file
+     * leaves the cache empty so every block is rebuilt.
+     */
+    public void load() {
+
+        loadedBlocks.clear();
+        loadedFingerprints.clear();
+        if (! file.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readInt() != MakefileFactory.GENERATOR_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i=0; i < count; i++) {
+                String key = readString(in);
+                byte[] fingerprint = new byte[in.readInt()];
+                in.readFully(fingerprint);
+                String text = readString(in);
+                String target = readString(in);
+                String intermediates = readString(in);
+                loadedBlocks.put(key, new RuleBlock(text, target, intermediates));
+                loadedFingerprints.put(key, fingerprint);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            loadedBlocks.clear();
+            loadedFingerprints.clear();
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the blocks used by the last composed makefile to the cache file
+     */
+    public void save() throws IOException {
+
+        File dir = file.getParentFile();
+        if (dir != null && ! dir.isDirectory()) {
+            dir.mkdirs();
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(MakefileFactory.GENERATOR_VERSION);
+            out.writeInt(blocks.size());
+            for (Map.Entry<String, RuleBlock> entry : blocks.entrySet()) {
+                RuleBlock block = entry.getValue();
+                byte[] fingerprint = fingerprints.get(entry.getKey());
+                writeString(out, entry.getKey());
+                out.writeInt(fingerprint.length);
+                out.write(fingerprint);
+                writeString(out, block.getText());
+                writeString(out, block.getTarget());
+                writeString(out, block.getIntermediates());
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Returns the cached rule block of a sink for an id, or null if there is
+     * none or the id's fingerprint has changed
+     */
+    public RuleBlock get(SinkElement sink, String id) {
+
+        String key = getKey(sink, id);
+        RuleBlock block = loadedBlocks.get(key);
+        if (block == null) {
+            return null;
+        }
+
+        byte[] fingerprint = getFingerprint(id);
+        if (! Arrays.equals(fingerprint, loadedFingerprints.get(key))) {
+            return null;
+        }
+
+        blocks.put(key, block);
+        fingerprints.put(key, fingerprint);
+        return block;
+    }
+
+    /**
+     * Stores the rule block built for a sink and id
+     */
+    public void put(SinkElement sink, String id, RuleBlock block) {
+        String key = getKey(sink, id);
+        fingerprints.put(key, getFingerprint(id));
+        blocks.put(key, block);
+    }
+
+    private static String getKey(SinkElement sink, String id) {
+        return sink.getID() + "/" + id;
+    }
+
+    /**
+     * Returns the fingerprint of an id, combining its table row with the
+     * fingerprint of the pipeline
+     */
+    private byte[] getFingerprint(String id) {
+
+        byte[] fingerprint = idFingerprints.get(id);
+        if (fingerprint != null) {
+            return fingerprint;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(id);
+        for (String header : headers) {
+            sb.append('\0').append(header).append('\0').append(table.getDataByHeaderAndRowid(header, id));
+        }
+
+        MessageDigest md = newDigest();
+        md.update(pipelineFingerprint);
+        md.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        fingerprint = md.digest();
+        idFingerprints.put(id, fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * Describes everything in a pipeline that affects the makefile text. Block
+     * positions are left out so rearranging the pipeline keeps the cache.
+     */
+    private static String describePipeline(PipelineInstance pipeline) {
+
+        StringBuilder sb = new StringBuilder();
+
+        for (SourceElement source : pipeline.getSources()) {
+            sb.append("source ").append(source.getID());
+            sb.append(' ').append(source.getTableField());
+            sb.append(' ').append(source.isArg());
+            sb.append(' ').append(source.getOutputName(0)).append('\n');
+        }
+
+        for (SinkElement sink : pipeline.getSinks()) {
+            sb.append("sink ").append(sink.getID());
+            sb.append(' ').append(sink.getTableField()).append('\n');
+        }
+
+        for (ModuleElement module : pipeline.getModules()) {
+            ModuleDef definition = module.getDefinition();
+            sb.append("module ").append(module.getID());
+            sb.append(' ').append(module.getName());
+            sb.append(' ').append(definition.getEnclosedCommand()).append('\n');
+            for (MountPointIn input : module.getInputs()) {
+                sb.append(" in ").append(input.getName());
+                sb.append(' ').append(input.getFormatSuffix());
+                sb.append(' ').append(input.isRequired());
+                sb.append(' ').append(input.isArg()).append('\n');
+            }
+            for (int i=0; i < module.getOutputsLength(); i++) {
+                sb.append(" out ").append(module.getOutputName(i)).append('\n');
+            }
+        }
+
+        for (ConnectionElement connection : pipeline.getConnections()) {
+            MountPointOut start = connection.getStart();
+            MountPointIn stop = connection.getStop();
+            sb.append("connection ");
+            sb.append(start == null ? null : start.getJSONText());
+            sb.append(' ');
+            sb.append(stop == null ? null : stop.getJSONText());
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    private static byte[] digest(String text) {
+        return newDigest().digest(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+    Program:  RuleBlockTask.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class is a fork-join task that builds the rule blocks of one
+              sink for a range of ids.
+
+              The range is split in half until it is small enough to build 
+              directly. Each block is stored at its id's position in a shared
+              results array so the blocks can be written in id order no matter
+              which thread built them.
+
+ */
+
+package pipegen;
+
+import java.util.concurrent.*;
+
+import pipegen.exceptions.*;
+import pipegen.instances.*;
+
+
+class RuleBlockTask extends RecursiveAction {
+
+    // Number of ids below which a task builds its blocks directly
+    private static final int THRESHOLD = 16;
+
+    private final MakefileFactory factory;
+    private final SinkElement sink;
+    private final String[] idList;
+    private final RuleBlock[] results;
+    private final int offset;
+    private final int start;
+    private final int end;
+
+    /**
+     * Builds the blocks for idList[start] through idList[end-1] and stores 
+     * them in results starting at results[start-offset]
+     */
+    RuleBlockTask(MakefileFactory factory, SinkElement sink, String[] idList, RuleBlock[] results, int offset, int start, int end) {
+        this.factory = factory;
+        this.sink = sink;
+        this.idList = idList;
+        this.results = results;
+        this.offset = offset;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+
+        if (end - start <= THRESHOLD) {
+            try {
+                for (int i=start; i < end; i++) {
+                    results[i-offset] = factory.composeRuleBlock(sink, idList[i]);
+                }
+            } catch (InvalidMakefileException e) {
+                completeExceptionally(e);
+            }
+            return;
+        }
+
+        int middle = (start + end) >>> 1;
+        invokeAll(new RuleBlockTask(factory, sink, idList, results, offset, start, middle),
+                  new RuleBlockTask(factory, sink, idList, results, offset, middle, end));
+    }
+}
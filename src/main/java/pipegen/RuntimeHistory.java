@@ -0,0 +1,160 @@
+/*
+    Program:  RuntimeHistory.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class keeps the average runtime of each kind of job run by
+              a PipelineExecutor, e.g. "module flirt", between runs of an
+              analysis. The averages estimate how long the jobs of the next
+              run will take so the longest chains can be started first.
+
+              The history is kept in a file next to the analysis makefile.
+
+ */
+
+package pipegen;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.nio.file.*;
+
+
+public class RuntimeHistory {
+
+    private static final int MAGIC = 0x50475248;
+    private static final int VERSION = 1;
+
+    // Estimate used for a job with no history when nothing else is known
+    private static final long DEFAULT_ESTIMATE_MILLIS = 1000;
+
+    // Older runs count for at most this many samples, so the averages follow
+    // changes to a module's command
+    private static final int MAX_SAMPLES = 20;
+
+    private File file;
+    private Map<String, Entry> entries;
+
+    public RuntimeHistory(File file) {
+        this.file = file;
+        this.entries = new ConcurrentHashMap<String, Entry>();
+    }
+
+    /**
+     * Reads the history file if there is one. A missing or unreadable file
+     * leaves the history empty.
+     */
+    public void load() {
+
+        entries.clear();
+        if (! file.isFile()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i=0; i < count; i++) {
+                String name = in.readUTF();
+                double average = in.readDouble();
+                int samples = in.readInt();
+                entries.put(name, new Entry(average, samples));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            entries.clear();
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes the history to its file
+     */
+    public void save() throws IOException {
+
+        File dir = file.getParentFile();
+        if (dir != null && ! dir.isDirectory()) {
+            dir.mkdirs();
+        }
+
+        Map<String, Entry> snapshot = new TreeMap<String, Entry>(entries);
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeDouble(entry.getValue().average);
+                out.writeInt(entry.getValue().samples);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Adds the runtime of one job to the average of its kind
+     */
+    public synchronized void record(String name, long millis) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entries.put(name, new Entry(millis, 1));
+        } else {
+            entries.put(name, entry.add(millis));
+        }
+    }
+
+    /**
+     * Returns the estimated runtime of a kind of job. Jobs never run before
+     * are estimated at the average of all known kinds.
+     */
+    public long getEstimate(String name) {
+
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            return Math.round(entry.average);
+        }
+
+        if (entries.isEmpty()) {
+            return DEFAULT_ESTIMATE_MILLIS;
+        }
+        double total = 0;
+        for (Entry known : entries.values()) {
+            total += known.average;
+        }
+        return Math.round(total / entries.size());
+    }
+
+    /**
+     * The running average of one kind of job
+     */
+    private static class Entry {
+
+        final double average;
+        final int samples;
+
+        Entry(double average, int samples) {
+            this.average = average;
+            this.samples = samples;
+        }
+
+        Entry add(long millis) {
+            int weight = Math.min(samples, MAX_SAMPLES - 1);
+            return new Entry((average * weight + millis) / (weight + 1), weight + 1);
+        }
+    }
+}
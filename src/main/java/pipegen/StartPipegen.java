@@ -10,6 +10,10 @@
               makefiles based on this confluence of process and data.
 
     Usage:    java -jar build/libs/pipe-gen.jar 
+              java -jar build/libs/pipe-gen.jar <command> [options] ...
+
+              Without arguments the GUI is opened. With a command the 
+              analysis is driven from the command line by PipegenCLI.
 
  */
 
@@ -30,8 +34,12 @@ class StartPipegen {
 
     public static void main(String[] argv) {
         if (argv.length != 0) {
-            printUsage();
-            System.exit(1);
+            if (argv[0].startsWith("-")) {
+                printUsage();
+                System.exit(1);
+            }
+            PipegenCLI.main(argv);
+            return;
         }
 
         new PipegenGUI(TOOLBOX_DIR);
@@ -46,6 +54,10 @@ class StartPipegen {
         System.err.println("          makefiles based on this confluence of process and data.");
         System.err.println();
         System.err.println("Usage:    java -cp '<classPath>' StartPipegen");
+        System.err.println("          java -cp '<classPath>' StartPipegen <command> [options] <toolboxDir> <pipeline.json> <table.csv> <analysisName>");
+        System.err.println();
+        System.err.println("          Commands are generate, run, status and clean. Run a command");
+        System.err.println("          without operands for its options.");
         System.err.println();
      }
 }
@@ -0,0 +1,75 @@
+/*
+    Program:  UpstreamWalk.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class walks a graph of connected BlockElements upstream from
+              a list of SinkElements once, and records which elements each 
+              sink is responsible for writing rules for.
+
+              Elements shared by several sinks are assigned to the first sink
+              in the list that reaches them, so every module and source has its
+              rules written exactly once per id. The walk depends only on the 
+              pipeline, so a single walk is reused for every id in the table.
+
+ */
+
+package pipegen;
+
+import java.util.*;
+
+import pipegen.instances.*;
+
+
+public class UpstreamWalk {
+
+    private Map<SinkElement, List<BlockElement>> blocksBySink;
+
+    public UpstreamWalk(List<SinkElement> sinks) {
+
+        blocksBySink = new HashMap<SinkElement, List<BlockElement>>();
+        Set<BlockElement> visited = new HashSet<BlockElement>();
+
+        for (SinkElement sink : sinks) {
+            List<BlockElement> blocks = new ArrayList<BlockElement>();
+            BlockElement parent = sink.getParent(0);
+            if (parent != null) {
+                walk(parent, visited, blocks);
+            }
+            blocksBySink.put(sink, Collections.unmodifiableList(blocks));
+        }
+    }
+
+    /**
+     * Adds a block and then its unvisited parents to the list of blocks in the
+     * order their rules are written
+     */
+    private static void walk(BlockElement block, Set<BlockElement> visited, List<BlockElement> blocks) {
+
+        if (! visited.add(block)) {
+            return;
+        }
+        blocks.add(block);
+
+        if (block instanceof ModuleElement) {
+            for (BlockElement parent : ((ModuleElement)block).getParents()) {
+                if (parent != null) {
+                    walk(parent, visited, blocks);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the modules and sources whose rules are written along with a 
+     * sink, in the order they are written. Sinks not part of the walk have 
+     * none.
+     */
+    public List<BlockElement> getBlocks(SinkElement sink) {
+        List<BlockElement> blocks = blocksBySink.get(sink);
+        if (blocks == null) {
+            return Collections.emptyList();
+        }
+        return blocks;
+    }
+}
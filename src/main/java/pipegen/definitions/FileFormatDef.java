@@ -8,7 +8,8 @@
               accessor methods.
 
               File formats as handled by pipelines have a name and are 
-              color-coded when rendered.
+              color-coded when rendered. The color is kept as an RGB value 
+              until it is first drawn so loading a toolbox does not need AWT.
 
               Intermediate processing files produced during analysis will have 
               a file suffix given in this definition. The additional complexity 
@@ -35,22 +36,35 @@ import pipegen.exceptions.*;
 public class FileFormatDef implements Comparable<FileFormatDef> {
     
     private static final String ARG_NAME = "arg";
-    private static final Color ARG_COLOR = new Color(80, 80, 80);
-    private static final FileFormatDef ARG_DEF = new FileFormatDef(ARG_NAME, ARG_COLOR, "", "");
+    private static final int ARG_RGB = rgb(80, 80, 80);
+    private static final FileFormatDef ARG_DEF = new FileFormatDef(ARG_NAME, ARG_RGB, "", "");
 
     private String name;
+    private int rgb;
     private Color color;
     private String suffix;
     private String parentName;
     private FileFormatDef parent;
 
     public FileFormatDef(String name, Color color, String suffix, String parentName) {
-        this.name = name;
+        this(name, color.getRGB() & 0xFFFFFF, suffix, parentName);
         this.color = color;
+    }
+
+    public FileFormatDef(String name, int rgb, String suffix, String parentName) {
+        this.name = name;
+        this.rgb = rgb;
         this.suffix = suffix;
         this.parentName = parentName;
     }
 
+    /**
+     * Packs the components of a color into an RGB value
+     */
+    private static int rgb(int red, int green, int blue) {
+        return (red << 16) | (green << 8) | blue;
+    }
+
     /**
      * Load a file format definition from disk
      */
@@ -72,7 +86,10 @@ public class FileFormatDef implements Comparable<FileFormatDef> {
             int red   = colorArray.getInt(0);
             int green = colorArray.getInt(1);
             int blue  = colorArray.getInt(2);
-            Color color = new Color(red, green, blue);
+            if ((red | green | blue) < 0 || Math.max(red, Math.max(green, blue)) > 255) {
+                throw new InvalidFileFormatDefException();
+            }
+            int rgb = rgb(red, green, blue);
     
             // Get file format suffix
             String suffix = jsonFormat.getString("suffix");
@@ -86,7 +103,7 @@ public class FileFormatDef implements Comparable<FileFormatDef> {
             }
 
             // Return the newly loaded file format
-            return new FileFormatDef(name, color, suffix, parent);
+            return new FileFormatDef(name, rgb, suffix, parent);
 
         } catch (JSONException e) {
             e.printStackTrace();
@@ -118,15 +135,7 @@ public class FileFormatDef implements Comparable<FileFormatDef> {
                 out.add(load(formatObject));
             }
 
-            // Add a definition for argument-type data
-            out.add(ARG_DEF);
-
-            // Insure that formats only extend other defined formats 
-            for (FileFormatDef def : out) {
-                def.setParent(out);
-            }
-
-            return out.toArray(new FileFormatDef[out.size()]);
+            return link(out);
 
         } catch (JSONException e) {
             e.printStackTrace();
@@ -137,6 +146,39 @@ public class FileFormatDef implements Comparable<FileFormatDef> {
         }
     }
 
+    /**
+     * Adds the definition for argument-type data to the formats read from a
+     * toolbox and links each format to its parent
+     */
+    static FileFormatDef[] link(List<FileFormatDef> out) throws InvalidFileFormatDefException {
+
+        // Add a definition for argument-type data
+        out.add(ARG_DEF);
+
+        // Insure that formats only extend other defined formats 
+        FileFormatDef[] formats = out.toArray(new FileFormatDef[out.size()]);
+        Map<String, FileFormatDef> formatsByName = index(formats);
+        for (FileFormatDef def : formats) {
+            def.setParent(formatsByName);
+        }
+
+        return formats;
+    }
+
+    /**
+     * Returns the formats by name. Where two formats share a name the first
+     * is kept.
+     */
+    public static Map<String, FileFormatDef> index(FileFormatDef[] formats) {
+        Map<String, FileFormatDef> out = new HashMap<String, FileFormatDef>(2 * formats.length);
+        for (FileFormatDef format : formats) {
+            if (! out.containsKey(format.getName())) {
+                out.put(format.getName(), format);
+            }
+        }
+        return out;
+    }
+
     /**
      * Saves this file format definition to disk
      */
@@ -148,18 +190,15 @@ public class FileFormatDef implements Comparable<FileFormatDef> {
      * Sets a parent file format (immediate super-class) for this format. Throws
      * an exception if the requested parent format is not known.
      */
-    private void setParent(List<FileFormatDef> defs) throws InvalidFileFormatDefException {
+    private void setParent(Map<String, FileFormatDef> defs) throws InvalidFileFormatDefException {
         if (this.parentName.equals("")) {
             return;
         }
 
-        for (FileFormatDef def : defs) {
-            if (def.getName().equals(this.parentName)) {
-                this.parent = def;
-                return;
-            }
+        this.parent = defs.get(this.parentName);
+        if (this.parent == null) {
+            throw new InvalidFileFormatDefException();
         }
-        throw new InvalidFileFormatDefException();
     }
 
     /**
@@ -205,9 +244,26 @@ public class FileFormatDef implements Comparable<FileFormatDef> {
      * Returns the color in which data in this format is rendered in the GUI
      */
     public Color getColor() {
+        if (color == null) {
+            color = new Color(rgb);
+        }
         return color;
     }
 
+    /**
+     * Returns the color of this format as an RGB value, e.g. 0xFF0000 for red
+     */
+    public int getRGB() {
+        return rgb;
+    }
+
+    /**
+     * Returns the name of the parent format, or "" if there is none
+     */
+    public String getParentName() {
+        return parentName;
+    }
+
     /**
      * Returns the file format suffix attached to files of this format
      */
@@ -226,7 +282,7 @@ public class FileFormatDef implements Comparable<FileFormatDef> {
      * Returns a text description of the current state of this file format definition
      */
     public String toString() {
-        return name + " (" + color.getRed() + ", " + color.getGreen() + ", " + color.getBlue() + ")";
+        return name + " (" + ((rgb >> 16) & 0xFF) + ", " + ((rgb >> 8) & 0xFF) + ", " + (rgb & 0xFF) + ")";
     }
 
     /**
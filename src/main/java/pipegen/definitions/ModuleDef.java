@@ -9,32 +9,52 @@
 
               Modules are a consituent element of pipelines. See PipelineDef.
 
+              A module may declare the resources one run of its command needs,
+              "cores" and "memoryMB", so runs can be packed against the 
+              capacity of the machine. Undeclared modules take one core and no
+              set amount of memory.
+
  */
 
 package pipegen.definitions;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import org.json.*;
 
 import pipegen.exceptions.*;
 
 
 public class ModuleDef implements Comparable<ModuleDef> {
+
+    // Resources of modules that do not declare their own
+    public static final int DEFAULT_CORES = 1;
+    public static final int DEFAULT_MEMORY_MB = 0;
     
     private String name;
     private ParameterDef[] inputs;
     private ParameterDef[] outputs;
     private String enclosedCommand;
+    private RecipeTemplate recipeTemplate;
+    private int cores;
+    private int memoryMB;
 
     public ModuleDef(String name, ParameterDef[] inputs, ParameterDef[] outputs, String enclosedCommand) {
+        this(name, inputs, outputs, enclosedCommand, DEFAULT_CORES, DEFAULT_MEMORY_MB);
+    }
+
+    public ModuleDef(String name, ParameterDef[] inputs, ParameterDef[] outputs, String enclosedCommand, int cores, int memoryMB) {
         this.name = name;
         this.inputs = inputs;
         this.outputs = outputs;
         this.enclosedCommand = enclosedCommand;
+        this.recipeTemplate = new RecipeTemplate(enclosedCommand, inputs, outputs);
+        this.cores = cores;
+        this.memoryMB = memoryMB;
     }
 
-    private static ModuleDef factory(String jsonString, FileFormatDef[] formats) throws InvalidModuleDefException {
+    private static ModuleDef factory(String jsonString, Map<String, FileFormatDef> formats) throws InvalidModuleDefException {
 
         try {
 
@@ -45,8 +65,13 @@ public class ModuleDef implements Comparable<ModuleDef> {
             ParameterDef[] inputs = ParameterDef.load(inputArray, formats);
             JSONArray outputArray = rootObject.getJSONArray("outputs");
             ParameterDef[] outputs = ParameterDef.load(outputArray, formats);
+            int cores = rootObject.optInt("cores", DEFAULT_CORES);
+            int memoryMB = rootObject.optInt("memoryMB", DEFAULT_MEMORY_MB);
+            if (cores < 1 || memoryMB < 0) {
+                throw new InvalidModuleDefException();
+            }
 
-            ModuleDef out = new ModuleDef(name, inputs, outputs, enclosedCommand);
+            ModuleDef out = new ModuleDef(name, inputs, outputs, enclosedCommand, cores, memoryMB);
             return out;
         } catch (JSONException e) {
             e.printStackTrace();
@@ -58,38 +83,117 @@ public class ModuleDef implements Comparable<ModuleDef> {
     }
 
     /**
-     * This static method loads an array of modules from disk
+     * This static method loads an array of modules from disk. The module 
+     * files are read and parsed in parallel, and the modules are returned in
+     * the order the files are listed.
      */
     public static ModuleDef[] load(File moduleDir, FileFormatDef[] formats) throws InvalidModuleDefException {
+        return load(listModuleFiles(moduleDir), formats);
+    }
 
-        File[] moduleFiles = moduleDir.listFiles();
-        List<ModuleDef> moduleList = new ArrayList<ModuleDef>();
+    /**
+     * Loads the modules in the given files, in parallel, returning them in 
+     * the same order as the files
+     */
+    static ModuleDef[] load(File[] moduleFiles, FileFormatDef[] formatDefs) throws InvalidModuleDefException {
 
-        for (int i=0; i < moduleFiles.length; i++) {
+        if (moduleFiles.length == 0) {
+            return new ModuleDef[0];
+        }
+        final Map<String, FileFormatDef> formats = FileFormatDef.index(formatDefs);
 
-            // Ignore any backup copies ending with ~
-            if (moduleFiles[i].getName().endsWith("~")) {
-                continue;
+        int threads = Math.min(moduleFiles.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ModuleDef>> futures = new ArrayList<Future<ModuleDef>>(moduleFiles.length);
+            for (final File moduleFile : moduleFiles) {
+                futures.add(pool.submit(new Callable<ModuleDef>() {
+                    public ModuleDef call() throws InvalidModuleDefException {
+                        return loadFile(moduleFile, formats);
+                    }
+                }));
             }
 
-            // Read current module into ModuleDef and add to List
-            try {
-                String jsonString = ToolboxDef.readTextfile(moduleFiles[i]);
-                if (jsonString == null) {
-                    throw new InvalidModuleDefException();
-                }
-
-                ModuleDef currModule = ModuleDef.factory(jsonString, formats);
+            List<ModuleDef> moduleList = new ArrayList<ModuleDef>();
+            for (Future<ModuleDef> future : futures) {
+                ModuleDef currModule = future.get();
                 if (currModule != null) {
                     moduleList.add(currModule);
                 }
+            }
+            return moduleList.toArray(new ModuleDef[moduleList.size()]);
 
-            } catch (InvalidAboutFileException e) {
-                throw new InvalidModuleDefException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InvalidModuleDefException) {
+                throw (InvalidModuleDefException) e.getCause();
             }
+            e.printStackTrace();
+            throw new InvalidModuleDefException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InvalidModuleDefException(e);
+        } finally {
+            pool.shutdownNow();
         }
+    }
+
+    /**
+     * Reads one module file into a ModuleDef
+     */
+    static ModuleDef loadFile(File moduleFile, Map<String, FileFormatDef> formats) throws InvalidModuleDefException {
+
+        try {
+            String jsonString = ToolboxDef.readTextfile(moduleFile);
+            if (jsonString == null) {
+                throw new InvalidModuleDefException();
+            }
+            return ModuleDef.factory(jsonString, formats);
 
-        return moduleList.toArray(new ModuleDef[moduleList.size()]);
+        } catch (InvalidAboutFileException e) {
+            throw new InvalidModuleDefException(e);
+        }
+    }
+
+    /**
+     * Returns the module files in a directory
+     */
+    static File[] listModuleFiles(File moduleDir) throws InvalidModuleDefException {
+
+        File[] files = moduleDir.listFiles();
+        if (files == null) {
+            throw new InvalidModuleDefException();
+        }
+
+        List<File> moduleFiles = new ArrayList<File>();
+        for (File file : files) {
+            if (isModuleFile(file)) {
+                moduleFiles.add(file);
+            }
+        }
+        return moduleFiles.toArray(new File[moduleFiles.size()]);
+    }
+
+    /**
+     * Returns false for files in the modules directory that are not modules:
+     * backup copies ending with ~ and hidden files such as editor swap files
+     */
+    static boolean isModuleFile(File file) {
+        String name = file.getName();
+        return ! name.endsWith("~") && ! name.startsWith(".");
+    }
+
+    /**
+     * Returns the modules by name. Where two modules share a name the first 
+     * is kept.
+     */
+    public static Map<String, ModuleDef> index(ModuleDef[] modules) {
+        Map<String, ModuleDef> out = new HashMap<String, ModuleDef>(2 * modules.length);
+        for (ModuleDef module : modules) {
+            if (! out.containsKey(module.getName())) {
+                out.put(module.getName(), module);
+            }
+        }
+        return out;
     }
 
     /**
@@ -127,6 +231,29 @@ public class ModuleDef implements Comparable<ModuleDef> {
         return enclosedCommand;
     }
 
+    /**
+     * Returns the number of cores one run of this module's command uses
+     */
+    public int getCores() {
+        return cores;
+    }
+
+    /**
+     * Returns the megabytes of memory one run of this module's command uses,
+     * or zero if the module does not say
+     */
+    public int getMemoryMB() {
+        return memoryMB;
+    }
+
+    /**
+     * Returns the command this module calls parsed into a template with a 
+     * slot for each input and output
+     */
+    public RecipeTemplate getRecipeTemplate() {
+        return recipeTemplate;
+    }
+
     /**
      * Returns a text description of the current state of this module
      */
@@ -16,9 +16,11 @@
 package pipegen.definitions;
 
 import java.io.*;
+import java.util.*;
 import java.awt.*;
 import org.json.*;
 
+import pipegen.*;
 import pipegen.exceptions.*;
 
 
@@ -35,26 +37,57 @@ public class ParameterDef {
     }
 
     /**
-     * Loads this of parameter from file (JSONObject)
+     * Loads this of parameter from file (JSONObject). The format is looked up
+     * by name in formats.
      */
-    public static ParameterDef load(JSONObject parameterObject, FileFormatDef[] formats) throws InvalidParameterDefException {
+    public static ParameterDef load(JSONObject parameterObject, Map<String, FileFormatDef> formats) throws InvalidParameterDefException {
 
         try {
             String name = parameterObject.getString("name");
             String format = parameterObject.getString("format");
             boolean required = parameterObject.getBoolean("required");
 
-            int j = 0;
-            while (j < formats.length) {
-                if (formats[j].getName().equals(format)) {
-                    break;
+            return new ParameterDef(name, findFormat(format, formats), required);
+
+        } catch (JSONException e) {
+            e.printStackTrace();
+            throw new InvalidParameterDefException(e);
+        }
+    }
+
+    /**
+     * Loads a parameter from the next object of a pipeline file as it is
+     * read. The format is looked up by name in formats.
+     */
+    public static ParameterDef load(JsonReader reader, Map<String, FileFormatDef> formats) throws InvalidParameterDefException {
+
+        try {
+            String name = null;
+            String format = null;
+            Boolean required = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (key.equals("name")) {
+                    name = reader.nextString();
+                } else if (key.equals("format")) {
+                    format = reader.nextString();
+                } else if (key.equals("required")) {
+                    required = reader.nextBoolean();
+                } else {
+                    reader.skipValue();
                 }
-                j++;
             }
+            reader.endObject();
 
-            return new ParameterDef(name, formats[j], required);
+            if (name == null || format == null || required == null) {
+                System.err.println("Error: Parameter needs a name, format and required");
+                throw new InvalidParameterDefException();
+            }
+            return new ParameterDef(name, findFormat(format, formats), required);
 
-        } catch (Exception e) {
+        } catch (IOException e) {
             e.printStackTrace();
             throw new InvalidParameterDefException(e);
         }
@@ -63,27 +96,14 @@ public class ParameterDef {
     /**
      * This static method loads an array of parameters from file (JSONArray)
      */
-    public static ParameterDef[] load(JSONArray array, FileFormatDef[] formats) throws InvalidParameterDefException {
+    public static ParameterDef[] load(JSONArray array, Map<String, FileFormatDef> formats) throws InvalidParameterDefException {
 
         int len = array.length();
         ParameterDef[] out = new ParameterDef[len];
 
         for (int i=0; i < len; i++) {
             try {
-                JSONObject currParameter = array.getJSONObject(i);
-                String currName = currParameter.getString("name");
-                String currFormat = currParameter.getString("format");
-                boolean currRequired = currParameter.getBoolean("required");
-
-                int j = 0;
-                while (j < formats.length) {
-                    if (formats[j].getName().equals(currFormat)) {
-                        break;
-                    }
-                    j++;
-                }
-
-                out[i] = new ParameterDef(currName, formats[j], currRequired);
+                out[i] = load(array.getJSONObject(i), formats);
             } catch (JSONException e) {
                 e.printStackTrace();
                 throw new InvalidParameterDefException(e);
@@ -93,6 +113,19 @@ public class ParameterDef {
         return out;
     }
 
+    /**
+     * Returns the format of a name, throwing an exception if the toolbox does
+     * not define it
+     */
+    private static FileFormatDef findFormat(String format, Map<String, FileFormatDef> formats) throws InvalidParameterDefException {
+        FileFormatDef def = formats.get(format);
+        if (def == null) {
+            System.err.println("Error: Unknown file format " + format);
+            throw new InvalidParameterDefException();
+        }
+        return def;
+    }
+
     /**
      * Saves this parameter to disk
      */
@@ -0,0 +1,112 @@
+/*
+    Program:  RecipeTemplate.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class holds a module's enclosed command parsed into a
+              template of literal text and parameter slots.
+
+              The command names each input and output parameter in braces,
+              e.g. "fslmaths {input} -bin {output}". The first occurrence of
+              each placeholder becomes a slot, so a recipe is rendered by
+              appending literals and parameter values in turn rather than by
+              searching the command for every placeholder of every id.
+
+ */
+
+package pipegen.definitions;
+
+
+public class RecipeTemplate {
+
+    private String[] literals;
+    private boolean[] slotIsOutput;
+    private int[] slotIndex;
+    private int literalLength;
+
+    public RecipeTemplate(String command, ParameterDef[] inputs, ParameterDef[] outputs) {
+
+        // Start with the whole command as a single literal
+        literals = new String[] { command };
+        slotIsOutput = new boolean[0];
+        slotIndex = new int[0];
+
+        // Placeholders are claimed in the order inputs then outputs, each
+        // taking the first occurrence still in a literal
+        for (int i=0; i < inputs.length; i++) {
+            addSlot("{" + inputs[i].getName() + "}", false, i);
+        }
+        for (int i=0; i < outputs.length; i++) {
+            addSlot("{" + outputs[i].getName() + "}", true, i);
+        }
+
+        literalLength = 0;
+        for (String literal : literals) {
+            literalLength += literal.length();
+        }
+    }
+
+    /**
+     * Splits the first literal containing the placeholder around a new slot
+     */
+    private void addSlot(String placeholder, boolean isOutput, int index) {
+
+        for (int i=0; i < literals.length; i++) {
+            int start = literals[i].indexOf(placeholder);
+            if (start < 0) {
+                continue;
+            }
+
+            String[] newLiterals = new String[literals.length + 1];
+            boolean[] newIsOutput = new boolean[slotIsOutput.length + 1];
+            int[] newIndex = new int[slotIndex.length + 1];
+
+            // Slot i sits between literals i and i+1
+            System.arraycopy(literals, 0, newLiterals, 0, i);
+            newLiterals[i] = literals[i].substring(0, start);
+            newLiterals[i + 1] = literals[i].substring(start + placeholder.length());
+            System.arraycopy(literals, i + 1, newLiterals, i + 2, literals.length - i - 1);
+
+            System.arraycopy(slotIsOutput, 0, newIsOutput, 0, i);
+            System.arraycopy(slotIndex, 0, newIndex, 0, i);
+            newIsOutput[i] = isOutput;
+            newIndex[i] = index;
+            System.arraycopy(slotIsOutput, i, newIsOutput, i + 1, slotIsOutput.length - i);
+            System.arraycopy(slotIndex, i, newIndex, i + 1, slotIndex.length - i);
+
+            literals = newLiterals;
+            slotIsOutput = newIsOutput;
+            slotIndex = newIndex;
+            return;
+        }
+    }
+
+    /**
+     * Appends the recipe to a StringBuilder, filling each slot with the value
+     * of its input or output. A null value fills its slot with nothing.
+     */
+    public void render(StringBuilder sb, String[] inputValues, String[] outputValues) {
+
+        sb.append(literals[0]);
+        for (int i=0; i < slotIndex.length; i++) {
+            String value;
+            if (slotIsOutput[i]) {
+                value = outputValues[slotIndex[i]];
+            } else {
+                value = inputValues[slotIndex[i]];
+            }
+            if (value != null) {
+                sb.append(value);
+            }
+            sb.append(literals[i + 1]);
+        }
+    }
+
+    /**
+     * Returns the length of the template's literal text, a lower bound on the
+     * length of a rendered recipe
+     */
+    public int getLiteralLength() {
+        return literalLength;
+    }
+}
@@ -6,11 +6,22 @@
     Purpose:  This class represents a toolbox definition. It provides mechanisms
               to load/save toolboxes to disk and some accessor methods.
 
+              The parsed definitions are kept in a ToolboxSnapshot, so opening
+              a toolbox whose files have not changed skips parsing the JSON.
+
+              While watched, the toolbox follows edits to its files. An edited
+              module file is parsed on its own and the new ModuleDef replaces
+              the old one, while an edit to the file formats loads the whole
+              toolbox again since every module refers to them. Listeners are
+              told of each change so open pipelines can be updated.
+
  */
 
 package pipegen.definitions;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
@@ -23,18 +34,28 @@ import pipegen.exceptions.*;
 public class ToolboxDef {
 
     private static final String formatFileName = "config/formats.json";
-    private static final String modulesDirName = "modules/";
+    static final String MODULES_DIR_NAME = "modules/";
+    private static final String PIPELINES_DIR_NAME = "pipelines/";
     //private static final String workflowsDirName = "workflows/";
     private static final String aboutFileName = "config/ABOUT.txt";
 
     private File dir;
     private String name;
-    private FileFormatDef[] formats;
-    private ModuleDef[] modules;
+    private volatile FileFormatDef[] formats;
+    private volatile ModuleDef[] modules;
+
+    // Formats and modules by name, rebuilt whenever they change
+    private volatile Map<String, FileFormatDef> formatsByName = Collections.emptyMap();
+    private volatile Map<String, ModuleDef> modulesByName = Collections.emptyMap();
     //private PipelineDef[] workflows;
-    
 
-    private String about = "";
+    // Modules by the file each was loaded from, in the order of modules
+    private Map<File, ModuleDef> modulesByFile = new LinkedHashMap<File, ModuleDef>();
+
+    private ToolboxWatcher watcher;
+    private List<ToolboxListener> listeners = new CopyOnWriteArrayList<ToolboxListener>();
+
+    private volatile String about = "";
     
     public ToolboxDef(File dir) {
         this.dir = dir;
@@ -44,23 +65,241 @@ public class ToolboxDef {
     /**
      * Loads this toolbox from disk
      */
-    public void load() throws InvalidFileFormatDefException, InvalidModuleDefException, InvalidWorkflowDefException, InvalidAboutFileException {
+    public synchronized void load() throws InvalidFileFormatDefException, InvalidModuleDefException, InvalidWorkflowDefException, InvalidAboutFileException {
+
+        // Use the snapshot if none of the toolbox's files have changed since
+        // it was written. The files are stamped before they are read so an
+        // edit made while loading is picked up next time.
+        ToolboxSnapshot snapshot = newSnapshot();
+        if (snapshot.load()) {
+            setDefinitions(snapshot.getFormats(), snapshot.getModuleFiles(), snapshot.getModules(), snapshot.getAbout());
+            return;
+        }
 
         // Load all file format definitions
-        File formatFile = new File(dir.getAbsolutePath() + "/" + formatFileName);
-        formats = FileFormatDef.load(formatFile);
+        FileFormatDef[] newFormats = FileFormatDef.load(getFile(formatFileName));
 
         // Load all modules
-        File modulesDir = new File(dir.getAbsolutePath() + "/" + modulesDirName);
-        modules = ModuleDef.load(modulesDir, formats);
+        File[] moduleFiles = snapshot.getModuleFiles();
+        if (moduleFiles == null) {
+            moduleFiles = ModuleDef.listModuleFiles(getFile(MODULES_DIR_NAME));
+        }
+        ModuleDef[] newModules = ModuleDef.load(moduleFiles, newFormats);
 
         // Load all workflows
         //File workflowsDir = new File(dir.getAbsolutePath() + "/" + workflowsDirName);
         //workflows = PipelineDef.load(this, workflowsDir);
 
         // Load ABOUT.txt
-        File aboutFile = new File(dir.getAbsolutePath() + "/" + aboutFileName);
-        about = readTextfile(aboutFile);
+        String newAbout = readTextfile(getFile(aboutFileName));
+
+        // Only replace the definitions once all of them have loaded
+        setDefinitions(newFormats, moduleFiles, newModules, newAbout);
+        saveSnapshot(snapshot);
+    }
+
+    private void setDefinitions(FileFormatDef[] newFormats, File[] moduleFiles, ModuleDef[] newModules, String newAbout) {
+        modulesByFile.clear();
+        for (int i=0; i < moduleFiles.length; i++) {
+            modulesByFile.put(moduleFiles[i], newModules[i]);
+        }
+        formats = newFormats;
+        formatsByName = Collections.unmodifiableMap(FileFormatDef.index(newFormats));
+        setModules(newModules);
+        about = newAbout;
+    }
+
+    private void setModules(ModuleDef[] newModules) {
+        modules = newModules;
+        modulesByName = Collections.unmodifiableMap(ModuleDef.index(newModules));
+    }
+
+    /**
+     * Returns a file of this toolbox by its name within the toolbox
+     */
+    private File getFile(String fileName) {
+        return new File(dir.getAbsoluteFile(), fileName);
+    }
+
+    private ToolboxSnapshot newSnapshot() {
+        return new ToolboxSnapshot(dir.getAbsoluteFile(), new String[] { formatFileName, aboutFileName });
+    }
+
+    /**
+     * Writes the definitions just parsed to the snapshot. A toolbox that can
+     * not be written to, e.g. one shared read-only, is left without one.
+     */
+    private void saveSnapshot(ToolboxSnapshot snapshot) {
+
+        File snapshotDir = snapshot.getFile().getParentFile();
+        if (! snapshotDir.canWrite()) {
+            return;
+        }
+        try {
+            snapshot.save(formats, modulesByFile, about);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Warning: Could not save the toolbox snapshot.");
+        }
+    }
+
+    /**
+     * Starts following edits to the files of this toolbox
+     */
+    public synchronized void startWatching() throws IOException {
+
+        if (watcher != null) {
+            return;
+        }
+        File[] watchedDirs = new File[] {
+            getFile(MODULES_DIR_NAME), getFile(formatFileName).getParentFile(), getFile(PIPELINES_DIR_NAME) };
+        watcher = new ToolboxWatcher(this, watchedDirs);
+        watcher.start();
+    }
+
+    /**
+     * Stops following edits to the files of this toolbox
+     */
+    public synchronized void stopWatching() {
+
+        if (watcher == null) {
+            return;
+        }
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        watcher = null;
+    }
+
+    public void addToolboxListener(ToolboxListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeToolboxListener(ToolboxListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Updates the definitions from files the watcher found changed and tells
+     * the listeners
+     */
+    void filesChanged(Collection<File> files) {
+
+        File modulesDir = getFile(MODULES_DIR_NAME);
+        File configDir = getFile(formatFileName).getParentFile();
+        File pipelinesDir = getFile(PIPELINES_DIR_NAME);
+
+        boolean reloadAll = false;
+        boolean reloadAbout = false;
+        List<File> moduleFiles = new ArrayList<File>();
+        List<File> pipelineFiles = new ArrayList<File>();
+
+        for (File file : files) {
+            File parent = file.getParentFile();
+            if (file.equals(modulesDir) || file.equals(configDir) || file.equals(getFile(formatFileName))) {
+                // Events were lost or the formats every module uses changed
+                reloadAll = true;
+            } else if (file.equals(getFile(aboutFileName))) {
+                reloadAbout = true;
+            } else if (modulesDir.equals(parent) && ModuleDef.isModuleFile(file)) {
+                moduleFiles.add(file);
+            } else if (pipelinesDir.equals(parent) || file.equals(pipelinesDir)) {
+                pipelineFiles.add(file);
+            }
+        }
+
+        if (reloadAll) {
+            if (reloadAll()) {
+                for (ToolboxListener listener : listeners) {
+                    listener.toolboxReloaded();
+                }
+            }
+        } else {
+            if (reloadAbout) {
+                reloadAbout();
+            }
+            if (! moduleFiles.isEmpty()) {
+                reloadModules(moduleFiles);
+            }
+        }
+
+        for (File file : pipelineFiles) {
+            for (ToolboxListener listener : listeners) {
+                listener.pipelineChanged(file);
+            }
+        }
+    }
+
+    /**
+     * Loads every definition again. Returns false and keeps the definitions
+     * from before if the toolbox is no longer valid.
+     */
+    private boolean reloadAll() {
+        try {
+            load();
+            return true;
+        } catch (InvalidFileFormatDefException | InvalidModuleDefException | InvalidWorkflowDefException | InvalidAboutFileException e) {
+            e.printStackTrace();
+            System.err.println("Warning: Keeping the previous definitions of toolbox " + name + ", which could not be loaded.");
+            return false;
+        }
+    }
+
+    private synchronized void reloadAbout() {
+        ToolboxSnapshot snapshot = newSnapshot();
+        try {
+            about = readTextfile(getFile(aboutFileName));
+            saveSnapshot(snapshot);
+        } catch (InvalidAboutFileException e) {
+            System.err.println("Warning: Could not read " + getFile(aboutFileName));
+        }
+    }
+
+    /**
+     * Parses the given module files again, replacing the module each was
+     * loaded from, and tells the listeners of each module replaced, added or
+     * removed
+     */
+    private void reloadModules(List<File> files) {
+
+        List<ModuleDef[]> changes = new ArrayList<ModuleDef[]>();
+        synchronized (this) {
+            ToolboxSnapshot snapshot = newSnapshot();
+            boolean complete = true;
+
+            for (File file : files) {
+                ModuleDef oldModule = modulesByFile.get(file);
+                ModuleDef newModule = null;
+                if (file.isFile()) {
+                    try {
+                        newModule = ModuleDef.loadFile(file, formatsByName);
+                    } catch (InvalidModuleDefException | RuntimeException e) {
+                        System.err.println("Warning: Keeping the previous definition of module file " + file + ", which could not be loaded.");
+                        complete = false;
+                        continue;
+                    }
+                    modulesByFile.put(file, newModule);
+                } else if (oldModule != null) {
+                    modulesByFile.remove(file);
+                } else {
+                    continue;
+                }
+                changes.add(new ModuleDef[] { oldModule, newModule });
+            }
+
+            setModules(modulesByFile.values().toArray(new ModuleDef[modulesByFile.size()]));
+            if (complete) {
+                saveSnapshot(snapshot);
+            }
+        }
+
+        for (ModuleDef[] change : changes) {
+            for (ToolboxListener listener : listeners) {
+                listener.moduleChanged(change[0], change[1]);
+            }
+        }
     }
 
     /**
@@ -91,6 +330,20 @@ public class ToolboxDef {
         return formats;
     }
 
+    /**
+     * Returns the file formats of this toolbox by name
+     */
+    public Map<String, FileFormatDef> getFormatIndex() {
+        return formatsByName;
+    }
+
+    /**
+     * Returns the modules of this toolbox by name
+     */
+    public Map<String, ModuleDef> getModuleIndex() {
+        return modulesByName;
+    }
+
     /**
      * Returns an array of workflows/pipelines stored in this toolbox
      */
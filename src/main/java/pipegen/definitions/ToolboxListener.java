@@ -0,0 +1,38 @@
+/*
+    Program:  ToolboxListener.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This interface receives the changes a ToolboxDef picks up while
+              it watches its files. Events arrive on the toolbox's watcher
+              thread, so listeners that update the GUI should hand them to
+              the event dispatch thread.
+
+ */
+
+package pipegen.definitions;
+
+import java.io.*;
+
+
+public interface ToolboxListener {
+
+    /**
+     * Called when a module file was edited, added or removed. The old module
+     * is null for a new file and the new module is null for a removed file.
+     */
+    public void moduleChanged(ModuleDef oldModule, ModuleDef newModule);
+
+    /**
+     * Called when every definition of the toolbox was loaded again, e.g.
+     * after the file formats were edited. Modules and formats from before
+     * are no longer part of the toolbox.
+     */
+    public void toolboxReloaded();
+
+    /**
+     * Called when a pipeline file in the toolbox was written, added or
+     * removed
+     */
+    public void pipelineChanged(File pipelineFile);
+}
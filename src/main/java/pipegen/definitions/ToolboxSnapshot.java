@@ -0,0 +1,312 @@
+/*
+    Program:  ToolboxSnapshot.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class keeps the parsed definitions of a toolbox in a
+              compact binary file so the toolbox can be opened again without
+              parsing any JSON.
+
+              The snapshot records the modification time and length of every
+              file the toolbox was loaded from: formats.json, ABOUT.txt and
+              each module file. It is only used while all of them, and the
+              list of module files, are unchanged. Otherwise the toolbox is
+              parsed as usual and the snapshot is written again.
+
+ */
+
+package pipegen.definitions;
+
+import java.io.*;
+import java.util.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import pipegen.exceptions.*;
+
+
+class ToolboxSnapshot {
+
+    // Name of the snapshot within the toolbox directory
+    static final String FILE_NAME = "config/toolbox.snapshot";
+
+    private static final int MAGIC = 0x50475453;
+    private static final int VERSION = 1;
+
+    private File file;
+    private File dir;
+
+    // Paths, modification times and lengths of the toolbox's files, taken
+    // before they are read
+    private String[] paths;
+    private long[] modified;
+    private long[] lengths;
+    private File[] moduleFiles;
+
+    private FileFormatDef[] formats;
+    private ModuleDef[] modules;
+    private String about;
+
+    public ToolboxSnapshot(File dir, String[] sourceNames) {
+        this.dir = dir;
+        this.file = new File(dir, FILE_NAME);
+        stampSources(sourceNames);
+    }
+
+    /**
+     * Records the state of the named files and of every module file
+     */
+    private void stampSources(String[] sourceNames) {
+
+        List<File> sources = new ArrayList<File>();
+        for (String name : sourceNames) {
+            sources.add(new File(dir, name));
+        }
+        try {
+            moduleFiles = ModuleDef.listModuleFiles(new File(dir, ToolboxDef.MODULES_DIR_NAME));
+        } catch (InvalidModuleDefException e) {
+            // Loading will fail on the missing modules directory
+            paths = null;
+            return;
+        }
+        sources.addAll(Arrays.asList(moduleFiles));
+
+        paths = new String[sources.size()];
+        modified = new long[sources.size()];
+        lengths = new long[sources.size()];
+        for (int i=0; i < paths.length; i++) {
+            File source = sources.get(i);
+            paths[i] = dir.toPath().relativize(source.toPath()).toString();
+            modified[i] = source.lastModified();
+            lengths[i] = source.length();
+        }
+    }
+
+    /**
+     * Reads the snapshot. Returns true if it matches the toolbox's files, in
+     * which case the definitions it holds are available.
+     */
+    public boolean load() {
+
+        formats = null;
+        modules = null;
+        about = null;
+        if (paths == null || ! file.isFile()) {
+            return false;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return false;
+            }
+            if (! readSources(in)) {
+                return false;
+            }
+
+            String aboutText = readString(in);
+
+            List<FileFormatDef> formatList = new ArrayList<FileFormatDef>();
+            int formatCount = in.readInt();
+            for (int i=0; i < formatCount; i++) {
+                String name = readString(in);
+                int rgb = in.readInt();
+                String suffix = readString(in);
+                String parentName = readString(in);
+                formatList.add(new FileFormatDef(name, rgb, suffix, parentName));
+            }
+            FileFormatDef[] formatDefs = FileFormatDef.link(formatList);
+
+            ModuleDef[] moduleDefs = new ModuleDef[in.readInt()];
+            for (int i=0; i < moduleDefs.length; i++) {
+                String name = readString(in);
+                String enclosedCommand = readString(in);
+                int cores = in.readInt();
+                int memoryMB = in.readInt();
+                ParameterDef[] inputs = readParameters(in, formatDefs);
+                ParameterDef[] outputs = readParameters(in, formatDefs);
+                moduleDefs[i] = new ModuleDef(name, inputs, outputs, enclosedCommand, cores, memoryMB);
+            }
+
+            about = aboutText;
+            formats = formatDefs;
+            modules = moduleDefs;
+            return true;
+
+        } catch (IOException | InvalidFileFormatDefException | RuntimeException e) {
+            e.printStackTrace();
+            System.err.println("Warning: Ignoring unreadable toolbox snapshot " + file);
+            return false;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the files recorded in the snapshot are the toolbox's
+     * files as they are now
+     */
+    private boolean readSources(DataInputStream in) throws IOException {
+
+        int count = in.readInt();
+        if (count != paths.length) {
+            return false;
+        }
+        for (int i=0; i < count; i++) {
+            String path = readString(in);
+            long fileModified = in.readLong();
+            long fileLength = in.readLong();
+            if (! path.equals(paths[i]) || fileModified != modified[i] || fileLength != lengths[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ParameterDef[] readParameters(DataInputStream in, FileFormatDef[] formats) throws IOException {
+        ParameterDef[] parameters = new ParameterDef[in.readInt()];
+        for (int i=0; i < parameters.length; i++) {
+            String name = readString(in);
+            FileFormatDef format = formats[in.readInt()];
+            boolean required = in.readBoolean();
+            parameters[i] = new ParameterDef(name, format, required);
+        }
+        return parameters;
+    }
+
+    /**
+     * Writes the definitions parsed from the toolbox's files to the snapshot.
+     * Nothing is written unless there is a module for every module file 
+     * stamped.
+     */
+    public void save(FileFormatDef[] formatDefs, Map<File, ModuleDef> modulesByFile, String aboutText) throws IOException {
+
+        if (paths == null) {
+            return;
+        }
+        ModuleDef[] moduleDefs = new ModuleDef[moduleFiles.length];
+        for (int i=0; i < moduleFiles.length; i++) {
+            moduleDefs[i] = modulesByFile.get(moduleFiles[i]);
+            if (moduleDefs[i] == null) {
+                return;
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(paths.length);
+            for (int i=0; i < paths.length; i++) {
+                writeString(out, paths[i]);
+                out.writeLong(modified[i]);
+                out.writeLong(lengths[i]);
+            }
+
+            writeString(out, aboutText);
+
+            // The argument-type format is added again when loading
+            List<FileFormatDef> formatList = new ArrayList<FileFormatDef>();
+            for (FileFormatDef format : formatDefs) {
+                if (! format.isArg()) {
+                    formatList.add(format);
+                }
+            }
+            out.writeInt(formatList.size());
+            for (FileFormatDef format : formatList) {
+                writeString(out, format.getName());
+                out.writeInt(format.getRGB());
+                writeString(out, format.getFormatSuffix());
+                writeString(out, format.getParentName());
+            }
+
+            out.writeInt(moduleDefs.length);
+            for (ModuleDef module : moduleDefs) {
+                writeString(out, module.getName());
+                writeString(out, module.getEnclosedCommand());
+                out.writeInt(module.getCores());
+                out.writeInt(module.getMemoryMB());
+                writeParameters(out, module.getInputs(), formatList);
+                writeParameters(out, module.getOutputs(), formatList);
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes parameters with each format given by its index in the loaded
+     * formats, where the argument-type format follows the others
+     */
+    private static void writeParameters(DataOutputStream out, ParameterDef[] parameters, List<FileFormatDef> formatList) throws IOException {
+        out.writeInt(parameters.length);
+        for (ParameterDef parameter : parameters) {
+            FileFormatDef format = parameter.getFileFormat();
+            int index = format.isArg() ? formatList.size() : formatList.indexOf(format);
+            if (index < 0) {
+                throw new IOException("Unknown format " + format.getName() + " of parameter " + parameter.getName());
+            }
+            writeString(out, parameter.getName());
+            out.writeInt(index);
+            out.writeBoolean(parameter.isRequired());
+        }
+    }
+
+    /**
+     * Returns the file the snapshot is kept in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns the module files stamped, in the order their modules are kept,
+     * or null if the modules directory could not be listed
+     */
+    public File[] getModuleFiles() {
+        return moduleFiles;
+    }
+
+    /**
+     * Returns the file formats read from the snapshot
+     */
+    public FileFormatDef[] getFormats() {
+        return formats;
+    }
+
+    /**
+     * Returns the modules read from the snapshot
+     */
+    public ModuleDef[] getModules() {
+        return modules;
+    }
+
+    /**
+     * Returns the contents of the About file read from the snapshot
+     */
+    public String getAbout() {
+        return about;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+    Program:  ToolboxWatcher.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class watches the directories of a toolbox with a
+              WatchService and passes the files changed in them to the
+              ToolboxDef.
+
+              Editors often write a file in several steps, e.g. truncating it
+              and then writing it, or writing a temporary copy and renaming
+              it. Changes are therefore collected until the directories have
+              been quiet for a moment and handed over together.
+
+ */
+
+package pipegen.definitions;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.nio.file.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+
+class ToolboxWatcher implements Closeable {
+
+    // Quiet time after a change before the changes are handed over
+    private static final long SETTLE_MILLIS = 200;
+
+    private final ToolboxDef toolbox;
+    private final WatchService service;
+    private final Map<WatchKey, Path> dirs;
+
+    private Thread thread;
+    private volatile boolean closed;
+
+    public ToolboxWatcher(ToolboxDef toolbox, File[] watchedDirs) throws IOException {
+        this.toolbox = toolbox;
+        this.service = FileSystems.getDefault().newWatchService();
+        this.dirs = new HashMap<WatchKey, Path>();
+
+        for (File dir : watchedDirs) {
+            if (dir.isDirectory()) {
+                Path path = dir.toPath();
+                dirs.put(path.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), path);
+            }
+        }
+    }
+
+    /**
+     * Starts watching in the background until the watcher is closed
+     */
+    public synchronized void start() {
+
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "ToolboxWatcher " + toolbox.getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (! closed) {
+                WatchKey key = service.take();
+                Set<File> changed = new LinkedHashSet<File>();
+                while (key != null) {
+                    collect(key, changed);
+                    key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                try {
+                    toolbox.filesChanged(changed);
+                } catch (RuntimeException e) {
+                    // Keep watching so the next edit can fix the files
+                    e.printStackTrace();
+                    System.err.println("Warning: Could not update toolbox " + toolbox.getName() + " from its changed files.");
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed while waiting for changes
+        } catch (ClosedWatchServiceException e) {
+            // Closed while waiting for changes
+        }
+    }
+
+    /**
+     * Adds the files changed in the events of a key. If events were lost the
+     * directory itself is added.
+     */
+    private void collect(WatchKey key, Set<File> changed) {
+
+        Path dir = dirs.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                continue;
+            }
+            if (event.kind() == OVERFLOW) {
+                changed.add(dir.toFile());
+            } else {
+                changed.add(dir.resolve((Path) event.context()).toFile());
+            }
+        }
+        if (! key.reset()) {
+            // The directory was removed
+            dirs.remove(key);
+        }
+    }
+
+    /**
+     * Stops watching
+     */
+    public void close() throws IOException {
+        Thread watching;
+        synchronized (this) {
+            closed = true;
+            watching = thread;
+            thread = null;
+        }
+        service.close();
+        if (watching != null) {
+            watching.interrupt();
+        }
+    }
+}
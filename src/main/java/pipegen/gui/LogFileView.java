@@ -0,0 +1,393 @@
+/*
+    Program:  LogFileView.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  Represents a paged view of a log file written by an analysis,
+              e.g. STDOUT.txt, on the pipe-gen GUI tab pane labeled 'Run'.
+
+              The file is read through a LogFileIndex, so only the lines in
+              sight are read from disk and a log of several gigabytes opens
+              at once while it is indexed in the background. The view pages
+              through the file, jumps to lines reporting errors and searches
+              it with regular expressions.
+
+ */
+
+package pipegen.gui;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.io.*;
+import java.util.*;
+import java.util.List;
+import java.util.regex.*;
+import javax.swing.*;
+import javax.swing.Timer;
+
+import pipegen.*;
+
+/**
+ * Represents a paged view of a log file written by an analysis
+ */
+public class LogFileView extends JPanel {
+
+    private static final Font MONOSPACED_FONT_10PT = new Font(Font.MONOSPACED, Font.PLAIN, 10);
+
+    // Delay between checks of the index for new lines
+    private static final int REFRESH_MILLIS = 500;
+
+    private LogFileIndex index;
+    private LogFileListModel model;
+    private JList<String> list;
+    private JScrollPane scrollPane;
+    private Timer refreshTimer;
+
+    private JButton pageUpButton;
+    private JButton pageDownButton;
+    private JButton previousErrorButton;
+    private JButton nextErrorButton;
+    private JTextField searchField;
+    private JButton findPreviousButton;
+    private JButton findNextButton;
+    private JLabel statusLabel;
+
+    private SwingWorker<Long, Void> searchWorker;
+
+    public LogFileView(Color textColor) {
+        super(new BorderLayout());
+
+        model = new LogFileListModel();
+        list = new JList<String>(model);
+        list.setFont(MONOSPACED_FONT_10PT);
+        list.setForeground(textColor);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+
+        // A fixed cell size lets the list render only the rows in sight
+        // without measuring every line of the file
+        list.setPrototypeCellValue("0000000000000000000000000000000000000000");
+
+        scrollPane = new JScrollPane(list);
+        add(buildToolBar(), BorderLayout.NORTH);
+        add(scrollPane, BorderLayout.CENTER);
+
+        refreshTimer = new Timer(REFRESH_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                refresh();
+            }
+        });
+
+        setControlsEnabled(false);
+    }
+
+    /**
+     * Builds the row of controls above the log
+     */
+    private JToolBar buildToolBar() {
+
+        JToolBar toolBar = new JToolBar();
+        toolBar.setFloatable(false);
+
+        pageUpButton = new JButton("Page Up");
+        pageUpButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                page(-1);
+            }
+        });
+        toolBar.add(pageUpButton);
+
+        pageDownButton = new JButton("Page Down");
+        pageDownButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                page(1);
+            }
+        });
+        toolBar.add(pageDownButton);
+        toolBar.addSeparator();
+
+        previousErrorButton = new JButton("Previous Error");
+        previousErrorButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                search(LogFileIndex.ERROR_PATTERN, false);
+            }
+        });
+        toolBar.add(previousErrorButton);
+
+        nextErrorButton = new JButton("Next Error");
+        nextErrorButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                search(LogFileIndex.ERROR_PATTERN, true);
+            }
+        });
+        toolBar.add(nextErrorButton);
+        toolBar.addSeparator();
+
+        searchField = new JTextField(20);
+        searchField.setMaximumSize(searchField.getPreferredSize());
+        searchField.setToolTipText("Regular expression");
+        searchField.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                searchText(true);
+            }
+        });
+        toolBar.add(searchField);
+
+        findPreviousButton = new JButton("Find Previous");
+        findPreviousButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                searchText(false);
+            }
+        });
+        toolBar.add(findPreviousButton);
+
+        findNextButton = new JButton("Find Next");
+        findNextButton.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                searchText(true);
+            }
+        });
+        toolBar.add(findNextButton);
+        toolBar.addSeparator();
+
+        statusLabel = new JLabel("");
+        toolBar.add(statusLabel);
+
+        return toolBar;
+    }
+
+    /**
+     * Shows a log file, closing the file shown before. Missing files leave
+     * the view empty.
+     */
+    public void open(File file) {
+
+        close();
+        if (! file.isFile()) {
+            return;
+        }
+
+        try {
+            index = new LogFileIndex(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            statusLabel.setText("Could not open " + file.getName());
+            return;
+        }
+        index.start();
+        refreshTimer.start();
+        setControlsEnabled(true);
+        refresh();
+    }
+
+    /**
+     * Closes the file shown, e.g. before a new run of the analysis
+     * overwrites it
+     */
+    public void close() {
+
+        refreshTimer.stop();
+        if (searchWorker != null) {
+            searchWorker.cancel(false);
+            searchWorker = null;
+        }
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            index = null;
+        }
+        model.setLineCount(0);
+        statusLabel.setText("");
+        setControlsEnabled(false);
+    }
+
+    /**
+     * Shows the lines indexed since the last refresh
+     */
+    private void refresh() {
+
+        if (index == null) {
+            return;
+        }
+
+        long lineCount = index.getLineCount();
+        model.setLineCount((int) Math.min(lineCount, Integer.MAX_VALUE));
+        if (searchWorker == null) {
+            statusLabel.setText(String.format("%,d lines", lineCount));
+        }
+    }
+
+    /**
+     * Scrolls one page up or down
+     */
+    private void page(int direction) {
+
+        int first = list.getFirstVisibleIndex();
+        int last = list.getLastVisibleIndex();
+        if (first < 0) {
+            return;
+        }
+        int pageRows = Math.max(1, last - first);
+        scrollToRow(first + direction * pageRows, false);
+    }
+
+    /**
+     * Shows a row at the top of the view, selecting it if asked
+     */
+    private void scrollToRow(int row, boolean select) {
+
+        if (model.getSize() == 0) {
+            return;
+        }
+        row = Math.max(0, Math.min(row, model.getSize() - 1));
+        if (select) {
+            list.setSelectedIndex(row);
+        }
+
+        Rectangle cell = list.getCellBounds(row, row);
+        if (cell == null) {
+            return;
+        }
+        int maxY = Math.max(0, list.getHeight() - scrollPane.getViewport().getHeight());
+        scrollPane.getViewport().setViewPosition(new Point(0, Math.min(cell.y, maxY)));
+    }
+
+    /**
+     * Searches for the regular expression typed in the search field
+     */
+    private void searchText(boolean forward) {
+
+        String text = searchField.getText();
+        if (text.isEmpty()) {
+            return;
+        }
+        try {
+            search(Pattern.compile(text), forward);
+        } catch (PatternSyntaxException e) {
+            statusLabel.setText("Invalid regular expression");
+        }
+    }
+
+    /**
+     * Searches from the selected line, or the first line in sight, for the
+     * next or previous line matching a pattern and selects it
+     */
+    private void search(final Pattern pattern, final boolean forward) {
+
+        if (index == null || searchWorker != null) {
+            return;
+        }
+
+        int from = list.getSelectedIndex();
+        if (from < 0) {
+            from = forward ? list.getFirstVisibleIndex() - 1 : list.getFirstVisibleIndex();
+        }
+        final long start = from;
+        final LogFileIndex searched = index;
+
+        setControlsEnabled(false);
+        statusLabel.setText("Searching...");
+        searchWorker = new SwingWorker<Long, Void>() {
+            protected Long doInBackground() throws IOException {
+                return searched.search(pattern, start, forward);
+            }
+
+            protected void done() {
+                if (searchWorker != this) {
+                    return;
+                }
+                searchWorker = null;
+                setControlsEnabled(true);
+                refresh();
+                try {
+                    long found = get();
+                    if (found < 0) {
+                        statusLabel.setText("Not found");
+                    } else if (found < model.getSize()) {
+                        scrollToRow((int) found, true);
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    statusLabel.setText("Search failed");
+                }
+            }
+        };
+        searchWorker.execute();
+    }
+
+    private void setControlsEnabled(boolean enabled) {
+        pageUpButton.setEnabled(enabled);
+        pageDownButton.setEnabled(enabled);
+        previousErrorButton.setEnabled(enabled);
+        nextErrorButton.setEnabled(enabled);
+        searchField.setEnabled(enabled);
+        findPreviousButton.setEnabled(enabled);
+        findNextButton.setEnabled(enabled);
+    }
+
+    /**
+     * A list model over the lines of the index. Lines are read a page at a
+     * time as the list asks for them and the most recent pages are cached.
+     */
+    private class LogFileListModel extends AbstractListModel<String> {
+
+        private static final int PAGE_LINES = 256;
+        private static final int CACHED_PAGES = 16;
+
+        private int lineCount;
+        private Map<Integer, List<String>> pages = new LinkedHashMap<Integer, List<String>>(2 * CACHED_PAGES, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<String>> eldest) {
+                return size() > CACHED_PAGES;
+            }
+        };
+
+        void setLineCount(int count) {
+
+            int oldCount = lineCount;
+            if (count == oldCount) {
+                return;
+            }
+            lineCount = count;
+
+            if (count < oldCount) {
+                // The file was truncated or closed
+                pages.clear();
+                fireIntervalRemoved(this, count, oldCount - 1);
+                return;
+            }
+
+            // The last line may have been cut short before
+            if (oldCount > 0) {
+                pages.remove((oldCount - 1) / PAGE_LINES);
+                fireContentsChanged(this, oldCount - 1, oldCount - 1);
+            }
+            fireIntervalAdded(this, oldCount, count - 1);
+        }
+
+        public int getSize() {
+            return lineCount;
+        }
+
+        public String getElementAt(int row) {
+
+            int page = row / PAGE_LINES;
+            List<String> lines = pages.get(page);
+            if (lines == null || row - page * PAGE_LINES >= lines.size()) {
+                lines = new ArrayList<String>(PAGE_LINES);
+                if (index != null) {
+                    try {
+                        index.readLines((long) page * PAGE_LINES, PAGE_LINES, lines);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                pages.put(page, lines);
+            }
+
+            int offset = row - page * PAGE_LINES;
+            return offset < lines.size() ? lines.get(offset) : "";
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+    Program:  LogView.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  Represents a scrolling view of the output of a running analysis
+              on the pipe-gen GUI tab pane labeled 'Run'.
+
+              The view follows a LogBuffer, adding only the lines appended 
+              since its last update and dropping the oldest lines past its 
+              capacity. Lines are shown in a JList, which only renders the 
+              rows in sight, so the cost of an update does not grow with the
+              length of the log.
+
+ */
+
+package pipegen.gui;
+
+import java.awt.*;
+import java.util.*;
+import java.util.List;
+import javax.swing.*;
+
+import pipegen.*;
+
+/**
+ * Represents a scrolling view of the output of a running analysis
+ */
+public class LogView extends JPanel {
+
+    private static final Font MONOSPACED_FONT_10PT = new Font(Font.MONOSPACED, Font.PLAIN, 10);
+    private static final Color STDOUT_COLOR = Color.BLACK;
+    private static final Color STDERR_COLOR = new Color(255, 0, 0);
+
+    private LogListModel model;
+    private JList<LogLine> list;
+    private JScrollPane scrollPane;
+
+    // The buffer followed and the sequence number read up to
+    private LogBuffer buffer;
+    private long position;
+
+    public LogView(int capacity) {
+        super(new BorderLayout());
+
+        model = new LogListModel(capacity);
+        list = new JList<LogLine>(model);
+        list.setFont(MONOSPACED_FONT_10PT);
+        list.setCellRenderer(new LogLineRenderer());
+
+        // A fixed cell size lets the list skip measuring every row
+        list.setPrototypeCellValue(new LogLine("0000000000000000000000000000000000000000", false));
+
+        scrollPane = new JScrollPane(list);
+        add(scrollPane, BorderLayout.CENTER);
+    }
+
+    /**
+     * Adds the lines appended to the buffer since the last update. The view
+     * keeps following the end of the log unless the user has scrolled up.
+     */
+    public void update(LogBuffer buffer) {
+
+        if (buffer == null) {
+            return;
+        }
+        if (buffer != this.buffer) {
+            clear();
+            this.buffer = buffer;
+        }
+
+        List<LogLine> lines = new ArrayList<LogLine>();
+        position = buffer.read(position, lines);
+        if (lines.isEmpty()) {
+            return;
+        }
+
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        boolean atEnd = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - list.getFixedCellHeight();
+
+        model.addAll(lines);
+        if (atEnd) {
+            list.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+
+    /**
+     * Removes every line from the view
+     */
+    public void clear() {
+        model.clear();
+        buffer = null;
+        position = 0;
+    }
+
+    /**
+     * A list model holding the most recent lines up to a capacity
+     */
+    private static class LogListModel extends AbstractListModel<LogLine> {
+
+        private final int capacity;
+        private final ArrayDeque<LogLine> lines;
+        private LogLine[] snapshot;
+
+        LogListModel(int capacity) {
+            this.capacity = capacity;
+            this.lines = new ArrayDeque<LogLine>(capacity);
+        }
+
+        void addAll(List<LogLine> added) {
+
+            int oldSize = lines.size();
+            int removed = 0;
+            for (LogLine line : added) {
+                if (lines.size() == capacity) {
+                    lines.removeFirst();
+                    removed++;
+                }
+                lines.addLast(line);
+            }
+            snapshot = null;
+
+            // Old rows dropped from the front are reported before the rows 
+            // added to the end, each as a single event
+            int removedOld = Math.min(removed, oldSize);
+            if (removedOld > 0) {
+                fireIntervalRemoved(this, 0, removedOld - 1);
+            }
+            int kept = oldSize - removedOld;
+            if (lines.size() > kept) {
+                fireIntervalAdded(this, kept, lines.size() - 1);
+            }
+        }
+
+        void clear() {
+            int size = lines.size();
+            lines.clear();
+            snapshot = null;
+            if (size > 0) {
+                fireIntervalRemoved(this, 0, size - 1);
+            }
+        }
+
+        public int getSize() {
+            return lines.size();
+        }
+
+        public LogLine getElementAt(int index) {
+            if (snapshot == null) {
+                snapshot = lines.toArray(new LogLine[lines.size()]);
+            }
+            return snapshot[index];
+        }
+    }
+
+    /**
+     * Renders standard output lines in black and standard error in red
+     */
+    private static class LogLineRenderer extends DefaultListCellRenderer {
+
+        public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+            super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+            if (! isSelected && value instanceof LogLine) {
+                setForeground(((LogLine) value).isError() ? STDERR_COLOR : STDOUT_COLOR);
+            }
+            return this;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import java.util.*;
 import java.util.regex.*;
 
 import pipegen.*;
+import pipegen.exceptions.*;
 
 public class MakefileTab extends JPanel {
 
@@ -17,6 +18,9 @@ public class MakefileTab extends JPanel {
     private JEditorPane editorPane;
     private JScrollPane scrollPane;
     private JLabel filenameLabel;
+    private JComboBox<MakefileAnalysis.Layout> layoutBox;
+
+    private MakefileAnalysis analysis;
 
     public MakefileTab() {
         super();
@@ -30,6 +34,18 @@ public class MakefileTab extends JPanel {
         filenameLabel.setForeground(new Color(114, 139, 164));
         topPanel.add(filenameLabel);
         topPanel.add(Box.createHorizontalGlue());
+
+        topPanel.add(new JLabel("Layout:"));
+        layoutBox = new JComboBox<MakefileAnalysis.Layout>(MakefileAnalysis.Layout.values());
+        layoutBox.setMaximumSize(layoutBox.getPreferredSize());
+        layoutBox.setEnabled(false);
+        layoutBox.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                changedLayout();
+            }
+        });
+        topPanel.add(layoutBox);
+        topPanel.add(Box.createRigidArea(new Dimension(20,0)));
         add(topPanel);
 
         editorPane = new JEditorPane();
@@ -43,10 +59,39 @@ public class MakefileTab extends JPanel {
 
     public void loadMakefileAnalysis(MakefileAnalysis analysis) {
 
+        this.analysis = null;
+        layoutBox.setSelectedItem(analysis.getLayout());
+        layoutBox.setEnabled(true);
+        this.analysis = analysis;
+
         filenameLabel.setText(analysis.getName());
         editorPane.setText(convertToHTML(analysis.getMakefileText()));
     }
 
+    /**
+     * Writes the makefile again in the layout just selected
+     */
+    private void changedLayout() {
+
+        MakefileAnalysis.Layout layout = (MakefileAnalysis.Layout) layoutBox.getSelectedItem();
+        if (analysis == null || layout == analysis.getLayout()) {
+            return;
+        }
+        try {
+            analysis.setLayout(layout);
+        } catch (InvalidMakefileException e) {
+            e.printStackTrace();
+            System.err.println("Error: Could not write the makefile in the layout " + layout + ". See stack trace.");
+            JOptionPane.showMessageDialog(this,
+                "Could not write the makefile in the layout " + layout + ".",
+                "Error Changing Layout",
+                JOptionPane.ERROR_MESSAGE);
+            layoutBox.setSelectedItem(analysis.getLayout());
+            return;
+        }
+        editorPane.setText(convertToHTML(analysis.getMakefileText()));
+    }
+
     private String convertToHTML(String input) {
 
         String inputHTML = input.replace("<", "&lt;").replace(">", "&gt;");
@@ -60,7 +60,10 @@ public class PipegenGUI extends PGFrame {
     private JLabel toolboxDisplayName;
     private ToolboxDef toolboxDef;
 
+    private ToolboxListener toolboxListener;
+
     private PipelineInstance pipeline;
+    private long pipelineModified;
     private DataTableFile inputData;
     private String analysisName;
 
@@ -255,6 +258,7 @@ public class PipegenGUI extends PGFrame {
                 PipelineDef definition = new PipelineDef(toolboxDef, file);
                 pipeline = new PipelineInstance(definition);
                 pipeline.load();
+                pipelineModified = file.lastModified();
 
                 pipelineTab.setPipeline(pipeline);
                 pipelineTab.draw();
@@ -284,23 +288,10 @@ public class PipegenGUI extends PGFrame {
     }
 
     private void savePipeline(String pipelineName) {
-        PrintWriter writer = null;
-        BufferedWriter buffer = null;
         try {
-            JSONObject pipelineJSON = pipeline.save();
-
-            writer = new PrintWriter(pipeline.getFile(), "UTF-8");
-            buffer = new BufferedWriter(writer);
-            buffer.write(pipelineJSON.toString());
-            buffer.close();
+            pipeline.save();
+            pipelineModified = pipeline.getFile().lastModified();
 
-        } catch (JSONException e) {
-            e.printStackTrace();
-            System.err.println("Exception: Could not save pipeline. See stack trace.");
-            JOptionPane.showMessageDialog(this,
-                "\n\n\nError: Could not save pipeline. JSONException.\n\n\n",
-                "Error Saving Pipeline",
-                JOptionPane.ERROR_MESSAGE);
         } catch (IOException e) {
             e.printStackTrace();
             System.err.println("Exception: Could not save pipeline. See stack trace.");
@@ -308,17 +299,6 @@ public class PipegenGUI extends PGFrame {
                 "\n\n\nError: Could not save pipeline. IOException.\n\n\n",
                 "Error Saving Pipeline",
                 JOptionPane.ERROR_MESSAGE);
-        } finally {
-            try {
-                if (writer != null) {
-                    writer.close();
-                }
-                if (buffer != null) {
-                    buffer.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
         }
     }
 
@@ -686,12 +666,14 @@ public class PipegenGUI extends PGFrame {
 
     public void setSelectedToolbox(String toolboxName) {
 
+        stopWatchingToolbox();
         toolboxFile = new File(toolboxesDir.getAbsolutePath() + "/" + toolboxName + "/");
         toolboxDef = new ToolboxDef(toolboxFile);
 
         try {
             toolboxDef.load();
             toolboxDisplayName.setText(toolboxName);
+            watchToolbox();
         } catch (InvalidFileFormatDefException e) {
             JOptionPane.showMessageDialog(this,
                 "\n\n\nThe toolbox you selected does not have a valid file formats configuration.\n\n\n",
@@ -720,8 +702,140 @@ public class PipegenGUI extends PGFrame {
     }
 
     private void unsetSelectedToolbox() {
+        stopWatchingToolbox();
         toolboxDef = null;
         toolboxDisplayName.setText(NO_TOOLBOX_SELECTED);
         mbm.clearToolboxSelection();
     }
+
+    /**
+     * Follows edits to the files of the selected toolbox. Changes are handled
+     * on the event dispatch thread, where the pipeline is drawn and saved.
+     */
+    private void watchToolbox() {
+
+        final ToolboxDef watched = toolboxDef;
+        toolboxListener = new ToolboxListener() {
+            public void moduleChanged(final ModuleDef oldModule, final ModuleDef newModule) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        handleModuleChanged(watched, oldModule, newModule);
+                    }
+                });
+            }
+
+            public void toolboxReloaded() {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        handleToolboxReloaded(watched);
+                    }
+                });
+            }
+
+            public void pipelineChanged(final File pipelineFile) {
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        handlePipelineChanged(watched, pipelineFile);
+                    }
+                });
+            }
+        };
+        toolboxDef.addToolboxListener(toolboxListener);
+
+        try {
+            toolboxDef.startWatching();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Warning: Could not watch toolbox " + toolboxDef.getName() + " for edits.");
+        }
+    }
+
+    private void stopWatchingToolbox() {
+        if (toolboxDef != null) {
+            toolboxDef.stopWatching();
+            toolboxDef.removeToolboxListener(toolboxListener);
+        }
+        toolboxListener = null;
+    }
+
+    /**
+     * Returns true if the open pipeline uses a toolbox
+     */
+    private boolean isPipelineOf(ToolboxDef toolbox) {
+        return pipeline != null && pipeline.getToolbox() == toolbox;
+    }
+
+    /**
+     * Swaps an edited module into the open pipeline
+     */
+    private void handleModuleChanged(ToolboxDef toolbox, ModuleDef oldModule, ModuleDef newModule) {
+
+        if (! isPipelineOf(toolbox)) {
+            return;
+        }
+        if (oldModule != null && newModule != null) {
+            pipeline.redefineModule(oldModule, newModule);
+        } else if (newModule == null) {
+            System.err.println("Warning: The module file of " + oldModule.getName() + " was removed. The pipeline keeps its last definition.");
+        }
+
+        // Setting the pipeline again also lists the toolbox's modules anew
+        showPipeline();
+    }
+
+    /**
+     * Opens the pipeline again once the whole toolbox was reloaded, since its
+     * elements refer to definitions no longer in the toolbox
+     */
+    private void handleToolboxReloaded(ToolboxDef toolbox) {
+
+        if (! isPipelineOf(toolbox)) {
+            return;
+        }
+        if (pipeline.hasUnsavedChanges()) {
+            System.err.println("Warning: Toolbox " + toolbox.getName() + " was reloaded. Save and reopen pipeline " + pipeline.getName() + " to use its new definitions.");
+            return;
+        }
+        reloadPipeline();
+    }
+
+    /**
+     * Opens the pipeline again if its file was written by something other
+     * than this window
+     */
+    private void handlePipelineChanged(ToolboxDef toolbox, File pipelineFile) {
+
+        if (! isPipelineOf(toolbox) || pipeline.getFile() == null) {
+            return;
+        }
+        File file = pipeline.getFile().getAbsoluteFile();
+        if (! file.equals(pipelineFile.getAbsoluteFile()) || ! file.isFile() || file.lastModified() == pipelineModified) {
+            return;
+        }
+        if (pipeline.hasUnsavedChanges()) {
+            System.err.println("Warning: Pipeline file " + file + " was changed on disk. Unsaved changes are kept.");
+            return;
+        }
+        reloadPipeline();
+    }
+
+    private void reloadPipeline() {
+
+        File file = pipeline.getFile();
+        try {
+            PipelineInstance reloaded = new PipelineInstance(new PipelineDef(pipeline.getToolbox(), file));
+            reloaded.load();
+            pipeline = reloaded;
+            pipelineModified = file.lastModified();
+            showPipeline();
+        } catch (InvalidWorkflowDefException e) {
+            System.err.println("Warning: Keeping pipeline " + pipeline.getName() + ", which could not be loaded again from " + file);
+        }
+    }
+
+    private void showPipeline() {
+        pipelineTab.setPipeline(pipeline);
+        pipelineTab.draw();
+        pipelineTab.repaint();
+    }
 }
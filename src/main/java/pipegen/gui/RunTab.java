@@ -13,8 +13,11 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.*;
 import javax.swing.*;
 import javax.swing.Timer;
+import javax.swing.text.*;
+import javax.swing.text.html.*;
 
 import pipegen.*;
 
@@ -64,16 +67,22 @@ public class RunTab extends JPanel {
     private JCheckBox checkMultiNode;
     private JCheckBox checkParallel;
     private JCheckBox checkKeepGoing;
+    private JCheckBox checkInProcess;
 
     private JLabel timeElapsedValue;
     private JLabel targetFilesValue;
     private JLabel intermediateFilesValue;
     private JLabel errorsValue;
     private JEditorPane errorsTextArea;
+    private int errorTreesShown;
+    private LogView logView;
+    private LogFileView stdoutView;
+    private LogFileView stderrView;
 
     private boolean checkMultiNodePrevious;
     private boolean checkParallelPrevious;
     private boolean checkKeepGoingPrevious;
+    private boolean checkInProcessPrevious;
 
     // Fields used for running tasks in the background and monitoring progress
     private int count;
@@ -85,6 +94,12 @@ public class RunTab extends JPanel {
     private int waitForFilesCounter;
     private static final int MAX_WAIT = 20;
 
+    // Lines of output kept in the live log view
+    private static final int LOG_VIEW_LINES = 10000;
+
+    // Id of the line closing the error trees, before which new trees go
+    private static final String ERROR_TREES_END = "errorTreesEnd";
+
     public RunTab(PipegenGUI gui) {
         super();
 
@@ -239,6 +254,12 @@ public class RunTab extends JPanel {
     	checkKeepGoing.addActionListener(checkBoxListener);
         rightPanel.add(checkKeepGoing);
 
+        checkInProcess = new JCheckBox("Run jobs in process (critical path first)");
+        checkInProcess.setBackground(BACKGROUND_COLOR);
+        checkInProcess.setEnabled(false);
+    	checkInProcess.addActionListener(checkBoxListener);
+        rightPanel.add(checkInProcess);
+
         // Adds space the right region between the parameter checkboxes and the clean button
         rightPanel.add(Box.createRigidArea(new Dimension(0, 5)));
 
@@ -365,8 +386,20 @@ public class RunTab extends JPanel {
         errorsTextArea.setEditable(true);
 
         JScrollPane scrollPane = new JScrollPane(errorsTextArea);
-        scrollPane.setPreferredSize(new Dimension(0,2000));
-        rootPanel.add(scrollPane);
+
+        logView = new LogView(LOG_VIEW_LINES);
+        stdoutView = new LogFileView(Color.BLACK);
+        stderrView = new LogFileView(ERROR_RED);
+
+        JTabbedPane logTabs = new JTabbedPane();
+        logTabs.addTab("Live", logView);
+        logTabs.addTab("STDOUT.txt", stdoutView);
+        logTabs.addTab("STDERR.txt", stderrView);
+
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, logTabs, scrollPane);
+        splitPane.setResizeWeight(0.7);
+        splitPane.setPreferredSize(new Dimension(0,2000));
+        rootPanel.add(splitPane);
 
         return rootPanel;
     }
@@ -392,6 +425,9 @@ public class RunTab extends JPanel {
         makeCommand.setText(DEFAULT_COMMAND);
         timeElapsedValue.setText("0:00");
         timeElapsedValue.setForeground(Color.BLACK);
+
+        logView.clear();
+        openLogFiles();
     }
 
     /**
@@ -404,6 +440,9 @@ public class RunTab extends JPanel {
         checkParallel.setSelected(false);
         checkKeepGoing.setEnabled(true);
         checkKeepGoing.setSelected(false);
+        checkInProcess.setEnabled(true);
+        checkInProcess.setSelected(false);
+        makeCommand.setEnabled(true);
     }
 
     /**
@@ -412,7 +451,14 @@ public class RunTab extends JPanel {
      */
     private void runButtonPressed() {
 
-        analysis.setMakeCommand(makeCommand.getText());
+        if (checkInProcess.isSelected()) {
+            // In parallel, as many jobs run as fit the cores and memory of this machine
+            int jobs = checkParallel.isSelected() ? 0 : 1;
+            analysis.useExecutor(jobs, checkKeepGoing.isSelected(), true);
+        } else {
+            analysis.useMake();
+            analysis.setMakeCommand(makeCommand.getText());
+        }
         analysisWorker = new AnalysisWorker(analysis);
 
         System.out.println("RunTab.java - runButtonPressed() analysis started");
@@ -428,6 +474,9 @@ public class RunTab extends JPanel {
         checkKeepGoingPrevious = checkKeepGoing.isEnabled();
         checkKeepGoing.setEnabled(false);
 
+        checkInProcessPrevious = checkInProcess.isEnabled();
+        checkInProcess.setEnabled(false);
+
         cleanStreamsAndErrorTrees();
         timeElapsedValue.setForeground(Color.BLACK);
         startTime = System.currentTimeMillis();
@@ -442,7 +491,13 @@ public class RunTab extends JPanel {
                 long currentTime = System.currentTimeMillis();
                 long elapsedTime = (currentTime - startTime) / 1000;
                 timeElapsedValue.setText(formatSecs(elapsedTime));
-                if (analysisWorker.isDone()) {
+                logView.update(analysis.getLogBuffer());
+
+                // Failures journaled before the run finished are all reported
+                // by the time it is seen to be done
+                boolean done = analysisWorker.isDone();
+                reportNewErrorTrees();
+                if (done) {
                     updateSummary();
 
                     if (analysis.isComplete()) {
@@ -453,6 +508,7 @@ public class RunTab extends JPanel {
                         checkMultiNode.setEnabled(checkMultiNodePrevious);
                         checkParallel.setEnabled(checkParallelPrevious);
                         checkKeepGoing.setEnabled(checkKeepGoingPrevious);
+                        checkInProcess.setEnabled(checkInProcessPrevious);
 
                         int exitCode = analysisWorker.getExitCode();
                         boolean errorStreamEmpty = analysisWorker.errorStreamEmpty();
@@ -461,6 +517,7 @@ public class RunTab extends JPanel {
                         } else {
                             timeElapsedValue.setForeground(ERROR_RED);
                         }
+                        openLogFiles();
 
                     } else {
                         waitForFilesCounter += 1;
@@ -472,13 +529,13 @@ public class RunTab extends JPanel {
                             checkMultiNode.setEnabled(checkMultiNodePrevious);
                             checkParallel.setEnabled(checkParallelPrevious);
                             checkKeepGoing.setEnabled(checkKeepGoingPrevious);
+                            checkInProcess.setEnabled(checkInProcessPrevious);
 
                             timeElapsedValue.setForeground(ERROR_RED);
                             System.err.println("Warning: Could not find all files produced by makefile.");
+                            openLogFiles();
                         }
                     }
-
-					reportStreamsAndErrorTrees();
                 }
             }
         };
@@ -516,15 +573,11 @@ public class RunTab extends JPanel {
     }
 
     /**
-     * Produces a report from standard streams stdout and stderr. This report 
-     * also includes error trees on specific sub-trees of the makefile that 
-     * failed and the files these sub-trees should have produced.
+     * Starts an empty report of the error trees on specific sub-trees of the
+     * makefile that failed and the files these sub-trees should have produced.
+     * The standard streams are shown in the log views above it.
      */
-    private void reportStreamsAndErrorTrees() {
-
-        String stdout = analysis.getStdout();
-        String stderr = analysis.getStderr();
-        String errorTrees = analysis.getErrorTrees();
+    private void startErrorTrees() {
 
         String tempText = "";
         tempText += "<html>\n";
@@ -542,33 +595,61 @@ public class RunTab extends JPanel {
         tempText += "   <body>\n";
         tempText += "<pre>\n";
         tempText += "\n";
-        tempText += "    <span class=\"section\">stdout</span>\n";
-        tempText += "\n";
-        tempText += "<span class=\"stdout\">";
-        tempText += stdout;
-        tempText += "</span>\n";
-        tempText += "________________________________________________________________________________\n";
-        tempText += "\n";
-        tempText += "    <span class=\"section\">stderr</span>\n";
-        tempText += "\n";
-        tempText += "<span class=\"stderr\">";
-        tempText += stderr;
-        tempText += "</span>\n";
-        tempText += "________________________________________________________________________________\n";
-        tempText += "\n";
         tempText += "    <span class=\"section\">error trees</span>\n";
         tempText += "\n";
-        tempText += errorTrees;
+        tempText += "</pre>\n";
+        tempText += "<pre id=\"" + ERROR_TREES_END + "\">\n";
         tempText += "________________________________________________________________________________\n";
         tempText += "</pre>\n";
         tempText += "   </body>\n";
         tempText += "</html>\n";
 
         errorsTextArea.setText(tempText);
+        errorTreesShown = 0;
 	}
 
+    /**
+     * Adds the error trees of failures journaled since the last call to the
+     * report. Only the new trees are rendered, so the report can grow while
+     * the analysis runs.
+     */
+    private void reportNewErrorTrees() {
+
+        if (analysis.pollFailures() == 0) {
+            return;
+        }
+        String errorTrees = analysis.getErrorTrees(errorTreesShown);
+        if (errorTrees.isEmpty()) {
+            return;
+        }
+        errorTreesShown += errorTrees.length();
+
+        // Each batch is a block of its own, which ends its last line
+        if (errorTrees.endsWith("\n")) {
+            errorTrees = errorTrees.substring(0, errorTrees.length() - 1);
+        }
+        HTMLDocument document = (HTMLDocument) errorsTextArea.getDocument();
+        try {
+            document.insertBeforeStart(document.getElement(ERROR_TREES_END), "<pre>" + errorTrees + "</pre>");
+        } catch (BadLocationException | IOException e) {
+            e.printStackTrace();
+            System.err.println("Warning: Could not report the error trees. See stack trace.");
+        }
+    }
+
+    /**
+     * Shows the whole stdout and stderr files of the last run
+     */
+    private void openLogFiles() {
+        stdoutView.open(analysis.getStdoutFile());
+        stderrView.open(analysis.getStderrFile());
+    }
+
     private void cleanStreamsAndErrorTrees() {
-        errorsTextArea.setText("");
+        startErrorTrees();
+        logView.clear();
+        stdoutView.close();
+        stderrView.close();
     }
 
     /**
@@ -612,18 +693,27 @@ public class RunTab extends JPanel {
         boolean multiNode = checkMultiNode.isSelected();
         boolean parallel = checkParallel.isSelected();
         boolean keepGoing = checkKeepGoing.isSelected();
+        boolean inProcess = checkInProcess.isSelected();
 
 		System.out.println("changedCheckBox()");
 
 		if (multiNode) {
         	checkParallel.setEnabled(false);
         	checkKeepGoing.setEnabled(false);
+        	checkInProcess.setEnabled(false);
         	makeCommand.setText(DEFAULT_COMMAND_QMAKE);
 		} else {
             checkParallel.setEnabled(true);
         	checkKeepGoing.setEnabled(true);
+        	checkInProcess.setEnabled(true);
+
+            // Jobs run in process use the same options without the make command
+            makeCommand.setEnabled(! inProcess);
 
-            if (parallel && keepGoing) {
+            if (inProcess) {
+                checkMultiNode.setEnabled(false);
+                makeCommand.setText(DEFAULT_COMMAND);
+            } else if (parallel && keepGoing) {
                 checkMultiNode.setEnabled(false);
                 makeCommand.setText(DEFAULT_COMMAND_PARAKEEP);
             } else if (parallel) {
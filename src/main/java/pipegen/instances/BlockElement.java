@@ -23,9 +23,6 @@ import pipegen.exceptions.*;
  */
 public abstract class BlockElement implements Draggable {
 
-    protected static final Color MODULE_COLOR = new Color(80, 80, 80);
-    protected static final Color MODULE_RIM_COLOR = new Color(80, 80, 80, 100);
-    protected static final Color TAG_COLOR = new Color(50, 50, 50, 20);
     protected static final int TAG_VERTICAL_PAD = 4; 
     protected static final int TAG_HORIZONTAL_PAD = 8;
 
@@ -167,12 +164,4 @@ public abstract class BlockElement implements Draggable {
     public BlockElement getFirstOutput() {
         return null;
     }
-
-    /**
-     * Returns true if this BlockElement is the first valid output element of 
-     * parent BlockElement.
-     */
-    public boolean isFirstOutputOf(BlockElement parent) {
-        return false;
-    }
 }
@@ -12,8 +12,8 @@ import java.util.*;
 import java.awt.*;
 import java.awt.geom.*;
 //import java.awt.font.*;
-import org.json.*;
 
+import pipegen.*;
 import pipegen.exceptions.*;
 
 public class ConnectionElement {
@@ -41,19 +41,80 @@ public class ConnectionElement {
         areGraphicsSet = false;
     }
 
-    public static ConnectionElement[] load(JSONArray connectionArray, SourceElement[] sources, SinkElement[] sinks, ModuleElement[] modules) throws InvalidConnectionDefException {
+    /**
+     * Reads the start and stop text of each connection in the array that
+     * comes next in a pipeline file. The ends are resolved by load() once the
+     * elements they name have been read, as they may come later in the file.
+     */
+    public static ArrayList<String[]> loadEnds(JsonReader reader) throws InvalidConnectionDefException {
 
         try {
-            int len = connectionArray.length();
-            ConnectionElement[] out = new ConnectionElement[len];
-            for (int i=0; i < len; i++) {
-                JSONObject currConnection = connectionArray.getJSONObject(i);
+            ArrayList<String[]> ends = new ArrayList<String[]>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String startString = null;
+                String stopString = null;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+                    if (key.equals("start")) {
+                        startString = reader.nextString();
+                    } else if (key.equals("stop")) {
+                        stopString = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if (startString == null || stopString == null) {
+                    System.err.println("Error: Connection needs a start and a stop");
+                    throw new InvalidConnectionDefException();
+                }
+                ends.add(new String[] { startString, stopString });
+            }
+            reader.endArray();
+
+            return ends;
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new InvalidConnectionDefException(e);
+        }
+    }
 
-                String startString = currConnection.getString("start");
-                String stopString = currConnection.getString("stop");
+    /**
+     * Connects the elements named by the start and stop text of each
+     * connection
+     */
+    public static ConnectionElement[] load(ArrayList<String[]> ends, SourceElement[] sources, SinkElement[] sinks, ModuleElement[] modules) throws InvalidConnectionDefException {
+
+        // Index the elements by id once so each end is found directly
+        Map<Integer, SourceElement> sourcesByID = new HashMap<Integer, SourceElement>(2 * sources.length);
+        for (SourceElement source : sources) {
+            if (! sourcesByID.containsKey(source.getID())) {
+                sourcesByID.put(source.getID(), source);
+            }
+        }
+        Map<Integer, SinkElement> sinksByID = new HashMap<Integer, SinkElement>(2 * sinks.length);
+        for (SinkElement sink : sinks) {
+            if (! sinksByID.containsKey(sink.getID())) {
+                sinksByID.put(sink.getID(), sink);
+            }
+        }
+        Map<Integer, ModuleElement> modulesByID = new HashMap<Integer, ModuleElement>(2 * modules.length);
+        for (ModuleElement module : modules) {
+            if (! modulesByID.containsKey(module.getID())) {
+                modulesByID.put(module.getID(), module);
+            }
+        }
 
-                MountPointOut start = parseOutStr(startString, sources, modules);
-                MountPointIn stop = parseInStr(stopString, sinks, modules);
+        try {
+            int len = ends.size();
+            ConnectionElement[] out = new ConnectionElement[len];
+            for (int i=0; i < len; i++) {
+                MountPointOut start = parseOutStr(ends.get(i)[0], sourcesByID, modulesByID);
+                MountPointIn stop = parseInStr(ends.get(i)[1], sinksByID, modulesByID);
 
                 out[i] = new ConnectionElement(start, stop);
             }
@@ -65,105 +126,74 @@ public class ConnectionElement {
         }
     }
 
-    public static JSONArray save(ArrayList<ConnectionElement> connections) throws JSONException {
+    /**
+     * Writes an array list of connections as the next array of a pipeline
+     * file
+     */
+    public static void save(JsonWriter writer, ArrayList<ConnectionElement> connections) throws IOException {
 
-        JSONArray outputJSON = new JSONArray();
+        writer.beginArray();
         for (ConnectionElement connection : connections) {
-            JSONObject connectionJSON = connection.save();
-            outputJSON.put(connectionJSON);
+            connection.save(writer);
         }
-        
-        return outputJSON;
+        writer.endArray();
     }
 
+    public void save(JsonWriter writer) throws IOException {
 
-    public JSONObject save() throws JSONException {
-
-        JSONObject outputJSON = new JSONObject();
-
-        String startText = start.getJSONText();
-        String stopText = stop.getJSONText();
-
-        /*if (startText == null) {
-            throw new JSONException("Could not produce valid text for connection start point.");
-        }
-
-        if (stopText == null) {
-            throw new JSONException("Could not produce valid text for connection stop point.");
-        }
-
-        // Save start and stop*/
-        outputJSON.put("start", startText);
-        outputJSON.put("stop", stopText);
         // Save start and stop
-        //outputJSON.put("start", "start dummy");
-        //outputJSON.put("stop", "stop dummy");
-
-
-        return outputJSON;
+        writer.beginObject();
+        writer.name("start").value(start.getJSONText());
+        writer.name("stop").value(stop.getJSONText());
+        writer.endObject();
     }
 
-    private static MountPointOut parseOutStr(String str, SourceElement[] sources, ModuleElement[] modules) throws InvalidConnectionDefException {
+    private static MountPointOut parseOutStr(String str, Map<Integer, SourceElement> sources, Map<Integer, ModuleElement> modules) throws InvalidConnectionDefException {
         if (str.startsWith("sources[")) {
-            str = str.replaceFirst("^sources\\[", "").replaceFirst("\\]$", "");
-            int id = Integer.parseInt(str);
-            for (SourceElement source : sources) {
-                if (source.getID() == id) {
-                    return source.getMountPointOut();
-                }
+            SourceElement source = sources.get(parseID(str, "sources["));
+            if (source != null) {
+                return source.getMountPointOut();
             }
         } else if (str.startsWith("modules[")) {
-
-            String[] tokens = str.split("\\.");
-            if (tokens.length != 2) {
+            int dot = str.indexOf('.');
+            if (dot < 0 || dot == str.length() - 1 || str.indexOf('.', dot + 1) >= 0) {
                 throw new InvalidConnectionDefException();
             }
-
-            String moduleToken = tokens[0];
-            String outName = tokens[1];
-
-            moduleToken = moduleToken.replaceFirst("^modules\\[", "").replaceFirst("\\]$", "");
-            int id = Integer.parseInt(moduleToken);
-            for (ModuleElement module : modules) {
-                if (module.getID() == id) {
-                    return module.getMountPointOut(outName);
-                }
+            ModuleElement module = modules.get(parseID(str.substring(0, dot), "modules["));
+            if (module != null) {
+                return module.getMountPointOut(str.substring(dot + 1));
             }
         }
         throw new InvalidConnectionDefException();
     }
 
-    private static MountPointIn parseInStr(String str, SinkElement[] sinks, ModuleElement[] modules) throws InvalidConnectionDefException {
+    private static MountPointIn parseInStr(String str, Map<Integer, SinkElement> sinks, Map<Integer, ModuleElement> modules) throws InvalidConnectionDefException {
         if (str.startsWith("sinks[")) {
-            str = str.replaceFirst("^sinks\\[", "").replaceFirst("\\]$", "");
-            int id = Integer.parseInt(str);
-            for (SinkElement sink : sinks) {
-                if (sink.getID() == id) {
-                    return sink.getMountPointIn();
-                }
+            SinkElement sink = sinks.get(parseID(str, "sinks["));
+            if (sink != null) {
+                return sink.getMountPointIn();
             }
-
         } else if (str.startsWith("modules[")) {
-
-            String[] tokens = str.split("\\.");
-            if (tokens.length != 2) {
+            int dot = str.indexOf('.');
+            if (dot < 0 || dot == str.length() - 1 || str.indexOf('.', dot + 1) >= 0) {
                 throw new InvalidConnectionDefException();
             }
-
-            String moduleToken = tokens[0];
-            String inName = tokens[1];
-
-            moduleToken = moduleToken.replaceFirst("^modules\\[", "").replaceFirst("\\]$", "");
-            int id = Integer.parseInt(moduleToken);
-            for (ModuleElement module : modules) {
-                if (module.getID() == id) {
-                    return module.getMountPointIn(inName);
-                }
+            ModuleElement module = modules.get(parseID(str.substring(0, dot), "modules["));
+            if (module != null) {
+                return module.getMountPointIn(str.substring(dot + 1));
             }
         }
         throw new InvalidConnectionDefException();
     }
 
+    /**
+     * Returns the id in a token such as "modules[3]"
+     */
+    private static int parseID(String token, String prefix) {
+        int end = token.endsWith("]") ? token.length() - 1 : token.length();
+        return Integer.parseInt(token.substring(prefix.length(), end));
+    }
+
     public String toString() {
         return " (" + start + " --- " + stop + ")";
         //return startString + " --- " + stopString + " (" + start + " --- " + stop + ")";
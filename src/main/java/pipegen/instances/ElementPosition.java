@@ -8,8 +8,8 @@
 package pipegen.instances;
 
 import java.io.*;
-import org.json.*;
 
+import pipegen.*;
 import pipegen.exceptions.*;
 
 public class ElementPosition {
@@ -31,21 +31,48 @@ public class ElementPosition {
         return new ElementPosition(this.x, this.y);
     }
 
-    public static ElementPosition load(JSONObject positionObject) throws InvalidElementPositionException {
+    /**
+     * Loads a position from the next object of a pipeline file as it is read
+     */
+    public static ElementPosition load(JsonReader reader) throws InvalidElementPositionException {
 
-        int x = 0;
-        int y = 0;
+        Integer x = null;
+        Integer y = null;
 
         try {
-            x = positionObject.getInt("X");
-            y = positionObject.getInt("Y");
-        } catch(Exception e) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (key.equals("X")) {
+                    x = reader.nextInt();
+                } else if (key.equals("Y")) {
+                    y = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch(IOException e) {
             throw new InvalidElementPositionException(e);
         }
 
+        if (x == null || y == null) {
+            System.err.println("Error: Position needs an X and a Y");
+            throw new InvalidElementPositionException();
+        }
         return new ElementPosition(x, y);
     }
 
+    /**
+     * Writes this position as the next object of a pipeline file
+     */
+    public void save(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("X").value(x);
+        writer.name("Y").value(y);
+        writer.endObject();
+    }
+
     public int getX() {
         return x;
     }
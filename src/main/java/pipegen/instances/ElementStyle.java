@@ -0,0 +1,32 @@
+/*
+    Program:  ElementStyle.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class holds the colors and fonts with which the elements of
+              a PipelineInstance are drawn.
+
+              They are kept out of the elements themselves so that loading a
+              pipeline, e.g. to generate a makefile without a display, does
+              not initialize AWT. The class is first initialized when a
+              pipeline is drawn.
+
+ */
+
+package pipegen.instances;
+
+import java.awt.*;
+
+
+final class ElementStyle {
+
+    static final Color MODULE_COLOR = new Color(80, 80, 80);
+    static final Color MODULE_RIM_COLOR = new Color(80, 80, 80, 100);
+    static final Color TAG_COLOR = new Color(50, 50, 50, 20);
+    static final Color MODULE_TEXT_COLOR = Color.WHITE;
+
+    static final Font MODULE_FONT = new Font("Bold", Font.BOLD, 14);
+
+    private ElementStyle() {
+    }
+}
@@ -13,7 +13,6 @@ import java.util.regex.*;
 import java.awt.*;
 import java.awt.geom.*;
 import java.awt.font.*;
-import org.json.*;
 import java.lang.Integer;
 
 import pipegen.*;
@@ -31,7 +30,14 @@ public class ModuleElement extends BlockElement {
     private static final int PADDING_VERTICAL = 8;
     private static final int PADDING_HORIZONTAL = 14;
     private static final int CORNER_ARCH = 8;
-    private static final Font font = new Font("Bold", Font.BOLD, 14);
+
+    // Buffer reused by each thread when rendering recipes
+    private static final ThreadLocal<StringBuilder> RECIPE_BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
 
     // General class fields
     private ModuleDef module;
@@ -63,8 +69,6 @@ public class ModuleElement extends BlockElement {
 
         maxID += 1;
         this.id = maxID;
-
-        initGraphics();
     }
 
     public ModuleElement(ModuleDef module, ElementPosition position, int id) {
@@ -77,12 +81,11 @@ public class ModuleElement extends BlockElement {
         if (id > maxID) {
             maxID = id;
         }
-
-        initGraphics();
     }
 
     /**
-     * Sets up the 2D-graphics for displaying this module
+     * Sets up the 2D-graphics for displaying this module. This is put off 
+     * until the module is first drawn so the model can be used without AWT.
      */
     private void initGraphics() {
         body = new RoundRectangle2D.Double();
@@ -95,27 +98,20 @@ public class ModuleElement extends BlockElement {
     }
 
     /**
-     * Loads an array of modules that were previously saved in a JSONArray. 
-     * Ensures that each module was previously defined in the toolbox.
+     * Loads the array of modules that comes next in a pipeline file as it is
+     * read. Ensures that each module was previously defined in the toolbox.
      */
-    public static ModuleElement[] load(JSONArray moduleArray, ModuleDef[] moduleDefArray) throws InvalidModuleDefException {
+    public static ModuleElement[] load(JsonReader reader, Map<String, ModuleDef> moduleDefs) throws InvalidModuleDefException {
 
         try {
-            int len = moduleArray.length();
-            ModuleElement[] out = new ModuleElement[len];
-            for (int i=0; i < len; i++) {
-
-                JSONObject moduleJSON = moduleArray.getJSONObject(i);
-                String name = moduleJSON.getString("moduleName");
-                int currID = moduleJSON.getInt("id");
-                JSONObject positionObject = moduleJSON.getJSONObject("position");
-                ElementPosition currPosition = ElementPosition.load(positionObject);
-
-                int moduleIndex = findModuleIndex(name, moduleDefArray);
-                ModuleDef currModule = moduleDefArray[moduleIndex];
-                out[i] = new ModuleElement(currModule, currPosition, currID);
+            ArrayList<ModuleElement> out = new ArrayList<ModuleElement>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                out.add(loadModule(reader, moduleDefs));
             }
-            return out;
+            reader.endArray();
+
+            return out.toArray(new ModuleElement[out.size()]);
         } catch (Exception e) {
             e.printStackTrace();
             throw new InvalidModuleDefException(e);
@@ -123,36 +119,68 @@ public class ModuleElement extends BlockElement {
     }
 
     /**
-     * Saves an array list of modules in a JSONArray. 
+     * Loads one module, whose members may come in any order
+     */
+    private static ModuleElement loadModule(JsonReader reader, Map<String, ModuleDef> moduleDefs) throws Exception {
+
+        String name = null;
+        Integer currID = null;
+        ElementPosition currPosition = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (key.equals("moduleName")) {
+                name = reader.nextString();
+            } else if (key.equals("id")) {
+                currID = reader.nextInt();
+            } else if (key.equals("position")) {
+                currPosition = ElementPosition.load(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (name == null || currID == null || currPosition == null) {
+            System.err.println("Error: Module needs a moduleName, id and position");
+            throw new InvalidModuleDefException();
+        }
+        ModuleDef currModule = moduleDefs.get(name);
+        if (currModule == null) {
+            System.err.println("Error: Unknown module " + name);
+            throw new InvalidModuleDefException();
+        }
+        return new ModuleElement(currModule, currPosition, currID);
+    }
+
+    /**
+     * Writes an array list of modules as the next array of a pipeline file
      */
-    public static JSONArray save(ArrayList<ModuleElement> modules) throws JSONException {
+    public static void save(JsonWriter writer, ArrayList<ModuleElement> modules) throws IOException {
 
-        JSONArray outputJSON = new JSONArray();
+        writer.beginArray();
         for (ModuleElement module : modules) {
-            JSONObject moduleJSON = module.save();
-            outputJSON.put(moduleJSON);
+            module.save(writer);
         }
-        
-        return outputJSON;
+        writer.endArray();
     }
 
-    public JSONObject save() throws JSONException {
+    public void save(JsonWriter writer) throws IOException {
 
-        JSONObject outputJSON = new JSONObject();
+        writer.beginObject();
 
         // Save module name
-        outputJSON.put("moduleName", getName());
+        writer.name("moduleName").value(getName());
 
         // Save id
-        outputJSON.put("id", id);
+        writer.name("id").value(id);
 
         // Save position
-        JSONObject positionJSON = new JSONObject();
-        positionJSON.put("X", position.getX());
-        positionJSON.put("Y", position.getY());
-        outputJSON.put("position", positionJSON);
+        writer.name("position");
+        position.save(writer);
 
-        return outputJSON;
+        writer.endObject();
     }
 
     /**
@@ -191,6 +219,9 @@ public class ModuleElement extends BlockElement {
      * using draw() more efficient 
      */
     public void setGraphics(Graphics2D g2d) {
+        if (body == null) {
+            initGraphics();
+        }
         this.g2d = g2d;
         calcDimensions();
         calcPositions();
@@ -321,15 +352,15 @@ public class ModuleElement extends BlockElement {
         }
 
         // Draw body
-        g2d.setColor(MODULE_COLOR);
+        g2d.setColor(ElementStyle.MODULE_COLOR);
         g2d.fill(body);
-        g2d.setColor(MODULE_RIM_COLOR);
+        g2d.setColor(ElementStyle.MODULE_RIM_COLOR);
         g2d.draw(body);
 
         // Draw name
         Font oldFont = g2d.getFont();
-        g2d.setFont(font);
-        g2d.setColor(Color.WHITE);
+        g2d.setFont(ElementStyle.MODULE_FONT);
+        g2d.setColor(ElementStyle.MODULE_TEXT_COLOR);
         g2d.drawString(getName(), textPos.getX(), textPos.getY());
         g2d.setFont(oldFont);
 
@@ -351,6 +382,7 @@ public class ModuleElement extends BlockElement {
 
         // Calculate text dimensions
         String name = getName();
+        Font font = ElementStyle.MODULE_FONT;
         Font oldFont = g2d.getFont();
         g2d.setFont(font);
         FontRenderContext context = g2d.getFontRenderContext();
@@ -439,7 +471,7 @@ public class ModuleElement extends BlockElement {
      * Returns true if the body of this module contains the given point
      */
     public boolean contains(Point location) {
-        return body.contains(location);
+        return body != null && body.contains(location);
     }
 
     /**
@@ -447,7 +479,9 @@ public class ModuleElement extends BlockElement {
      */
     public void move(int deltaX, int deltaY) {
         super.move(deltaX, deltaY);
-        calcPositions();
+        if (body != null) {
+            calcPositions();
+        }
         for (MountPointOut output : outputs) {
             output.move(deltaX, deltaY);
         }
@@ -477,20 +511,6 @@ public class ModuleElement extends BlockElement {
         return id;
     }
 
-    /**
-     * Returns the index of a module based on its name
-     */
-    private static int findModuleIndex(String moduleName, ModuleDef[] moduleDefs) {
-        // *** This seems likely to be the wrong way to find this
-        java.util.Arrays.sort(moduleDefs);
-        for (int i=0; i < moduleDefs.length; i++) {
-            if (moduleName.equals(moduleDefs[i].getName())) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
     /**
      * Sets the input mount points
      */
@@ -642,59 +662,115 @@ public class ModuleElement extends BlockElement {
         return module.getName();
     }
 
-    public String getRecipe(String id, DataTableFile table) {
-        String command = module.getEnclosedCommand();
+    /**
+     * Returns the definition of the module this element instantiates
+     */
+    public ModuleDef getDefinition() {
+        return module;
+    }
 
-        ParameterDef[] inputDefs = module.getInputs();
-        ParameterDef[] outputDefs = module.getOutputs();
+    /**
+     * Replaces the definition of this module, e.g. after its module file was
+     * edited. Each connection moves to the new input or output of the same 
+     * name if its format still fits. Returns the connections that could not
+     * be moved, which are left in place for the caller to remove.
+     */
+    ArrayList<ConnectionElement> redefine(ModuleDef newModule) {
 
-        for (int i=0; i < inputDefs.length; i++) {
-            String varName = inputDefs[i].getName();
-            if (inputDefs[i].isRequired()) {
-                if (inputs[i].getConnection() == null) {
-                    //*** throw new exception instead
-                    return null;
-                    // ***
+        MountPointIn[] newInputs = MountPointIn.wrapArray(this, newModule.getInputs());
+        MountPointOut[] newOutputs = MountPointOut.wrapArray(this, newModule.getOutputs());
+        ArrayList<ConnectionElement> dropped = new ArrayList<ConnectionElement>();
+
+        for (MountPointIn input : inputs) {
+            MountPointIn newInput = findMountPoint(newInputs, input.getName());
+            for (ConnectionElement connection : new ArrayList<ConnectionElement>(input.getConnections())) {
+                MountPointOut start = connection.getStart();
+                if (newInput != null && start != null && start.getFileFormat().isValidInputTo(newInput.getFileFormat())) {
+                    connection.setStop(newInput);
+                } else {
+                    dropped.add(connection);
                 }
+            }
+        }
 
-                String inputFilename = "";
-                if (inputDefs[i].isArg()) {
-                    inputFilename = "`cat \\" + inputs[i].getFilename(id, table) + "`";
+        for (MountPointOut output : outputs) {
+            MountPointOut newOutput = findMountPoint(newOutputs, output.getName());
+            for (ConnectionElement connection : new ArrayList<ConnectionElement>(output.getConnections())) {
+                MountPointIn stop = connection.getStop();
+                if (newOutput != null && stop != null && newOutput.getFileFormat().isValidInputTo(stop.getFileFormat())) {
+                    connection.setStart(newOutput);
                 } else {
-                    inputFilename = "\\" + inputs[i].getFilename(id, table);
+                    dropped.add(connection);
                 }
+            }
+        }
 
-                // *** inputFilename = inputFilename.replace("REGISTRATION", "ZZZREGISTRATIONZZZ");
+        module = newModule;
+        inputs = newInputs;
+        outputs = newOutputs;
 
-                //System.out.println("-------------------------------------------------------------");
-                //System.out.println("ModuleElement.java - getRecipe() command=" + command);
-                //System.out.println("ModuleElement.java - getRecipe() varName=" + varName);
-                //System.out.println("ModuleElement.java - getRecipe() inputFilename=" + inputFilename);
-                command = command.replaceFirst("\\{" + varName + "\\}", inputFilename);
-                //System.out.println("ModuleElement.java - getRecipe() command=" + command);
-                //System.out.println("-------------------------------------------------------------");
-            } else {
-                if (inputs[i].getConnection() == null) { 
-                    command = command.replaceFirst("\\{" + varName + "\\}", "");
-                }
+        // Lay the module out again if it has been drawn
+        if (g2d != null) {
+            setGraphics(g2d);
+        }
+        return dropped;
+    }
 
-                String inputFilename = "";
-                if (inputDefs[i].isArg()) {
-                    inputFilename = "`cat \\" + inputs[i].getFilename(id, table) + "`";
-                } else {
-                    inputFilename = "\\" + inputs[i].getFilename(id, table);
-                }
-                command = command.replaceFirst("\\{" + varName + "\\}", inputFilename);
+    private static <T extends MountPoint> T findMountPoint(T[] mountPoints, String name) {
+        for (T mountPoint : mountPoints) {
+            if (mountPoint.getName().equals(name)) {
+                return mountPoint;
+            }
+        }
+        return null;
+    }
+
+    public String getRecipe(String id, DataTableFile table) {
+
+        String[] inputFilenames = new String[inputs.length];
+        for (int i=0; i < inputs.length; i++) {
+            if (inputs[i].getConnection() != null) {
+                inputFilenames[i] = inputs[i].getFilename(id, table);
             }
+        }
+        return getRecipe(inputFilenames, id);
+    }
+
+    /**
+     * Returns the command run by this module with its input and output 
+     * placeholders filled in. The inputs are named by inputFilenames, which 
+     * holds null for inputs that are not connected. The outputs are named in 
+     * the processing directory of id, which may also be a make pattern stem.
+     * Returns null if a required input is not connected.
+     */
+    public String getRecipe(String[] inputFilenames, String id) {
 
+        ParameterDef[] inputDefs = module.getInputs();
+        String[] inputValues = new String[inputDefs.length];
+        for (int i=0; i < inputDefs.length; i++) {
+            if (inputFilenames[i] == null) {
+                if (inputDefs[i].isRequired()) {
+                    //*** throw new exception instead
+                    return null;
+                    // ***
+                }
+            } else if (inputDefs[i].isArg()) {
+                inputValues[i] = "`cat " + inputFilenames[i] + "`";
+            } else {
+                inputValues[i] = inputFilenames[i];
+            }
         }
 
-        for (int i=0; i < outputDefs.length; i++) {
-            String varName = outputDefs[i].getName();
-            command = command.replaceFirst("\\{" + varName + "\\}", "\\$(PROCESSING)" + id + "/" + getOutputName(i));
+        String[] outputValues = new String[outputs.length];
+        for (int i=0; i < outputs.length; i++) {
+            outputValues[i] = getFilename(id, i);
         }
 
-        return command;
+        // Render into this thread's buffer, which is reused between recipes
+        StringBuilder sb = RECIPE_BUFFER.get();
+        sb.setLength(0);
+        module.getRecipeTemplate().render(sb, inputValues, outputValues);
+        return sb.toString();
     }
 
     public String getInputName(int i) {
@@ -744,8 +820,13 @@ public class ModuleElement extends BlockElement {
         return "id" + id + "_module" + this.id;
     }
 
+    /**
+     * Returns the shell text run when this module's recipe fails. It marks
+     * the failure in the error logs and appends it to the failure journal.
+     */
     public String getErrorCatch(String id) {
-        return "|| mkdir -p $(ERRORS)" + id + "/" + this.id;
+        return "|| { mkdir -p $(ERRORS)" + id + "/" + this.id + "; "
+            + "echo '" + id + " " + this.id + "' >> $(ERRORS)" + FailureJournal.FILE_NAME + "; }";
     }
 
     /**
@@ -763,16 +844,4 @@ public class ModuleElement extends BlockElement {
         }
         return null;
     }
-
-    /**
-     * Returns true if this BlockElement is the first valid output element of 
-     * parent BlockElement.
-     */
-    public boolean isFirstOutputOf(BlockElement parent) {
-        if (this == parent.getFirstOutput()) {
-            return true;
-        } else {
-            return false;
-        }
-    }
 }
@@ -23,11 +23,15 @@ public class MountPointIn extends MountPoint implements ConnectableInput {
     // Static final fields
     private static final int DIAMETER = 8;
 
-    private Ellipse2D.Double circle;
-
     public MountPointIn(BlockElement block, ParameterDef definition, int index) {
         super(block, definition, index);
-        circle = new Ellipse2D.Double(0, 0, DIAMETER, DIAMETER);
+    }
+
+    /**
+     * Returns the circle drawn for this input at its current position
+     */
+    private Ellipse2D.Double getCircle() {
+        return new Ellipse2D.Double(position.getX(), position.getY(), DIAMETER, DIAMETER);
     }
 
     public static MountPointIn[] wrapArray(BlockElement block, ParameterDef[] input) {
@@ -69,24 +73,19 @@ public class MountPointIn extends MountPoint implements ConnectableInput {
 
     public void draw(Graphics2D g2d) {
         super.draw(g2d);
+        Ellipse2D.Double circle = getCircle();
         g2d.fill(circle);
         g2d.draw(circle);
     }
 
     public void setPosition(int x, int y) {
         super.setPosition(x, y);
-        circle.setFrame(x, y, DIAMETER, DIAMETER);
         attachPoint.setX(x + (DIAMETER / 2));
         attachPoint.setY(y);
     }
 
-    public void move(int deltaX, int deltaY) {
-        super.move(deltaX, deltaY);
-        circle.setFrame(position.getX(), position.getY(), DIAMETER, DIAMETER);
-    }
-
     public boolean contains(Point location) {
-        return circle.contains(location);
+        return getCircle().contains(location);
     }
 
     public int getWidth() {
@@ -27,16 +27,20 @@ public class MountPointOut extends MountPoint implements ConnectableOutput {
     // Static final fields
     private static final int WIDTH = 10;
     private static final int HEIGHT = 8;
-    private static final DimensionInt SIZE = new DimensionInt(WIDTH, HEIGHT);
-
-    private Polygon triangle;
 
     public MountPointOut(BlockElement block, ParameterDef definition, int index) {
         super(block, definition, index);
+    }
 
-        int[] xPoints = {0, WIDTH, (WIDTH/2)};
-        int[] yPoints = {0, 0, HEIGHT};
-        triangle = new Polygon(xPoints, yPoints, 3);
+    /**
+     * Returns the triangle drawn for this output at its current position
+     */
+    private Polygon getTriangle() {
+        int x = position.getX();
+        int y = position.getY();
+        int[] xPoints = {x, x + WIDTH, x + (WIDTH/2)};
+        int[] yPoints = {y, y, y + HEIGHT};
+        return new Polygon(xPoints, yPoints, 3);
     }
 
     public static MountPointOut[] wrapArray(BlockElement block, ParameterDef[] input) {
@@ -69,7 +73,7 @@ public class MountPointOut extends MountPoint implements ConnectableOutput {
     }
 
     public boolean contains(Point location) {
-        return triangle.contains(location);
+        return getTriangle().contains(location);
     }
 
     public int getHeight() {
@@ -81,30 +85,22 @@ public class MountPointOut extends MountPoint implements ConnectableOutput {
     }
 
     public DimensionInt getSize() {
-        return SIZE;
+        return new DimensionInt(WIDTH, HEIGHT);
     }
 
     public void draw(Graphics2D g2d) {
         super.draw(g2d);
+        Polygon triangle = getTriangle();
         g2d.fillPolygon(triangle);
         g2d.drawPolygon(triangle);
     }
 
     public void setPosition(int x, int y) {
-        int deltaX = x - position.getX();
-        int deltaY = y - position.getY();
-
         super.setPosition(x, y);
-        triangle.translate(deltaX, deltaY);
         attachPoint.setX(x + (WIDTH / 2));
         attachPoint.setY(y + HEIGHT);
     }
 
-    public void move(int deltaX, int deltaY) {
-        super.move(deltaX, deltaY);
-        triangle.translate(deltaX, deltaY);
-    }
-
     public String getToolTip() {
         return block.outputSummary(index);
     }
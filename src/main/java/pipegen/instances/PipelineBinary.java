@@ -0,0 +1,355 @@
+/*
+    Program:  PipelineBinary.java
+    Author:   Michael Stockman
+              Albert Einstein College of Medicine
+
+    Purpose:  This class reads and writes pipelines in a compact binary
+              format, for pipelines that are loaded far more often than they
+              are edited, e.g. generated pipelines run by batch jobs. JSON
+              remains the format for exchanging and comparing pipelines.
+
+              Every string is written once in a table at the start of the
+              file and is referred to by its index afterwards. Numbers are
+              written as varints. Each end of a connection is given by the
+              index of its element in the file and, for a module, the name of
+              its input or output, instead of text such as "modules[3].FA".
+
+              A file starts with MAGIC, so PipelineInstance can tell the two
+              formats apart, and then VERSION, which is raised whenever the
+              layout changes.
+
+ */
+
+package pipegen.instances;
+
+import java.io.*;
+import java.util.*;
+import java.nio.charset.*;
+
+import pipegen.definitions.*;
+import pipegen.exceptions.*;
+
+
+class PipelineBinary {
+
+    private static final int MAGIC = 0x50475042;
+    private static final int VERSION = 1;
+
+    private String name;
+    private SourceElement[] sources;
+    private SinkElement[] sinks;
+    private ModuleElement[] modules;
+    private ConnectionElement[] connections;
+
+    // Strings of the file being read, in table order
+    private String[] strings;
+
+    /**
+     * Returns true if the stream starts with a pipeline in this format. The
+     * first bytes of the stream are consumed.
+     */
+    static boolean hasMagic(InputStream in) throws IOException {
+        int magic = 0;
+        for (int i=0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            magic = (magic << 8) | b;
+        }
+        return magic == MAGIC;
+    }
+
+    /**
+     * Reads a pipeline, looking up its formats and modules by name
+     */
+    public void load(DataInputStream in, Map<String, FileFormatDef> formats, Map<String, ModuleDef> moduleDefs) throws IOException, InvalidWorkflowDefException {
+
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a binary pipeline file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary pipeline version " + version);
+        }
+
+        strings = new String[readCount(in)];
+        for (int i=0; i < strings.length; i++) {
+            byte[] bytes = new byte[readCount(in)];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        name = readString(in);
+
+        sources = new SourceElement[readCount(in)];
+        for (int i=0; i < sources.length; i++) {
+            String tableField = readString(in);
+            int id = readSignedVarint(in);
+            ParameterDef def = readParameter(in, formats);
+            sources[i] = new SourceElement(tableField, readPosition(in), def, id);
+        }
+
+        sinks = new SinkElement[readCount(in)];
+        for (int i=0; i < sinks.length; i++) {
+            String tableField = readString(in);
+            int id = readSignedVarint(in);
+            ParameterDef def = readParameter(in, formats);
+            sinks[i] = new SinkElement(tableField, readPosition(in), def, id);
+        }
+
+        modules = new ModuleElement[readCount(in)];
+        for (int i=0; i < modules.length; i++) {
+            String moduleName = readString(in);
+            int id = readSignedVarint(in);
+            ModuleDef module = moduleDefs.get(moduleName);
+            if (module == null) {
+                System.err.println("Error: Unknown module " + moduleName);
+                throw new InvalidWorkflowDefException();
+            }
+            modules[i] = new ModuleElement(module, readPosition(in), id);
+        }
+
+        connections = new ConnectionElement[readCount(in)];
+        for (int i=0; i < connections.length; i++) {
+            MountPointOut start = readStart(in);
+            MountPointIn stop = readStop(in);
+            if (start == null || stop == null) {
+                System.err.println("Error: Connection " + i + " has an unknown end");
+                throw new InvalidWorkflowDefException();
+            }
+            connections[i] = new ConnectionElement(start, stop);
+        }
+    }
+
+    private ParameterDef readParameter(DataInputStream in, Map<String, FileFormatDef> formats) throws IOException, InvalidWorkflowDefException {
+        String formatName = readString(in);
+        boolean required = in.readBoolean();
+        FileFormatDef format = formats.get(formatName);
+        if (format == null) {
+            System.err.println("Error: Unknown file format " + formatName);
+            throw new InvalidWorkflowDefException();
+        }
+        return new ParameterDef("", format, required);
+    }
+
+    private ElementPosition readPosition(DataInputStream in) throws IOException {
+        int x = readSignedVarint(in);
+        int y = readSignedVarint(in);
+        return new ElementPosition(x, y);
+    }
+
+    /**
+     * Reads the start of a connection: the index of a source, or the index
+     * of a module and the name of its output. Returns null if there is no
+     * such element or output.
+     */
+    private MountPointOut readStart(DataInputStream in) throws IOException {
+        int end = readVarint(in);
+        int index = end >>> 1;
+        if ((end & 1) == 0) {
+            return index < sources.length ? sources[index].getMountPointOut() : null;
+        }
+        String outputName = readString(in);
+        return index < modules.length ? modules[index].getMountPointOut(outputName) : null;
+    }
+
+    /**
+     * Reads the stop of a connection: the index of a sink, or the index of a
+     * module and the name of its input. Returns null if there is no such
+     * element or input.
+     */
+    private MountPointIn readStop(DataInputStream in) throws IOException {
+        int end = readVarint(in);
+        int index = end >>> 1;
+        if ((end & 1) == 0) {
+            return index < sinks.length ? sinks[index].getMountPointIn() : null;
+        }
+        String inputName = readString(in);
+        return index < modules.length ? modules[index].getMountPointIn(inputName) : null;
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        int index = readVarint(in);
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Unknown string " + index);
+        }
+        return strings[index];
+    }
+
+    /**
+     * Writes a pipeline. The body is written first so the strings it uses
+     * can be put in the table ahead of it.
+     */
+    public static void save(DataOutputStream out, String name, ArrayList<SourceElement> sources, ArrayList<SinkElement> sinks,
+            ArrayList<ModuleElement> modules, ArrayList<ConnectionElement> connections) throws IOException {
+
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+
+        writeString(body, name, strings);
+
+        writeVarint(body, sources.size());
+        for (SourceElement source : sources) {
+            writeString(body, source.getTableField(), strings);
+            writeSignedVarint(body, source.getID());
+            writeParameter(body, source.getMountPointOut(), strings);
+            writePosition(body, source.getPosition());
+        }
+
+        writeVarint(body, sinks.size());
+        for (SinkElement sink : sinks) {
+            writeString(body, sink.getTableField(), strings);
+            writeSignedVarint(body, sink.getID());
+            writeParameter(body, sink.getMountPointIn(), strings);
+            writePosition(body, sink.getPosition());
+        }
+
+        writeVarint(body, modules.size());
+        for (ModuleElement module : modules) {
+            writeString(body, module.getName(), strings);
+            writeSignedVarint(body, module.getID());
+            writePosition(body, module.getPosition());
+        }
+
+        // Index the elements so each end of a connection is found directly
+        Map<BlockElement, Integer> indexes = new IdentityHashMap<BlockElement, Integer>();
+        for (int i=0; i < sources.size(); i++) {
+            indexes.put(sources.get(i), i);
+        }
+        for (int i=0; i < sinks.size(); i++) {
+            indexes.put(sinks.get(i), i);
+        }
+        for (int i=0; i < modules.size(); i++) {
+            indexes.put(modules.get(i), i);
+        }
+
+        writeVarint(body, connections.size());
+        for (ConnectionElement connection : connections) {
+            if (connection.hasNull()) {
+                throw new IOException("Connection is not attached at both ends: " + connection);
+            }
+            writeEnd(body, connection.getStart(), indexes, strings);
+            writeEnd(body, connection.getStop(), indexes, strings);
+        }
+        body.flush();
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeVarint(out, strings.size());
+        for (String text : strings.keySet()) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+        bodyBytes.writeTo(out);
+        out.flush();
+    }
+
+    private static void writeParameter(DataOutputStream out, MountPoint mountPoint, Map<String, Integer> strings) throws IOException {
+        writeString(out, mountPoint.getDefinition().getFileFormat().getName(), strings);
+        out.writeBoolean(mountPoint.isRequired());
+    }
+
+    private static void writePosition(DataOutputStream out, ElementPosition position) throws IOException {
+        writeSignedVarint(out, position.getX());
+        writeSignedVarint(out, position.getY());
+    }
+
+    /**
+     * Writes an end of a connection as its element's index, with the low bit
+     * set for a module, followed by the name of the module's input or output
+     */
+    private static void writeEnd(DataOutputStream out, MountPoint mountPoint, Map<BlockElement, Integer> indexes, Map<String, Integer> strings) throws IOException {
+        BlockElement block = mountPoint.getBlock();
+        Integer index = indexes.get(block);
+        if (index == null) {
+            throw new IOException("Connection to an element not in the pipeline: " + block);
+        }
+        if (block instanceof ModuleElement) {
+            writeVarint(out, (index << 1) | 1);
+            writeString(out, mountPoint.getName(), strings);
+        } else {
+            writeVarint(out, index << 1);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String text, Map<String, Integer> strings) throws IOException {
+        Integer index = strings.get(text);
+        if (index == null) {
+            index = strings.size();
+            strings.put(text, index);
+        }
+        writeVarint(out, index);
+    }
+
+    /**
+     * Writes a non-negative int in seven-bit groups, low group first
+     */
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Writes an int as a varint after zigzag encoding, so small negative
+     * values are short too
+     */
+    private static void writeSignedVarint(DataOutputStream out, int value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift=0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    /**
+     * Reads a count or length. Each thing counted takes at least a byte, so
+     * a count beyond the rest of the file is rejected before anything is
+     * allocated for it.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = readVarint(in);
+        if (count < 0 || count > in.available()) {
+            throw new IOException("Malformed count " + count);
+        }
+        return count;
+    }
+
+    private static int readSignedVarint(DataInputStream in) throws IOException {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public SourceElement[] getSources() {
+        return sources;
+    }
+
+    public SinkElement[] getSinks() {
+        return sinks;
+    }
+
+    public ModuleElement[] getModules() {
+        return modules;
+    }
+
+    public ConnectionElement[] getConnections() {
+        return connections;
+    }
+}
@@ -10,7 +10,8 @@ package pipegen.instances;
 import java.io.*;
 import java.util.*;
 import java.awt.*;
-import org.json.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 
 import pipegen.*;
 import pipegen.exceptions.*;
@@ -21,6 +22,9 @@ import pipegen.definitions.*;
  */
 public class PipelineInstance {
 
+    // Suffix of pipeline files saved in the binary format
+    public static final String BINARY_SUFFIX = ".pgb";
+
     private PipelineDef definition;
 
     private String name;
@@ -45,50 +49,83 @@ public class PipelineInstance {
     }
 
     /**
-     * Loads and returns a pipeline object previously saved into a .json file
+     * Loads and returns a pipeline object previously saved into a .json file,
+     * or into a file in the binary format
      */
     public void load() throws InvalidWorkflowDefException {
 
-        String jsonString = null;
+        InputStream in = null;
         try {
-            jsonString = ToolboxDef.readTextfile(definition.getFile());
-        } catch (InvalidAboutFileException e) {
-            throw new InvalidWorkflowDefException();
-        }
+            in = new BufferedInputStream(new FileInputStream(definition.getFile()));
+            in.mark(4);
+            boolean isBinary = PipelineBinary.hasMagic(in);
+            in.reset();
+
+            if (isBinary) {
+                loadBinary(in);
+            } else {
+                loadJSON(in);
+            }
 
-        if (jsonString == null) {
+        } catch (IOException e) {
+            e.printStackTrace();
             throw new InvalidWorkflowDefException();
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
 
-        ToolboxDef toolbox = definition.getToolbox();
-        try {
-            JSONObject rootObject = new JSONObject(jsonString);
-
-            name = rootObject.getString("workflowName");
+        hasUnsavedChanges = false;
+    }
 
-            // Load sources
-            JSONArray sourceArray = rootObject.getJSONArray("sources");
-            SourceElement[] sourcesTemp = SourceElement.load(sourceArray, toolbox.getFormats());
-            sources = new ArrayList<SourceElement>(Arrays.asList(sourcesTemp));
+    /**
+     * Loads a pipeline from JSON. The elements are built as the file is
+     * read, without holding the whole file in memory.
+     */
+    private void loadJSON(InputStream in) throws IOException, InvalidWorkflowDefException {
 
-            // Load sinks
-            JSONArray sinkArray = rootObject.getJSONArray("sinks");
-            SinkElement[] sinksTemp = SinkElement.load(sinkArray, toolbox.getFormats());
-            sinks = new ArrayList<SinkElement>(Arrays.asList(sinksTemp));
+        ToolboxDef toolbox = definition.getToolbox();
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            String nameTemp = null;
+            SourceElement[] sourcesTemp = null;
+            SinkElement[] sinksTemp = null;
+            ModuleElement[] modulesTemp = null;
+            ArrayList<String[]> connectionEnds = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+                if (key.equals("workflowName")) {
+                    nameTemp = reader.nextString();
+                } else if (key.equals("sources")) {
+                    sourcesTemp = SourceElement.load(reader, toolbox.getFormatIndex());
+                } else if (key.equals("sinks")) {
+                    sinksTemp = SinkElement.load(reader, toolbox.getFormatIndex());
+                } else if (key.equals("modules")) {
+                    modulesTemp = ModuleElement.load(reader, toolbox.getModuleIndex());
+                } else if (key.equals("connections")) {
+                    // Connected elements may come later in the file
+                    connectionEnds = ConnectionElement.loadEnds(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
 
-            // Load modules
-            JSONArray moduleArray = rootObject.getJSONArray("modules");
-            ModuleElement[] modulesTemp = ModuleElement.load(moduleArray, toolbox.getModules());
-            modules = new ArrayList<ModuleElement>(Arrays.asList(modulesTemp));
+            if (nameTemp == null || sourcesTemp == null || sinksTemp == null || modulesTemp == null || connectionEnds == null) {
+                System.err.println("Error: Pipeline needs a workflowName, sources, sinks, modules and connections");
+                throw new InvalidWorkflowDefException();
+            }
+            ConnectionElement[] connectionsTemp = ConnectionElement.load(connectionEnds, sourcesTemp, sinksTemp, modulesTemp);
 
-            // Load connections
-            JSONArray connectionArray = rootObject.getJSONArray("connections");
-            ConnectionElement[] connectionsTemp = ConnectionElement.load(connectionArray, sourcesTemp, sinksTemp, modulesTemp);
-            connections = new ArrayList<ConnectionElement>(Arrays.asList(connectionsTemp));
+            setElements(nameTemp, sourcesTemp, sinksTemp, modulesTemp, connectionsTemp);
 
-        } catch (JSONException e) {
-            e.printStackTrace();
-            throw new InvalidWorkflowDefException();
         } catch (InvalidSourceDefException e) {
             e.printStackTrace();
             throw new InvalidWorkflowDefException();
@@ -102,35 +139,103 @@ public class PipelineInstance {
             e.printStackTrace();
             throw new InvalidWorkflowDefException();
         }
+    }
+
+    /**
+     * Loads a pipeline from the binary format
+     */
+    private void loadBinary(InputStream in) throws IOException, InvalidWorkflowDefException {
+
+        ToolboxDef toolbox = definition.getToolbox();
+        PipelineBinary binary = new PipelineBinary();
+        binary.load(new DataInputStream(in), toolbox.getFormatIndex(), toolbox.getModuleIndex());
+
+        setElements(binary.getName(), binary.getSources(), binary.getSinks(), binary.getModules(), binary.getConnections());
+    }
+
+    private void setElements(String name, SourceElement[] sources, SinkElement[] sinks, ModuleElement[] modules, ConnectionElement[] connections) {
+        this.name = name;
+        this.sources = new ArrayList<SourceElement>(Arrays.asList(sources));
+        this.sinks = new ArrayList<SinkElement>(Arrays.asList(sinks));
+        this.modules = new ArrayList<ModuleElement>(Arrays.asList(modules));
+        this.connections = new ArrayList<ConnectionElement>(Arrays.asList(connections));
+    }
+
+    /**
+     * Saves this pipeline into its file, in the binary format if the file
+     * name ends with BINARY_SUFFIX and as JSON otherwise
+     */
+    public void save() throws IOException {
+        save(getFile());
+    }
+
+    /**
+     * Saves this pipeline into a file, in the binary format if the file name
+     * ends with BINARY_SUFFIX and as JSON otherwise
+     */
+    public void save(File file) throws IOException {
+
+        // Written beside the file and moved over it, so a failed save leaves
+        // the last saved pipeline in place
+        File temp = new File(file.getPath() + ".tmp");
+        if (file.getName().endsWith(BINARY_SUFFIX)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                saveBinary(out);
+            } finally {
+                out.close();
+            }
+        } else {
+            JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(temp), StandardCharsets.UTF_8)));
+            try {
+                save(writer);
+            } finally {
+                writer.close();
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes this pipeline in the compact binary format. See PipelineBinary.
+     */
+    public void saveBinary(OutputStream out) throws IOException {
+
+        PipelineBinary.save(new DataOutputStream(out), name, sources, sinks, modules, connections);
 
         hasUnsavedChanges = false;
     }
 
-    public JSONObject save() throws JSONException {
-        JSONObject outputJSON = new JSONObject();
+    /**
+     * Writes this pipeline as the next object of a JSON stream
+     */
+    public void save(JsonWriter writer) throws IOException {
+
+        writer.beginObject();
 
         // Save pipeline/workflow name
-        outputJSON.put("workflowName", name);
+        writer.name("workflowName").value(name);
 
         // Save sources
-        JSONArray sourcesJSON = SourceElement.save(sources);
-        outputJSON.put("sources", sourcesJSON);
+        writer.name("sources");
+        SourceElement.save(writer, sources);
 
         // Save sinks
-        JSONArray sinksJSON = SinkElement.save(sinks);
-        outputJSON.put("sinks", sinksJSON);
+        writer.name("sinks");
+        SinkElement.save(writer, sinks);
 
         // Save modules
-        JSONArray modulesJSON = ModuleElement.save(modules);
-        outputJSON.put("modules", modulesJSON);
+        writer.name("modules");
+        ModuleElement.save(writer, modules);
 
         // Save connections
-        JSONArray connectionsJSON = ConnectionElement.save(connections);
-        outputJSON.put("connections", connectionsJSON);
+        writer.name("connections");
+        ConnectionElement.save(writer, connections);
 
-        hasUnsavedChanges = false;
+        writer.endObject();
 
-        return outputJSON;
+        hasUnsavedChanges = false;
     }
 
     public PipelineDef getDefinition() {
@@ -278,6 +383,29 @@ public class PipelineInstance {
         hasUnsavedChanges = true;
     }
 
+    /**
+     * Swaps a new definition of a module into every element of this pipeline
+     * that uses the old one. Connections that no longer fit the module are
+     * removed. Called on the thread that draws and saves the pipeline, so
+     * each element changes over as a whole between uses.
+     */
+    public void redefineModule(ModuleDef oldModule, ModuleDef newModule) {
+
+        for (ModuleElement module : modules) {
+            if (module.getDefinition() != oldModule) {
+                continue;
+            }
+            for (ConnectionElement connection : module.redefine(newModule)) {
+                connection.clear();
+                connections.remove(connection);
+                hasUnsavedChanges = true;
+            }
+            if (! module.getName().equals(oldModule.getName())) {
+                hasUnsavedChanges = true;
+            }
+        }
+    }
+
     public void addConnection(ConnectionElement e) {
         connections.add(e);
 
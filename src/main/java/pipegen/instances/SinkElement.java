@@ -12,7 +12,6 @@ import java.util.*;
 import java.awt.*;
 import java.awt.geom.*;
 import java.awt.font.*;
-import org.json.*;
 
 import pipegen.*;
 import pipegen.definitions.*;
@@ -60,8 +59,6 @@ public class SinkElement extends BlockElement {
         this.input = new MountPointIn(this, definition, 0);
         maxID += 1;
         this.id = maxID;
-
-        initGraphics();
     }
 
     public SinkElement(String tableField, ElementPosition position, ParameterDef definition, int id) {
@@ -72,10 +69,12 @@ public class SinkElement extends BlockElement {
         if (id > maxID) {
             maxID = id;
         }
-
-        initGraphics();
     }
 
+    /**
+     * Sets up the 2D-graphics for displaying this sink. This is put off until
+     * the sink is first drawn so the model can be used without AWT.
+     */
     private void initGraphics() {
         areGraphicsSet = false;
         int xPos = position.getX();
@@ -94,73 +93,95 @@ public class SinkElement extends BlockElement {
     }
 
     /**
-     * Loads an array of sinks that were previously saved in a JSONArray. 
-     * Ensures that any file formats used are from the set of previously defined
-     * formats.
+     * Loads the array of sinks that comes next in a pipeline file as it is
+     * read. Ensures that any file formats used are from the set of previously
+     * defined formats.
      */
-    public static SinkElement[] load(JSONArray sourceArray, FileFormatDef[] formats) throws InvalidSinkDefException {
+    public static SinkElement[] load(JsonReader reader, Map<String, FileFormatDef> formats) throws InvalidSinkDefException {
 
         try {
-            int len = sourceArray.length();
-            SinkElement[] out = new SinkElement[len];
-            for (int i=0; i < len; i++) {
-                JSONObject currSink = sourceArray.getJSONObject(i);
-                String currTableField = currSink.getString("dataTableField");
-
-                int currID = currSink.getInt("id");
-
-                JSONObject positionObject = currSink.getJSONObject("position");
-                ElementPosition currPosition = ElementPosition.load(positionObject);
-
-                JSONObject inputDefObject = currSink.getJSONObject("input");
-                ParameterDef currDef = ParameterDef.load(inputDefObject, formats);
-
-                out[i] = new SinkElement(currTableField, currPosition, currDef, currID);
+            ArrayList<SinkElement> out = new ArrayList<SinkElement>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                out.add(loadSink(reader, formats));
             }
-        
-            return out;
+            reader.endArray();
+
+            return out.toArray(new SinkElement[out.size()]);
         } catch (Exception e) {
             e.printStackTrace();
             throw new InvalidSinkDefException(e);
         }
     }
 
-    public static JSONArray save(ArrayList<SinkElement> sinks) throws JSONException {
+    /**
+     * Loads one sink, whose members may come in any order
+     */
+    private static SinkElement loadSink(JsonReader reader, Map<String, FileFormatDef> formats) throws Exception {
+
+        String currTableField = null;
+        Integer currID = null;
+        ElementPosition currPosition = null;
+        ParameterDef currDef = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (key.equals("dataTableField")) {
+                currTableField = reader.nextString();
+            } else if (key.equals("id")) {
+                currID = reader.nextInt();
+            } else if (key.equals("position")) {
+                currPosition = ElementPosition.load(reader);
+            } else if (key.equals("input")) {
+                currDef = ParameterDef.load(reader, formats);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-        JSONArray outputJSON = new JSONArray();
-        for (SinkElement sink : sinks) {
-            JSONObject sinkJSON = sink.save();
-            outputJSON.put(sinkJSON);
+        if (currTableField == null || currID == null || currPosition == null || currDef == null) {
+            System.err.println("Error: Sink needs a dataTableField, id, position and input");
+            throw new InvalidSinkDefException();
         }
-        
-        return outputJSON;
+        return new SinkElement(currTableField, currPosition, currDef, currID);
     }
 
+    /**
+     * Writes an array list of sinks as the next array of a pipeline file
+     */
+    public static void save(JsonWriter writer, ArrayList<SinkElement> sinks) throws IOException {
+
+        writer.beginArray();
+        for (SinkElement sink : sinks) {
+            sink.save(writer);
+        }
+        writer.endArray();
+    }
 
-    public JSONObject save() throws JSONException {
+    public void save(JsonWriter writer) throws IOException {
 
-        JSONObject outputJSON = new JSONObject();
+        writer.beginObject();
 
         // Save table field
-        outputJSON.put("dataTableField", tableField);
+        writer.name("dataTableField").value(tableField);
 
         // Save id
-        outputJSON.put("id", id);
+        writer.name("id").value(id);
 
         // Save input mount point
-        JSONObject mountpointJSON = new JSONObject();
-        mountpointJSON.put("name", "");
-        mountpointJSON.put("format", input.getDefinition().getFileFormat().getName());
-        mountpointJSON.put("required", input.isRequired());
-        outputJSON.put("input", mountpointJSON);
+        writer.name("input").beginObject();
+        writer.name("name").value("");
+        writer.name("format").value(input.getDefinition().getFileFormat().getName());
+        writer.name("required").value(input.isRequired());
+        writer.endObject();
 
         // Save position
-        JSONObject positionJSON = new JSONObject();
-        positionJSON.put("X", position.getX());
-        positionJSON.put("Y", position.getY());
-        outputJSON.put("position", positionJSON);
+        writer.name("position");
+        position.save(writer);
 
-        return outputJSON;
+        writer.endObject();
     }
 
     /**
@@ -193,6 +214,9 @@ public class SinkElement extends BlockElement {
      * using draw() more efficient 
      */
     public void setGraphics(Graphics2D g2d) {
+        if (body == null) {
+            initGraphics();
+        }
         this.g2d = g2d;
         calcDimensions();
         calcPositions(0, 0);
@@ -257,15 +281,15 @@ public class SinkElement extends BlockElement {
         }
 
         // Draw label tag
-        g2d.setColor(TAG_COLOR);
+        g2d.setColor(ElementStyle.TAG_COLOR);
         g2d.fillRect(tagPos.getX(), tagPos.getY(), tagDim.getX(), tagDim.getY());
         g2d.setColor(input.getColor());
         g2d.drawString(tableField, textPos.getX(), textPos.getY());
 
         // Draw sink body
-        g2d.setColor(MODULE_COLOR);
+        g2d.setColor(ElementStyle.MODULE_COLOR);
         g2d.fill(body);
-        g2d.setColor(MODULE_RIM_COLOR);
+        g2d.setColor(ElementStyle.MODULE_RIM_COLOR);
         g2d.draw(body);
 
         // Draw the MountPointOut for this source
@@ -313,7 +337,7 @@ public class SinkElement extends BlockElement {
      * Returns true if the body of this sink contains the given point
      */
     public boolean contains(Point location) {
-        return body.contains(location);
+        return body != null && body.contains(location);
     }
 
     public boolean inputContains(Point location) {
@@ -334,7 +358,9 @@ public class SinkElement extends BlockElement {
      */
     public void move(int deltaX, int deltaY) {
         super.move(deltaX, deltaY);
-        calcPositions(deltaX, deltaY);
+        if (body != null) {
+            calcPositions(deltaX, deltaY);
+        }
         input.move(deltaX, deltaY);
     }
 
@@ -402,6 +428,14 @@ public class SinkElement extends BlockElement {
         return table.getDataByHeaderAndRowid(tableField, id);
     }
 
+    /**
+     * Returns the name of the id specific makefile variable holding this 
+     * sink's table field, e.g. "SINK3" for the variable "id001_SINK3"
+     */
+    public String getVariableName() {
+        return "SINK" + this.id;
+    }
+
     public String getPhoneyname(String id) {
         return "id" + id + "_sink" + this.id;
     }
@@ -409,12 +443,4 @@ public class SinkElement extends BlockElement {
     public BlockElement getFirstOutput() {
         return null;
     }
-
-    public boolean isFirstOutputOf(BlockElement parent) {
-        if (this == parent.getFirstOutput()) {
-            return true;
-        } else {
-            return false;
-        }
-    }
 }
@@ -12,7 +12,6 @@ import java.util.*;
 import java.awt.*;
 import java.awt.geom.*;
 import java.awt.font.*;
-import org.json.*;
 
 import pipegen.*;
 import pipegen.definitions.*;
@@ -64,8 +63,6 @@ public class SourceElement extends BlockElement {
         this.output = new MountPointOut(this, definition, 0);
         maxID += 1;
         this.id = maxID;
-
-        initGraphics();
     }
 
     public SourceElement(String tableField, ElementPosition position, ParameterDef definition, int id) {
@@ -76,10 +73,12 @@ public class SourceElement extends BlockElement {
         if (id > maxID) {
             maxID = id;
         }
-
-        initGraphics();
     }
 
+    /**
+     * Sets up the 2D-graphics for displaying this source. This is put off 
+     * until the source is first drawn so the model can be used without AWT.
+     */
     private void initGraphics() {
         areGraphicsSet = false;
         int xPos = position.getX();
@@ -99,72 +98,95 @@ public class SourceElement extends BlockElement {
     }
 
     /**
-     * Loads an array of sources that were previously saved in a JSONArray. 
-     * Ensures that any file formats used are from the set of previously defined
-     * formats.
+     * Loads the array of sources that comes next in a pipeline file as it is
+     * read. Ensures that any file formats used are from the set of previously
+     * defined formats.
      */
-    public static SourceElement[] load(JSONArray sourceArray, FileFormatDef[] formats) throws InvalidSourceDefException {
+    public static SourceElement[] load(JsonReader reader, Map<String, FileFormatDef> formats) throws InvalidSourceDefException {
 
         try {
-            int len = sourceArray.length();
-            SourceElement[] out = new SourceElement[len];
-            for (int i=0; i < len; i++) {
-                JSONObject currSource = sourceArray.getJSONObject(i);
-                String currTableField = currSource.getString("dataTableField");
-
-                int currID = currSource.getInt("id");
-
-                JSONObject positionObject = currSource.getJSONObject("position");
-                ElementPosition currPosition = ElementPosition.load(positionObject);
-
-                JSONObject outputDefObject = currSource.getJSONObject("output");
-                ParameterDef currDef = ParameterDef.load(outputDefObject, formats);
-
-                out[i] = new SourceElement(currTableField, currPosition, currDef, currID);
+            ArrayList<SourceElement> out = new ArrayList<SourceElement>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                out.add(loadSource(reader, formats));
             }
-        
-            return out;
+            reader.endArray();
+
+            return out.toArray(new SourceElement[out.size()]);
         } catch (Exception e) {
             e.printStackTrace();
             throw new InvalidSourceDefException(e);
         }
     }
 
-    public static JSONArray save(ArrayList<SourceElement> sources) throws JSONException {
+    /**
+     * Loads one source, whose members may come in any order
+     */
+    private static SourceElement loadSource(JsonReader reader, Map<String, FileFormatDef> formats) throws Exception {
+
+        String currTableField = null;
+        Integer currID = null;
+        ElementPosition currPosition = null;
+        ParameterDef currDef = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (key.equals("dataTableField")) {
+                currTableField = reader.nextString();
+            } else if (key.equals("id")) {
+                currID = reader.nextInt();
+            } else if (key.equals("position")) {
+                currPosition = ElementPosition.load(reader);
+            } else if (key.equals("output")) {
+                currDef = ParameterDef.load(reader, formats);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (currTableField == null || currID == null || currPosition == null || currDef == null) {
+            System.err.println("Error: Source needs a dataTableField, id, position and output");
+            throw new InvalidSourceDefException();
+        }
+        return new SourceElement(currTableField, currPosition, currDef, currID);
+    }
+
+    /**
+     * Writes an array list of sources as the next array of a pipeline file
+     */
+    public static void save(JsonWriter writer, ArrayList<SourceElement> sources) throws IOException {
 
-        JSONArray outputJSON = new JSONArray();
+        writer.beginArray();
         for (SourceElement source : sources) {
-            JSONObject sourceJSON = source.save();
-            outputJSON.put(sourceJSON);
+            source.save(writer);
         }
-        
-        return outputJSON;
+        writer.endArray();
     }
 
-    public JSONObject save() throws JSONException {
+    public void save(JsonWriter writer) throws IOException {
 
-        JSONObject outputJSON = new JSONObject();
+        writer.beginObject();
 
         // Save table field
-        outputJSON.put("dataTableField", tableField);
+        writer.name("dataTableField").value(tableField);
 
         // Save id
-        outputJSON.put("id", id);
+        writer.name("id").value(id);
 
         // Save output mount point
-        JSONObject mountpointJSON = new JSONObject();
-        mountpointJSON.put("name", "");
-        mountpointJSON.put("format", output.getDefinition().getFileFormat().getName());
-        mountpointJSON.put("required", output.isRequired());
-        outputJSON.put("output", mountpointJSON);
+        writer.name("output").beginObject();
+        writer.name("name").value("");
+        writer.name("format").value(output.getDefinition().getFileFormat().getName());
+        writer.name("required").value(output.isRequired());
+        writer.endObject();
 
         // Save position
-        JSONObject positionJSON = new JSONObject();
-        positionJSON.put("X", position.getX());
-        positionJSON.put("Y", position.getY());
-        outputJSON.put("position", positionJSON);
+        writer.name("position");
+        position.save(writer);
 
-        return outputJSON;
+        writer.endObject();
     }
 
     /**
@@ -197,6 +219,9 @@ public class SourceElement extends BlockElement {
      * using draw() more efficient 
      */
     public void setGraphics(Graphics2D g2d) {
+        if (body == null) {
+            initGraphics();
+        }
         this.g2d = g2d;
 
         calcDimensions();
@@ -234,15 +259,15 @@ public class SourceElement extends BlockElement {
 
         //if (toDraw) {
         // Draw the label tag
-        g2d.setColor(TAG_COLOR);
+        g2d.setColor(ElementStyle.TAG_COLOR);
         g2d.fillRect(tagPos.getX(), tagPos.getY(), tagDim.getX(), tagDim.getY());
         g2d.setColor(output.getColor());
         g2d.drawString(tableField, textPos.getX(), textPos.getY());
 
         // Draw source body
-        g2d.setColor(MODULE_COLOR);
+        g2d.setColor(ElementStyle.MODULE_COLOR);
         g2d.fill(body);
-        g2d.setColor(MODULE_RIM_COLOR);
+        g2d.setColor(ElementStyle.MODULE_RIM_COLOR);
         g2d.draw(body);
 
         // Draw the MountPointOut for this source
@@ -296,7 +321,7 @@ public class SourceElement extends BlockElement {
      * Returns true if the body of this source contains the given point
      */
     public boolean contains(Point location) {
-        return body.contains(location);
+        return body != null && body.contains(location);
     }
 
     public MountPointOut mountPointContaining(Point location) {
@@ -316,7 +341,9 @@ public class SourceElement extends BlockElement {
         //System.out.println("SourceElement.java - move()");
 
         super.move(deltaX, deltaY);
-        calcPositions();
+        if (body != null) {
+            calcPositions();
+        }
         output.move(deltaX, deltaY);
         //toDraw = true;
     }
@@ -378,6 +405,14 @@ public class SourceElement extends BlockElement {
         return table.getDataByHeaderAndRowid(tableField, id);
     }
 
+    /**
+     * Returns the name of the id specific makefile variable holding this 
+     * source's table field, e.g. "SOURCE3" for the variable "id001_SOURCE3"
+     */
+    public String getVariableName() {
+        return "SOURCE" + this.id;
+    }
+
     public String getPhoneyname(String id) {
         return "id" + id + "_source" + this.id;
     }
@@ -386,10 +421,6 @@ public class SourceElement extends BlockElement {
         return output.getFirstOutput();
     }
 
-    public boolean isFirstOutputOf(BlockElement parent) {
-        return false;
-    }
-
     public boolean isArg() {
         return output.getFileFormat().isArg();
     }